@@ -0,0 +1,112 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies in microseconds with a relative error of at most 1/64
+ * (about 1.6%) over the whole range of long, in the way of a HdrHistogram.<br>
+ * Values below 128 are counted exactly; above, every power of two is divided
+ * into 64 linear buckets. Recording is lock-free and can be done from any
+ * number of threads.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1); // 64
+
+	private final AtomicLongArray mCounts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param micros
+	 *            The latency in microseconds. Negative values are recorded as
+	 *            0.
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, micros);
+		mCounts.incrementAndGet(index(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max;
+		while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value))
+			;
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return The count.
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return The maximum in microseconds, 0 if nothing was recorded.
+	 */
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return The mean in microseconds, 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long count = mCount.get();
+		return count == 0 ? 0 : (double) mSum.get() / count;
+	}
+
+	/**
+	 * Returns the value below or at which a percentage of the recorded values
+	 * lie.
+	 *
+	 * @param percentile
+	 *            The percentile between 0 and 100, e.g. 99.9.
+	 * @return The highest value equivalent to the bucket containing the
+	 *         percentile in microseconds, at most {@link #getMax()}. 0 if
+	 *         nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = mCount.get();
+		if (count == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulative = 0;
+		for (int i = 0; i < mCounts.length(); i++) {
+			cumulative += mCounts.get(i);
+			if (cumulative >= target)
+				return Math.min(highestEquivalentValue(i), getMax());
+		}
+		return getMax();
+	}
+
+	private static int index(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		if (msb < SUB_BUCKET_BITS - 1)
+			return (int) value;
+		int shift = msb - (SUB_BUCKET_BITS - 1);
+		return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+	}
+
+	private static long highestEquivalentValue(int index) {
+		if (index < 2 * SUB_BUCKET_HALF)
+			return index;
+		int shift = index / SUB_BUCKET_HALF - 1;
+		long sub = index - shift * SUB_BUCKET_HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,354 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load generator for the {@link de.bensoft.acis.server.Server} with a
+ * {@link de.bensoft.acis.server.contexts.SampleRequestHandler}, e.g. the
+ * sample server started by {@code samples.SampleImplementation}.<br>
+ * Every virtual user authenticates through /auth and gets its own session. The
+ * virtual users are spread over the accounts given with --user in turn. A
+ * dialog sends a query of the corpus with mode=request; as long as the server
+ * answers with REQUEST_INPUT, the dialog answers with mode=respond.<br>
+ * Two arrival models are supported:
+ * <ul>
+ * <li>Closed loop (default): every virtual user starts the next dialog when
+ * the previous one finished (plus the think time).</li>
+ * <li>Open loop (--rate): dialogs start at a fixed rate, regardless of how
+ * fast the server answers. The latency is measured from the planned start, so
+ * a stalled server is not hidden by the load generator waiting for it
+ * (coordinated omission). The virtual users limit the number of dialogs
+ * running at once.</li>
+ * </ul>
+ * At the end, throughput, status codes and latency percentiles are printed.
+ * <br>
+ * Usage: java de.bensoft.acis.bench.LoadGenerator [--url
+ * http://localhost:4964] [--path /request] [--user sample[,user2,...]]
+ * [--password samplepassword] [--users 8] [--duration 30] [--warmup 5] [--rate
+ * 0] [--think 0] [--corpus FILE] [--respond 42] [--threshold 0]<br>
+ * Note: The sample server limits /request to 2 requests per second with a
+ * burst of 10, both per user and per session. As all virtual users of one
+ * account share the user's limit, start the sample server with
+ * {@code -Dacis.sample.rateLimit=0} to measure the server instead of the limit.
+ * Answers with 429 are counted but not retried.
+ *
+ */
+public class LoadGenerator {
+
+	private static final String[] DEFAULT_CORPUS = { "my sample trigger", "another action with hello",
+			"this value is a parameter", "another action with" };
+	private static final int MAX_DIALOG_STEPS = 10;
+
+	private final String mBaseUrl;
+	private final String mPath;
+	private final String[] mUsers;
+	private final String mPassword;
+	private final int mVirtualUsers;
+	private final long mDuration;
+	private final long mWarmup;
+	private final double mRate;
+	private final long mThinkTime;
+	private final List<String> mCorpus;
+	private final String mRespondContent;
+	private final String mThreshold;
+
+	private final LatencyHistogram mDialogLatency = new LatencyHistogram();
+	private final LatencyHistogram mRequestLatency = new LatencyHistogram();
+	private final LatencyHistogram mRespondLatency = new LatencyHistogram();
+	private final ConcurrentMap<String, AtomicLong> mOutcomes = new ConcurrentHashMap<>();
+	private volatile long mMeasureStart;
+
+	/**
+	 * Constructor for a LoadGenerator.
+	 *
+	 * @param options
+	 *            The options by name without the leading dashes (see the class
+	 *            description).
+	 * @throws IOException
+	 *             When the corpus can not be read.
+	 */
+	public LoadGenerator(Map<String, String> options) throws IOException {
+		mBaseUrl = option(options, "url", "http://localhost:4964");
+		mPath = option(options, "path", "/request");
+		mUsers = option(options, "user", "sample").split(",");
+		mPassword = option(options, "password", "samplepassword");
+		mVirtualUsers = Integer.parseInt(option(options, "users", "8"));
+		mDuration = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "duration", "30")));
+		mWarmup = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "warmup", "5")));
+		mRate = Double.parseDouble(option(options, "rate", "0"));
+		mThinkTime = Long.parseLong(option(options, "think", "0"));
+		mRespondContent = option(options, "respond", "42");
+		mThreshold = option(options, "threshold", "0");
+		if (options.containsKey("corpus")) {
+			mCorpus = new ArrayList<>();
+			for (String line : Files.readAllLines(new File(options.get("corpus")).toPath(), StandardCharsets.UTF_8))
+				if (!line.trim().isEmpty())
+					mCorpus.add(line.trim());
+			if (mCorpus.isEmpty())
+				throw new IOException("The corpus is empty.");
+		} else {
+			mCorpus = Arrays.asList(DEFAULT_CORPUS);
+		}
+		if (mVirtualUsers < 1)
+			throw new IllegalArgumentException("At least one virtual user is required.");
+	}
+
+	/**
+	 * Runs a load test and prints the report to {@link System#out}.
+	 *
+	 * @param args
+	 *            The options, e.g. {@code --users 16 --rate 50}.
+	 * @throws Exception
+	 *             When the options are invalid or the authentication fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 >= args.length)
+				throw new IllegalArgumentException("Expected '--name value', got '" + args[i] + "'.");
+			options.put(args[i].substring(2), args[++i]);
+		}
+		new LoadGenerator(options).run(System.out);
+	}
+
+	/**
+	 * Authenticates the virtual users, runs the load for the warmup and the
+	 * measured duration and prints the report.
+	 *
+	 * @param out
+	 *            The stream to print the report to.
+	 * @throws Exception
+	 *             When a virtual user can not authenticate.
+	 */
+	public void run(PrintStream out) throws Exception {
+		final String[] sessions = new String[mVirtualUsers];
+		for (int i = 0; i < mVirtualUsers; i++)
+			sessions[i] = authenticate(mUsers[i % mUsers.length]);
+		out.println("Authenticated " + mVirtualUsers + " virtual user(s) as " + Arrays.toString(mUsers) + " at "
+				+ mBaseUrl + ", "
+				+ (mRate > 0 ? "open loop with " + mRate + " dialogs/s" : "closed loop") + ".");
+
+		long start = System.nanoTime();
+		mMeasureStart = start + mWarmup;
+		final long end = mMeasureStart + mDuration;
+		ExecutorService users = Executors.newFixedThreadPool(mVirtualUsers);
+		if (mRate > 0) {
+			// dialogs are planned at fixed times and wait for a free virtual user
+			final AtomicInteger next = new AtomicInteger();
+			long interval = (long) (1e9 / mRate);
+			for (long planned = start; planned < end; planned += interval) {
+				long wait = planned - System.nanoTime();
+				if (wait > 0)
+					TimeUnit.NANOSECONDS.sleep(wait);
+				final long plannedStart = planned;
+				users.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						dialog(sessions[Math.floorMod(next.getAndIncrement(), sessions.length)], plannedStart);
+					}
+				});
+			}
+		} else {
+			for (final String session : sessions) {
+				users.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							while (System.nanoTime() < end) {
+								dialog(session, System.nanoTime());
+								if (mThinkTime > 0)
+									Thread.sleep(mThinkTime);
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+		}
+		users.shutdown();
+		if (!users.awaitTermination(Math.max(0, end - System.nanoTime()) + TimeUnit.SECONDS.toNanos(60),
+				TimeUnit.NANOSECONDS))
+			users.shutdownNow();
+		long measured = Math.min(System.nanoTime(), end) - mMeasureStart;
+
+		report(out, measured);
+	}
+
+	/**
+	 * Runs one dialog: a query and the responds to its input requests.
+	 *
+	 * @param session
+	 *            The session key of the virtual user.
+	 * @param plannedStart
+	 *            The {@link System#nanoTime()} at which the dialog should have
+	 *            started.
+	 */
+	private void dialog(String session, long plannedStart) {
+		String query = mCorpus.get(ThreadLocalRandom.current().nextInt(mCorpus.size()));
+		String url = mBaseUrl + mPath + "?key=" + encode(session) + "&mode=request&threshold=" + encode(mThreshold)
+				+ "&q=" + encode(query);
+		LatencyHistogram histogram = mRequestLatency;
+		// the first call is measured from the planned start, see the class description
+		long callStart = plannedStart;
+		for (int step = 0; step < MAX_DIALOG_STEPS; step++) {
+			Response response = get(url);
+			long now = System.nanoTime();
+			boolean measure = plannedStart >= mMeasureStart;
+			if (measure) {
+				histogram.record(TimeUnit.NANOSECONDS.toMicros(now - callStart));
+				count(response.mStatus == 0 ? "error" : String.valueOf(response.mStatus));
+			}
+			String requestId = response.mStatus == 200 && response.mBody.contains("<type>REQUEST_INPUT</type>")
+					? element(response.mBody, "id") : null;
+			if (requestId == null) {
+				if (measure && response.mStatus == 200)
+					mDialogLatency.record(TimeUnit.NANOSECONDS.toMicros(now - plannedStart));
+				return;
+			}
+			url = mBaseUrl + mPath + "?key=" + encode(session) + "&mode=respond&id=" + encode(requestId)
+					+ "&content=" + encode(mRespondContent);
+			histogram = mRespondLatency;
+			callStart = System.nanoTime();
+		}
+	}
+
+	private String authenticate(String user) throws IOException {
+		Response response = get(mBaseUrl + "/auth?user=" + encode(user) + "&pass=" + encode(md5(mPassword)));
+		if (response.mStatus != 200)
+			throw new IOException("Authentication failed (" + response.mStatus + "): " + response.mBody);
+		return response.mBody.trim();
+	}
+
+	private void count(String outcome) {
+		AtomicLong counter = mOutcomes.get(outcome);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong previous = mOutcomes.putIfAbsent(outcome, counter);
+			if (previous != null)
+				counter = previous;
+		}
+		counter.incrementAndGet();
+	}
+
+	private void report(PrintStream out, long measuredNanos) {
+		double seconds = measuredNanos / 1e9;
+		long calls = mRequestLatency.getCount() + mRespondLatency.getCount();
+		out.println();
+		out.println(String.format(Locale.ROOT, "Measured %.1f s: %d dialogs (%.1f/s), %d calls (%.1f/s)", seconds,
+				mDialogLatency.getCount(), mDialogLatency.getCount() / seconds, calls, calls / seconds));
+		out.println("Status codes: " + new TreeMap<>(mOutcomes));
+		out.println();
+		out.println(String.format(Locale.ROOT, "%-10s %8s %9s %9s %9s %9s %9s %9s", "latency", "count", "mean",
+				"p50", "p90", "p99", "p99.9", "max"));
+		print(out, "dialog", mDialogLatency);
+		print(out, "request", mRequestLatency);
+		print(out, "respond", mRespondLatency);
+		out.println("(milliseconds)");
+	}
+
+	private static void print(PrintStream out, String name, LatencyHistogram h) {
+		out.println(String.format(Locale.ROOT, "%-10s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f", name, h.getCount(),
+				h.getMean() / 1000, h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+				h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0));
+	}
+
+	/**
+	 * Sends a GET request. Connection errors are returned as status 0.
+	 */
+	private static Response get(String link) {
+		try {
+			HttpURLConnection conn = (HttpURLConnection) new URL(link).openConnection();
+			conn.setConnectTimeout(5000);
+			conn.setReadTimeout(60000);
+			int status = conn.getResponseCode();
+			InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if (in != null) {
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					body.write(buffer, 0, read);
+				in.close();
+			}
+			return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return new Response(0, e.toString());
+		}
+	}
+
+	private static String element(String xml, String name) {
+		int start = xml.indexOf("<" + name + ">");
+		int end = xml.indexOf("</" + name + ">", start);
+		if (start == -1 || end == -1)
+			return null;
+		return xml.substring(start + name.length() + 2, end);
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String md5(String s) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			return String.format("%032x", new BigInteger(1, md5.digest(s.getBytes(StandardCharsets.UTF_8))));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * The status and body of a response.
+	 */
+	private static class Response {
+		private final int mStatus;
+		private final String mBody;
+
+		Response(int status, String body) {
+			mStatus = status;
+			mBody = body;
+		}
+	}
+}
\ No newline at end of file
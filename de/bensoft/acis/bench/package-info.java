@@ -0,0 +1,5 @@
+/**
+ * Contains tools for measuring the performance of the
+ * {@link de.bensoft.acis.server.Server}, e.g. the {@link de.bensoft.acis.bench.LoadGenerator}.
+ */
+package de.bensoft.acis.bench;
\ No newline at end of file
@@ -8,9 +8,27 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import de.bensoft.acis.core.Action.ActionMethod;
 import de.bensoft.acis.core.ActionResult.ActionResultCode;
@@ -25,6 +43,9 @@ import de.bensoft.acis.utils.Preferences;
 import de.bensoft.acis.utils.IOUtils.SavingConfig;
 import de.bensoft.acis.utils.Logging.Logger;
 import de.bensoft.acis.utils.Logging.LoggingConfig;
+import de.bensoft.acis.utils.Metrics;
+import de.bensoft.acis.utils.Metrics.Histogram;
+import de.bensoft.acis.utils.SimpleHTTPGetRequestSender;
 
 /**
  * This class represents the base system. It is only applicable to one
@@ -32,7 +53,17 @@ import de.bensoft.acis.utils.Logging.LoggingConfig;
  * It manages the {@link Action}s, the {@link Environment}s for them and the
  * context system.<br>
  * The default {@link ContextStack} size is 30;<br>
- * The default data directory is "./".
+ * The default data directory is "./".<br>
+ * <br>
+ * Concurrency: Inputs of different {@link Conversation}s can be executed in
+ * parallel. The shared state is only read through snapshots (the
+ * {@link ActionManager} hands out copies of its {@link Action}s, the analyzed
+ * triggers are immutable once computed), the mutable context state is guarded
+ * by the lock of its {@link Conversation}. The lock is only held while the
+ * available {@link Action}s are determined and while the {@link Context}s and
+ * the {@link ContextStack} are updated after an {@link Action} ran, never
+ * while an {@link Action} runs, so an {@link Action} waiting for input does
+ * not block other inputs of its {@link Conversation}.
  */
 public class ACIS {
 
@@ -43,11 +74,21 @@ public class ACIS {
 	// there are major API
 	// changes
 
+	private static final Histogram MATCHER_DURATION = Metrics.getDefault().histogram(
+			"acis_matcher_duration_seconds", "Time to match an analyzed input against all Actions.",
+			Metrics.DEFAULT_DURATION_BUCKETS);
+	private static final Histogram ANALYSIS_DURATION = Metrics.getDefault().histogram(
+			"acis_input_analysis_duration_seconds", "Time to analyze an input with the Language.",
+			Metrics.DEFAULT_DURATION_BUCKETS);
+
 	private Language mLanguage;
 	private SystemEnvironment mSystemEnvironment;
-	private ContextStack mGeneralContext = new ContextStack(30);
+	private final Conversation mDefaultConversation = new Conversation();
 
-	private Map<String, Context> mContexts = new HashMap<>(0);
+	private final ConcurrentMap<String, Conversation> mConversations = new ConcurrentHashMap<>();
+	private volatile long mConversationTimeout = 60 * 60 * 1000;
+	private volatile long mLastConversationSweep = System.currentTimeMillis();
+	private final AtomicInteger mExecutingConversations = new AtomicInteger();
 
 	private File mDataDirectory;
 	private File mActionsDataDirectory;
@@ -60,10 +101,34 @@ public class ACIS {
 
 	private ActionManager mActionManager;
 
-	private float mMatcherParameterThreshold = 0.3f;
+	private CompiledActionIndex mActionIndex;
+
+	private volatile float mMatcherParameterThreshold = 0.3f;
+
+	private final ConcurrentMap<String, PackageResources> mPackageResources = new ConcurrentHashMap<>();
+
+	private final ContextLifecycle mContextLifecycle = new ContextLifecycle(this);
+
+	private final ConcurrentMap<String, ActionBulkhead> mBulkheads = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Long> mPackageActionTimeouts = new ConcurrentHashMap<>();
+	private volatile long mActionTimeout = 0;
+	private volatile int mMaximumConcurrentActions = 16;
 
 	private final Thread mStartingThread;
 
+	private volatile Executor mExecutor;
+	private ExecutorService mDefaultExecutor;
+	private static final ScheduledExecutorService TIMEOUTS = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "acis-execute-timeout");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	/**
 	 * Constructor for a ACIS system.
 	 *
@@ -79,6 +144,7 @@ public class ACIS {
 		mLanguage = language;
 		mSystemEnvironment = environment;
 		setDataDirectory(new File("./"));
+		registerMetrics();
 	}
 
 	/**
@@ -98,6 +164,28 @@ public class ACIS {
 		mLanguage = language;
 		mSystemEnvironment = environment;
 		setDataDirectory(dataDirectory);
+		registerMetrics();
+	}
+
+	private void registerMetrics() {
+		Metrics metrics = Metrics.getDefault();
+		metrics.gauge("acis_conversations", "Conversations looked up by id, without the default conversation.",
+				new Metrics.Gauge() {
+
+					@Override
+					public double getValue() {
+						return mConversations.size();
+					}
+				});
+		metrics.gauge("acis_conversations_in_flight",
+				"Conversations with an input being executed, including Actions waiting for input.",
+				new Metrics.Gauge() {
+
+					@Override
+					public double getValue() {
+						return mExecutingConversations.get();
+					}
+				});
 	}
 
 	/**
@@ -132,6 +220,7 @@ public class ACIS {
 
 		mDataDirectory = dataDirectory;
 		mActionsDataDirectory = new File(dataDirectory.getAbsolutePath() + "/data");
+		mPackageResources.clear();
 		mLogger = new Logger(new LoggingConfig(new File(mDataDirectory.getAbsolutePath() + "/system.log")));
 		mSystemPreferences = new Preferences(
 				new SavingConfig(new File(mDataDirectory.getAbsolutePath() + "/system.pref")));
@@ -141,6 +230,24 @@ public class ACIS {
 				new File(mDataDirectory.getAbsolutePath() + "/" + mLanguage.getName() + ".cache.log"))));
 		mLanguage.setWordCache(mCache);
 		mActionManager = new ActionManager(mLogger);
+		mActionManager.setOnPackagesRemovedListener(new ActionManager.OnPackagesRemovedListener() {
+
+			@Override
+			public void onPackagesRemoved(Set<String> names) {
+				// replaced packages get a new bulkhead on their next run; closed
+				// first, so the new one does not take over the old metrics
+				for (String name : names) {
+					ActionBulkhead bulkhead = mBulkheads.get(name);
+					if (bulkhead != null) {
+						bulkhead.close();
+						mBulkheads.remove(name, bulkhead);
+					}
+				}
+			}
+		});
+		mActionIndex = new CompiledActionIndex(
+				new File(mDataDirectory.getAbsolutePath() + "/" + mLanguage.getName() + ".index"), mLanguage, mLogger);
+		mActionIndex.load();
 		if (!getPackageFilesDirectory().exists())
 			getPackageFilesDirectory().mkdirs();
 	}
@@ -172,7 +279,9 @@ public class ACIS {
 	 * @return The {@link Environment} specifically for this {@link ActionPackage}.
 	 */
 	public Environment getEnvironment(final ActionPackage pack) {
-		return getEnvironment(pack, mSystemEnvironment);
+		if (mActionManager.getActionPackage(pack.getName()) == null)
+			return null;
+		return getPackageResources(pack).getDefaultEnvironment(pack);
 	}
 
 	/**
@@ -186,62 +295,121 @@ public class ACIS {
 	 * @return The {@link Environment} specifically for this {@link ActionPackage}.
 	 */
 	public Environment getEnvironment(final ActionPackage pack, final SystemEnvironment systemEnvironment) {
-		for (Action a : getActionManager().getActions()) {
-			if (a.getPackage().getName().equals(pack.getName())) {
-				return EnvironmentCreator.createEnvironment(systemEnvironment, new PackageEnvironment() {
+		return getEnvironment(pack, systemEnvironment, mDefaultConversation);
+	}
 
-					@Override
-					public File getDataDirectory() {
-						File dataDir = new File(mActionsDataDirectory.getAbsoluteFile() + "/" + pack.getName());
-						if (!dataDir.exists())
-							dataDir.mkdirs();
-						return dataDir;
-					}
+	/**
+	 * Returns the {@link Environment} for a specific {@link ActionPackage} in a
+	 * {@link Conversation}. The {@link ContextStack} of the {@link Environment} is
+	 * the one of the {@link Conversation}.
+	 *
+	 * @param pack
+	 *            The {@link ActionPackage}.
+	 * @param systemEnvironment
+	 *            The {@link SystemEnvironment}.
+	 * @param conversation
+	 *            The {@link Conversation}.
+	 * @return The {@link Environment} specifically for this {@link ActionPackage}.
+	 */
+	public Environment getEnvironment(final ActionPackage pack, final SystemEnvironment systemEnvironment,
+			final Conversation conversation) {
+		if (mActionManager.getActionPackage(pack.getName()) == null)
+			return null;
+		if (systemEnvironment == mSystemEnvironment && conversation == mDefaultConversation)
+			return getPackageResources(pack).getDefaultEnvironment(pack);
+		return EnvironmentCreator.createEnvironment(systemEnvironment,
+				createPackageEnvironment(pack, getPackageResources(pack), conversation));
+	}
 
-					@Override
-					public Preferences getPreferences() {
-						try {
-							Preferences pref = new Preferences(new SavingConfig(
-									new File(getDataDirectory().getAbsolutePath() + "/preferences.pref")));
-							return pref;
-						} catch (IOException e) {
-							mLogger.e("ACIS",
-									"Preferences for '" + pack.getName() + "' could not be created: " + e.toString());
-						}
-						return null;
-					}
+	private PackageResources getPackageResources(ActionPackage pack) {
+		PackageResources resources = mPackageResources.get(pack.getName());
+		if (resources == null) {
+			PackageResources created = new PackageResources(
+					new File(mActionsDataDirectory.getAbsoluteFile() + "/" + pack.getName()));
+			resources = mPackageResources.putIfAbsent(pack.getName(), created);
+			if (resources == null)
+				resources = created;
+		}
+		return resources;
+	}
 
-					@Override
-					public Language getLanguage() {
-						return mLanguage;
-					}
+	private PackageEnvironment createPackageEnvironment(final ActionPackage pack, final PackageResources resources,
+			final Conversation conversation) {
+		return new PackageEnvironment() {
 
-					@Override
-					public ContextStack getContextStack() {
-						ContextStack copy = new ContextStack(getGeneralContext().getMaximumSize(),
-								getGeneralContext().getItems());
-						for (int i = 0; i < copy.getItems().length; i++) {
-							ContextStackItem item = copy.getItems()[i];
-							if (item.getAction().getContextVisibility() == ContextVisibility.PRIVATE
-									|| (item.getAction().getContextVisibility() == ContextVisibility.PACKAGE
-									&& !item.getAction().getPackage().equals(pack))) {
-								copy.removeItem(i);
-								i--;
-							}
-
-							if (item.getAction().getContextVisibility() == ContextVisibility.PUBLIC_NO_PARAMETERS)
-								copy.updateItem(i,
-										new ContextStackItem(item.getTime(), item.getAction(),
-												new Sentence(item.getAction().getTrigger()).getTextWithoutParams(),
-												item.getActionResult()));
-						}
-						return copy;
-					}
+			@Override
+			public File getDataDirectory() {
+				return resources.getDataDirectory();
+			}
 
-				});
+			@Override
+			public Preferences getPreferences() {
+				return resources.getPreferences(pack);
+			}
+
+			@Override
+			public Language getLanguage() {
+				return mLanguage;
+			}
+
+			@Override
+			public ContextStack getContextStack() {
+				return conversation.getContextStack().getPackageView(pack);
+			}
+
+		};
+	}
+
+	/**
+	 * The data directory and {@link Preferences} of an {@link ActionPackage},
+	 * created on first use and shared by all its {@link Environment}s.
+	 */
+	private class PackageResources {
+		private final File mDirectory;
+		private volatile boolean mDirectoryCreated;
+		private volatile Preferences mPreferences;
+		private Environment mDefaultEnvironment;
+		private ActionPackage mDefaultEnvironmentPackage;
+
+		PackageResources(File directory) {
+			mDirectory = directory;
+		}
+
+		File getDataDirectory() {
+			if (!mDirectoryCreated) {
+				if (!mDirectory.exists())
+					mDirectory.mkdirs();
+				mDirectoryCreated = true;
 			}
+			return mDirectory;
+		}
+
+		synchronized Preferences getPreferences(ActionPackage pack) {
+			if (mPreferences == null)
+				try {
+					mPreferences = new Preferences(new SavingConfig(
+							new File(getDataDirectory().getAbsolutePath() + "/preferences.pref")));
+				} catch (IOException e) {
+					mLogger.e("ACIS",
+							"Preferences for '" + pack.getName() + "' could not be created: " + e.toString());
+				}
+			return mPreferences;
+		}
+
+		/**
+		 * Returns the {@link Environment} with the {@link SystemEnvironment} of
+		 * the system and the default {@link Conversation}. It is created again
+		 * when the package was reinstalled, as the context visibility compares
+		 * the {@link ActionPackage} Objects.
+		 */
+		synchronized Environment getDefaultEnvironment(ActionPackage pack) {
+			if (mDefaultEnvironment == null || mDefaultEnvironmentPackage != pack) {
+				mDefaultEnvironment = EnvironmentCreator.createEnvironment(mSystemEnvironment,
+						createPackageEnvironment(pack, this, mDefaultConversation));
+				mDefaultEnvironmentPackage = pack;
+			}
+			return mDefaultEnvironment;
 		}
-		return null;
 	}
 
 	/**
@@ -272,6 +440,40 @@ public class ACIS {
 		return mActionManager;
 	}
 
+	/**
+	 * Creates the {@link Action}s of an {@link ActionPackage} and analyzes their
+	 * triggers with the {@link Language} of the system, so they can be matched
+	 * without further analysis. The {@link Action}s are not added to the
+	 * {@link ActionManager}.<br>
+	 * The analysis is kept in an index file in the data directory, so compiling
+	 * an unchanged package again, e.g. after a restart, only reads it, unless a
+	 * request to a language backend failed during the analysis. The data
+	 * directory and {@link Preferences} of the package are prepared as well.
+	 *
+	 * @param pack
+	 *            The {@link ActionPackage}.
+	 * @return The compiled {@link Action}s.
+	 * @throws ActionMalformedException
+	 *             When one or more {@link Action}s are malformed.
+	 */
+	public Action[] compile(ActionPackage pack) throws ActionMalformedException {
+		Action[] actions = pack.getActions(mLanguage);
+		if (!mActionIndex.apply(pack, actions)) {
+			long failures = SimpleHTTPGetRequestSender.getFailureCount();
+			for (Action a : actions)
+				a.getTriggerSentenceObjects(mLanguage);
+			// an analysis made while a language backend failed is not kept, so it
+			// is done again next time (also when another package saw the failure)
+			if (SimpleHTTPGetRequestSender.getFailureCount() == failures)
+				mActionIndex.put(pack, actions);
+			else
+				mLogger.w("ACIS", "The analysis of '" + pack.getName()
+						+ "' is not kept in the index, a language backend could not be reached.");
+		}
+		getPackageResources(pack).getPreferences(pack);
+		return actions;
+	}
+
 	/**
 	 * Returns the {@link WordCache} for the specific {@link Language} used in the
 	 * system.
@@ -285,10 +487,20 @@ public class ACIS {
 	/**
 	 * Returns a {@link Matcher} Object to use for {@link Action} comparison.
 	 *
+	 * @param language
+	 *            The {@link Language} the {@link Matcher} analyzes the triggers
+	 *            with.
+	 * @param conversation
+	 *            The {@link Conversation} whose {@link Context}s decide which
+	 *            {@link ContextDependentAction}s are available.
 	 * @return The {@link Matcher} Object.
 	 */
-	private Matcher getMatcher() {
-		Matcher matcher = new Matcher(mLanguage, mActionManager.getActions(mContexts), mMatcherParameterThreshold);
+	private Matcher getMatcher(Language language, Conversation conversation) {
+		Action[] actions;
+		synchronized (conversation) {
+			actions = conversation.getCandidates(mActionManager.getSnapshot());
+		}
+		Matcher matcher = new Matcher(language, mLanguage, actions, mMatcherParameterThreshold);
 		matcher.setLogger(mLogger);
 		return matcher;
 	}
@@ -321,24 +533,125 @@ public class ACIS {
 	}
 
 	/**
-	 * Returns the {@link ContextStack} including all context items (even
-	 * {@link ContextVisibility#PRIVATE}).
+	 * Returns the {@link ContextStack} of the default {@link Conversation}
+	 * including all context items (even {@link ContextVisibility#PRIVATE}).
 	 *
 	 * @return The {@link ContextStack}.
 	 */
 	public ContextStack getGeneralContext() {
-		return mGeneralContext;
+		return mDefaultConversation.getContextStack();
 	}
 
 	/**
-	 * Sets the size of the {@link ContextStack}.<br>
+	 * Sets the size of the {@link ContextStack} of the default
+	 * {@link Conversation}.<br>
 	 * Note: Previous entries are lost.
 	 *
 	 * @param maxSize
 	 *            The size to set.
 	 */
 	public void setGeneralContextMaximumSize(int maxSize) {
-		mGeneralContext = new ContextStack(maxSize);
+		mDefaultConversation.setContextStackMaximumSize(maxSize);
+	}
+
+	/**
+	 * Adds a listener for the creation, destruction and expiry of the
+	 * {@link Context}s of all {@link Conversation}s.
+	 *
+	 * @param listener
+	 *            The {@link ContextListener} to add.
+	 */
+	public void addContextListener(ContextListener listener) {
+		mContextLifecycle.addListener(listener);
+	}
+
+	/**
+	 * Removes a listener added with {@link #addContextListener(ContextListener)}.
+	 *
+	 * @param listener
+	 *            The {@link ContextListener} to remove.
+	 */
+	public void removeContextListener(ContextListener listener) {
+		mContextLifecycle.removeListener(listener);
+	}
+
+	/**
+	 * Returns the {@link Conversation} used by the functions which do not take
+	 * one, e.g. {@link #execute(String, float, WeightSet, OnExecutionListener)}.
+	 *
+	 * @return The default {@link Conversation}.
+	 */
+	public Conversation getDefaultConversation() {
+		return mDefaultConversation;
+	}
+
+	/**
+	 * Returns the {@link Conversation} with an id, e.g. the key of a user's
+	 * session. It is created if there is none yet.<br>
+	 * {@link Conversation}s without input for longer than
+	 * {@link #getConversationTimeout()} are removed.
+	 *
+	 * @param id
+	 *            The id of the {@link Conversation}. May be {@code null}.
+	 * @return The {@link Conversation}, the default {@link Conversation} if
+	 *         {@code id} is {@code null}.
+	 */
+	public Conversation getConversation(String id) {
+		if (id == null)
+			return mDefaultConversation;
+		removeIdleConversations();
+		Conversation conversation = mConversations.get(id);
+		if (conversation == null) {
+			Conversation created = new Conversation(getGeneralContext().getMaximumSize());
+			conversation = mConversations.putIfAbsent(id, created);
+			if (conversation == null)
+				conversation = created;
+		}
+		return conversation;
+	}
+
+	/**
+	 * Removes the {@link Conversation} with an id, e.g. when the user's session
+	 * ended.
+	 *
+	 * @param id
+	 *            The id of the {@link Conversation}.
+	 * @return The removed {@link Conversation} or {@code null} if there was
+	 *         none.
+	 */
+	public Conversation removeConversation(String id) {
+		return mConversations.remove(id);
+	}
+
+	/**
+	 * Returns the time after which a {@link Conversation} without input is
+	 * removed.
+	 *
+	 * @return The timeout in milliseconds. Default is one hour.
+	 */
+	public long getConversationTimeout() {
+		return mConversationTimeout;
+	}
+
+	/**
+	 * Sets the time after which a {@link Conversation} without input is removed.
+	 *
+	 * @param timeout
+	 *            The timeout in milliseconds.
+	 */
+	public void setConversationTimeout(long timeout) {
+		mConversationTimeout = timeout;
+	}
+
+	private void removeIdleConversations() {
+		long now = System.currentTimeMillis();
+		if (now - mLastConversationSweep < 60 * 1000)
+			return;
+		mLastConversationSweep = now;
+		Iterator<Conversation> it = mConversations.values().iterator();
+		while (it.hasNext())
+			if (now - it.next().getLastActivityTime() > mConversationTimeout)
+				it.remove();
 	}
 
 	/**
@@ -364,48 +677,145 @@ public class ACIS {
 	 */
 	public ActionResult execute(String input, float threshold, WeightSet weightSet,
 			OnExecutionListener executionListener) throws IllegalThreadStateException {
+		return execute(input, threshold, weightSet, executionListener, null);
+	}
+
+	/**
+	 * Matches the input and executes the best {@link Action} (if not overwritten in
+	 * {@link OnExecutionListener}) using the analysis shared in an
+	 * {@link AnalysisCache}.<br>
+	 * Note: This function must be executed on a Thread other than the Thread the
+	 * underlying {@link ACIS} Object was created with.
+	 *
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param executionListener
+	 *            The listener for the execution events. May be {@code null}.
+	 * @param cache
+	 *            The {@link AnalysisCache} of the batch the input belongs to. May
+	 *            be {@code null}.
+	 * @return The ActionResult of the executed Action or {@code null} when there
+	 *         were no results or no ActionResult given by the methods of the
+	 *         {@code executionListener}.
+	 * @throws IllegalThreadStateException
+	 *             When executed on the same Thread the ACIS Object was created in.
+	 */
+	public ActionResult execute(String input, float threshold, WeightSet weightSet,
+			OnExecutionListener executionListener, AnalysisCache cache) throws IllegalThreadStateException {
+		return execute(mDefaultConversation, input, threshold, weightSet, executionListener, cache);
+	}
+
+	/**
+	 * Matches the input in a {@link Conversation} and executes the best
+	 * {@link Action} (if not overwritten in {@link OnExecutionListener}) using the
+	 * analysis shared in an {@link AnalysisCache}.<br>
+	 * Note: This function must be executed on a Thread other than the Thread the
+	 * underlying {@link ACIS} Object was created with.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} the input belongs to. Its
+	 *            {@link ContextStack} and {@link Context}s are used and updated.
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param executionListener
+	 *            The listener for the execution events. May be {@code null}.
+	 * @param cache
+	 *            The {@link AnalysisCache} of the batch the input belongs to. May
+	 *            be {@code null}.
+	 * @return The ActionResult of the executed Action or {@code null} when there
+	 *         were no results or no ActionResult given by the methods of the
+	 *         {@code executionListener}.
+	 * @throws IllegalThreadStateException
+	 *             When executed on the same Thread the ACIS Object was created in.
+	 */
+	public ActionResult execute(Conversation conversation, String input, float threshold, WeightSet weightSet,
+			OnExecutionListener executionListener, AnalysisCache cache) throws IllegalThreadStateException {
 		if (mStartingThread == Thread.currentThread())
 			throw new IllegalStateException("This function must be executed on a spearate Thread.");
 
 		if (executionListener == null)
 			executionListener = new OnExecutionListener() {
 		};
+		conversation.touch();
 
-		Sentence sentence = getLanguage().getSentence(input);
-		SentenceObjectSet sentenceObjects = getLanguage().getSentenceObjects(sentence);
+		if (conversation.beginExecution())
+			mExecutingConversations.incrementAndGet();
+		try {
+			Language language = cache != null ? cache.wrap(getLanguage()) : getLanguage();
+			return execute(conversation, language, input, threshold, weightSet, executionListener);
+		} finally {
+			if (conversation.endExecution())
+				mExecutingConversations.decrementAndGet();
+		}
+	}
+
+	private ActionResult execute(Conversation conversation, Language language, String input, float threshold,
+			WeightSet weightSet, OnExecutionListener executionListener) {
+		long start = System.nanoTime();
+		Sentence sentence = language.getSentence(input);
+		SentenceObjectSet sentenceObjects = language.getSentenceObjects(sentence);
+		ANALYSIS_DURATION.observeSince(start);
 
-		MatchResult[] results = getMatcher().getMatches(sentence, sentenceObjects, getGeneralContext(), threshold,
-				weightSet);
+		start = System.nanoTime();
+		MatchResult[] results = getMatcher(language, conversation).getMatches(sentence, sentenceObjects,
+				conversation.getContextStack(), threshold, weightSet);
+		MATCHER_DURATION.observeSince(start);
 
 		results = executionListener.onMatcherResult(results);
 
 		MatchResult best = executionListener.onGetBestResult(results);
 		if (best != null) {
 			Action action = best.getAction();
-			ActionResult actionResult = executionListener.onActionRun(action, getEnvironment(action.getPackage()),
-					sentence, best.getParameter());
+			Environment environment = getEnvironment(action.getPackage(), mSystemEnvironment, conversation);
+			ActionResult actionResult = runAction(executionListener, action, environment, sentence,
+					best.getParameter());
 			if (actionResult != null) {
-				if (action instanceof ContextConstructorAction
-						&& actionResult.getResultCode() == ActionResultCode.CREATE_CONTEXT) {
-					Context c = new Context(((ContextConstructorAction) action).getContextId(),
-							((ContextConstructorAction) action).getContextExpirationTime(), System.currentTimeMillis());
-					mContexts.put(c.getId(), c);
-				}
+				Context created = null;
+				Context destroyed = null;
+				synchronized (conversation) {
+					Map<String, Context> contexts = conversation.getContextMap();
+					if (action instanceof ContextConstructorAction
+							&& actionResult.getResultCode() == ActionResultCode.CREATE_CONTEXT) {
+						created = new Context(((ContextConstructorAction) action).getContextId(),
+								((ContextConstructorAction) action).getContextExpirationTime(),
+								System.currentTimeMillis());
+						contexts.put(created.getId(), created);
+						mContextLifecycle.created(conversation, created);
+					}
 
-				if (action instanceof ContextDependentAction && !(action instanceof ContextDestructorAction)) {
-					Context c = mContexts.get(((ContextDependentAction) action).getDependingContextId());
-					c.renew();
-					mContexts.put(c.getId(), c);
-				}
+					if (action instanceof ContextDependentAction && !(action instanceof ContextDestructorAction)) {
+						// may have been destroyed by another input while the Action ran
+						Context c = contexts.get(((ContextDependentAction) action).getDependingContextId());
+						if (c != null)
+							c.renew();
+					}
 
-				if (action instanceof ContextDestructorAction
-						&& actionResult.getResultCode() == ActionResultCode.DESTROY_CONTEXT) {
-					mContexts.remove(((ContextDestructorAction) action).getDependingContextId());
-				}
+					if (action instanceof ContextDestructorAction
+							&& actionResult.getResultCode() == ActionResultCode.DESTROY_CONTEXT) {
+						destroyed = contexts.remove(((ContextDestructorAction) action).getDependingContextId());
+					}
+
+					if (action instanceof ContextConstructorAction || action instanceof ContextDependentAction)
+						conversation.contextsChanged();
 
-				ContextStackItem contextItem = new ContextStackItem(System.currentTimeMillis(), best.getAction(), input,
-						actionResult);
-				getGeneralContext().addItem(contextItem);
+					ContextStackItem contextItem = new ContextStackItem(System.currentTimeMillis(), best.getAction(),
+							input, actionResult);
+					conversation.getContextStack().addItem(contextItem);
+				}
+				if (created != null)
+					mContextLifecycle.notifyCreated(conversation, created);
+				if (destroyed != null)
+					mContextLifecycle.notifyDestroyed(conversation, destroyed);
 
 				return actionResult;
 			}
@@ -413,10 +823,334 @@ public class ACIS {
 		return null;
 	}
 
+	/**
+	 * Runs {@link OnExecutionListener#onActionRun(Action, Environment, Sentence, Parameter[])}
+	 * in the bulkhead of the {@link ActionPackage} of the {@link Action}.
+	 */
+	private ActionResult runAction(final OnExecutionListener executionListener, final Action action,
+			final Environment environment, final Sentence sentence, final Parameter[] parameter) {
+		String name = action.getPackage().getName();
+		// only one bulkhead per package may register its metrics
+		ActionBulkhead bulkhead = mBulkheads.computeIfAbsent(name, new Function<String, ActionBulkhead>() {
+
+			@Override
+			public ActionBulkhead apply(String packageName) {
+				return new ActionBulkhead(packageName, mMaximumConcurrentActions);
+			}
+		});
+		Long timeout = mPackageActionTimeouts.get(name);
+		return bulkhead.run(new Callable<ActionResult>() {
+
+			@Override
+			public ActionResult call() {
+				return executionListener.onActionRun(action, environment, sentence, parameter);
+			}
+		}, timeout != null ? timeout : mActionTimeout);
+	}
+
+	/**
+	 * Returns the time after which a running {@link Action} is cancelled.
+	 *
+	 * @return The timeout in milliseconds, 0 for none. Default is 0, as
+	 *         {@link Action}s may wait for input.
+	 */
+	public long getActionTimeout() {
+		return mActionTimeout;
+	}
+
+	/**
+	 * Sets the time after which a running {@link Action} is cancelled and an
+	 * {@link ActionResult} with {@link ActionResultCode#TIMEOUT} is returned.
+	 *
+	 * @param timeout
+	 *            The timeout in milliseconds, 0 for none.
+	 */
+	public void setActionTimeout(long timeout) {
+		mActionTimeout = timeout;
+	}
+
+	/**
+	 * Sets the time after which a running {@link Action} of one
+	 * {@link ActionPackage} is cancelled, instead of
+	 * {@link #getActionTimeout()}.
+	 *
+	 * @param packageName
+	 *            The name of the {@link ActionPackage}.
+	 * @param timeout
+	 *            The timeout in milliseconds, 0 for none, -1 to use
+	 *            {@link #getActionTimeout()} again.
+	 */
+	public void setActionTimeout(String packageName, long timeout) {
+		if (timeout < 0)
+			mPackageActionTimeouts.remove(packageName);
+		else
+			mPackageActionTimeouts.put(packageName, timeout);
+	}
+
+	/**
+	 * Returns the maximum number of {@link Action}s of one {@link ActionPackage}
+	 * running at the same time.
+	 *
+	 * @return The maximum. Default is 16.
+	 */
+	public int getMaximumConcurrentActions() {
+		return mMaximumConcurrentActions;
+	}
+
+	/**
+	 * Sets the maximum number of {@link Action}s of one {@link ActionPackage}
+	 * running at the same time. Further runs return an {@link ActionResult}
+	 * with {@link ActionResultCode#REJECTED}.<br>
+	 * {@link Action}s waiting for input (see
+	 * {@link Environment#requestInput(String)}) do not count, so conversations
+	 * waiting for their users do not block the package; when the input
+	 * arrives, the {@link Action} waits until it may run again.<br>
+	 * When a package is replaced (see {@link ActionManager#replace(ActionPackage[], Action[])}),
+	 * {@link Action}s of the old package still running are not counted against
+	 * the limit of the new one.
+	 *
+	 * @param maximum
+	 *            The maximum, at least 1.
+	 * @throws IllegalArgumentException
+	 *             When {@code maximum} is less than 1.
+	 */
+	public void setMaximumConcurrentActions(int maximum) throws IllegalArgumentException {
+		if (maximum < 1)
+			throw new IllegalArgumentException("The maximum must be at least 1.");
+		mMaximumConcurrentActions = maximum;
+		for (ActionBulkhead bulkhead : mBulkheads.values())
+			bulkhead.setMaximumConcurrent(maximum);
+	}
+
+	/**
+	 * Matches the input without executing an {@link Action}.<br>
+	 * Note: This function must be executed on a Thread other than the Thread the
+	 * underlying {@link ACIS} Object was created with.
+	 *
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param cache
+	 *            The {@link AnalysisCache} of the batch the input belongs to. May
+	 *            be {@code null}.
+	 * @return The {@link MatchResult}s sorted descending by score. May be of length
+	 *         0.
+	 * @throws IllegalThreadStateException
+	 *             When executed on the same Thread the ACIS Object was created in.
+	 */
+	public MatchResult[] match(String input, float threshold, WeightSet weightSet, AnalysisCache cache)
+			throws IllegalThreadStateException {
+		return match(mDefaultConversation, input, threshold, weightSet, cache);
+	}
+
+	/**
+	 * Matches the input in a {@link Conversation} without executing an
+	 * {@link Action}.<br>
+	 * Note: This function must be executed on a Thread other than the Thread the
+	 * underlying {@link ACIS} Object was created with.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} whose {@link ContextStack} and
+	 *            {@link Context}s are used.
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param cache
+	 *            The {@link AnalysisCache} of the batch the input belongs to. May
+	 *            be {@code null}.
+	 * @return The {@link MatchResult}s sorted descending by score. May be of length
+	 *         0.
+	 * @throws IllegalThreadStateException
+	 *             When executed on the same Thread the ACIS Object was created in.
+	 */
+	public MatchResult[] match(Conversation conversation, String input, float threshold, WeightSet weightSet,
+			AnalysisCache cache) throws IllegalThreadStateException {
+		if (mStartingThread == Thread.currentThread())
+			throw new IllegalStateException("This function must be executed on a spearate Thread.");
+
+		Language language = cache != null ? cache.wrap(getLanguage()) : getLanguage();
+		long start = System.nanoTime();
+		Sentence sentence = language.getSentence(input);
+		SentenceObjectSet sentenceObjects = language.getSentenceObjects(sentence);
+		ANALYSIS_DURATION.observeSince(start);
+
+		start = System.nanoTime();
+		MatchResult[] results = getMatcher(language, conversation).getMatches(sentence, sentenceObjects,
+				conversation.getContextStack(), threshold, weightSet);
+		MATCHER_DURATION.observeSince(start);
+		// same order as passed to OnExecutionListener#onGetBestResult
+		return new OnExecutionListener() {
+		}.onMatcherResult(results);
+	}
+
+	/**
+	 * Returns the {@link Executor} the functions
+	 * {@link #executeAsync(String, float, WeightSet, OnExecutionListener)} run
+	 * on.
+	 *
+	 * @return The {@link Executor} set with {@link #setExecutor(Executor)} or the
+	 *         default one, a pool of daemon threads which are reused and
+	 *         created as needed. The pool is unbounded, as {@link Action}s may
+	 *         wait for input for a long time.
+	 */
+	public Executor getExecutor() {
+		Executor executor = mExecutor;
+		if (executor != null)
+			return executor;
+		synchronized (this) {
+			if (mDefaultExecutor == null)
+				mDefaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "acis-execute-" + mCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			return mDefaultExecutor;
+		}
+	}
+
+	/**
+	 * Sets the {@link Executor} the functions
+	 * {@link #executeAsync(String, float, WeightSet, OnExecutionListener)} run
+	 * on.<br>
+	 * Note: It must not run the tasks on the Thread the {@link ACIS} Object was
+	 * created with.
+	 *
+	 * @param executor
+	 *            The {@link Executor}. {@code null} to use the default one.
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * Matches the input and executes the best {@link Action} (if not overwritten in
+	 * {@link OnExecutionListener}) on the {@link #getExecutor() executor}.
+	 *
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param executionListener
+	 *            The listener for the execution events. May be {@code null}.
+	 * @return The future of the {@link ActionResult}, see
+	 *         {@link #executeAsync(Conversation, String, float, WeightSet, OnExecutionListener, long)}.
+	 */
+	public CompletableFuture<ActionResult> executeAsync(String input, float threshold, WeightSet weightSet,
+			OnExecutionListener executionListener) {
+		return executeAsync(mDefaultConversation, input, threshold, weightSet, executionListener, 0);
+	}
+
+	/**
+	 * Matches the input in a {@link Conversation} and executes the best
+	 * {@link Action} (if not overwritten in {@link OnExecutionListener}) on the
+	 * {@link #getExecutor() executor}.<br>
+	 * Cancelling the returned future or its timeout interrupts the execution,
+	 * e.g. an {@link Action} waiting for input. An {@link Action} which already
+	 * ran is not undone.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} the input belongs to.
+	 * @param input
+	 *            The user input.
+	 * @param threshold
+	 *            The threshold for which {@link Action}s with a lower match score
+	 *            are ignored.
+	 * @param weightSet
+	 *            The {@link WeightSet} to use for matching.
+	 * @param executionListener
+	 *            The listener for the execution events. May be {@code null}.
+	 * @param timeout
+	 *            The time in milliseconds after which the future is completed
+	 *            with a {@link TimeoutException}. 0 for no timeout.
+	 * @return The future of the {@link ActionResult} of the executed Action. It
+	 *         is completed with {@code null} when there were no results or no
+	 *         ActionResult given by the methods of the
+	 *         {@code executionListener}, and exceptionally when the execution
+	 *         failed or was rejected by the executor.
+	 */
+	public CompletableFuture<ActionResult> executeAsync(final Conversation conversation, final String input,
+			final float threshold, final WeightSet weightSet, final OnExecutionListener executionListener,
+			long timeout) {
+		final CompletableFuture<ActionResult> future = new CompletableFuture<>();
+		final AtomicReference<Thread> runner = new AtomicReference<>();
+		final ScheduledFuture<?> timer = timeout > 0 ? TIMEOUTS.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				future.completeExceptionally(new TimeoutException("The execution took longer than the timeout."));
+			}
+		}, timeout, TimeUnit.MILLISECONDS) : null;
+
+		future.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+
+			@Override
+			public void accept(ActionResult result, Throwable error) {
+				if (timer != null)
+					timer.cancel(false);
+				// cancelled or timed out while running
+				synchronized (runner) {
+					Thread thread = runner.get();
+					if (thread != null)
+						thread.interrupt();
+				}
+			}
+		});
+
+		try {
+			getExecutor().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (future.isDone())
+						return;
+					synchronized (runner) {
+						runner.set(Thread.currentThread());
+					}
+					try {
+						// cancelled or timed out before the runner was set, so it was
+						// not interrupted
+						if (future.isDone())
+							return;
+						future.complete(execute(conversation, input, threshold, weightSet, executionListener, null));
+					} catch (Throwable t) {
+						future.completeExceptionally(t);
+					} finally {
+						synchronized (runner) {
+							runner.set(null);
+						}
+						// an interrupt meant for this execution must not hit the next task
+						Thread.interrupted();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
 	/**
 	 * Matches the input and executes the best {@link Action} (if not overwritten in
 	 * {@link OnExecutionListener}).<br>
-	 * For this a new {@link Thread} is started.
+	 * For this a new {@link Thread} is started. See
+	 * {@link #executeAsync(String, float, WeightSet, OnExecutionListener)} for
+	 * running on a pool and getting the {@link ActionResult}.
 	 *
 	 * @param input
 	 *            The user input.
@@ -7,7 +7,10 @@ package de.bensoft.acis.core;
 import java.util.ArrayList;
 
 import de.bensoft.acis.core.environment.Environment;
+import de.bensoft.acis.core.language.Language;
 import de.bensoft.acis.core.language.Sentence;
+import de.bensoft.acis.core.language.SentenceObjectSet;
+import de.bensoft.acis.core.language.Word;
 
 /**
  * Represents a Action for the {@link ACIS} system.
@@ -23,6 +26,8 @@ public class Action {
 	private ActionMethod mActionMethod;
 	private ActionParameter[] mActionParams = new ActionParameter[0];
 	private String mTrigger;
+	private int mTriggerLength;
+	private volatile CompiledTrigger mCompiledTrigger;
 
 	/**
 	 * Creates a new Action Object.
@@ -63,6 +68,7 @@ public class Action {
 		mTrigger = trigger;
 
 		String[] parts = Sentence.splitUpAction(trigger);
+		mTriggerLength = parts.length;
 		ArrayList<Integer> indexlist = new ArrayList<>();
 		ArrayList<ActionParameter> parameters = new ArrayList<>();
 		for (int i = 0; i < parts.length; i++) {
@@ -206,6 +212,92 @@ public class Action {
 		return mTrigger;
 	}
 
+	/**
+	 * Returns the number of parts of the trigger, as counted by
+	 * {@link Sentence#splitUpAction(String)}.
+	 * 
+	 * @return The length of the trigger.
+	 */
+	int getTriggerLength() {
+		return mTriggerLength;
+	}
+
+	/**
+	 * Returns the analysis of the trigger. It is computed on first use and
+	 * kept for the {@link Language}, so the {@link Matcher} does not analyze
+	 * the trigger for every input.
+	 * 
+	 * @param language
+	 *            The {@link Language} to analyze the trigger with.
+	 * @return The {@link SentenceObjectSet} of the trigger.
+	 */
+	SentenceObjectSet getTriggerSentenceObjects(Language language) {
+		return compile(language).mSentenceObjects;
+	}
+
+	/**
+	 * Returns the {@link Word}s of the delimiters of the parameters, computed
+	 * together with {@link #getTriggerSentenceObjects(Language)}.
+	 * 
+	 * @param language
+	 *            The {@link Language} to analyze the delimiters with.
+	 * @return The {@link Word}s, the pre delimiter of parameter {@code i} at
+	 *         {@code 2 * i} and its post delimiter at {@code 2 * i + 1}, or
+	 *         {@code null} if the parameter has no such delimiter. Must not be
+	 *         modified.
+	 */
+	Word[] getDelimiterWords(Language language) {
+		return compile(language).mDelimiterWords;
+	}
+
+	/**
+	 * Sets the analysis of the trigger, e.g. read from a
+	 * {@link CompiledActionIndex}, so it is not computed on first use.
+	 * 
+	 * @param language
+	 *            The {@link Language} the trigger was analyzed with.
+	 * @param sentenceObjects
+	 *            The {@link SentenceObjectSet} of the trigger.
+	 * @param delimiterWords
+	 *            The {@link Word}s of the delimiters (see
+	 *            {@link #getDelimiterWords(Language)}).
+	 */
+	void setCompiledTrigger(Language language, SentenceObjectSet sentenceObjects, Word[] delimiterWords) {
+		mCompiledTrigger = new CompiledTrigger(language, sentenceObjects, delimiterWords);
+	}
+
+	private CompiledTrigger compile(Language language) {
+		CompiledTrigger compiled = mCompiledTrigger;
+		if (compiled == null || compiled.mLanguage != language) {
+			Word[] delimiterWords = new Word[mActionParams.length * 2];
+			for (int i = 0; i < mActionParams.length; i++) {
+				if (mActionParams[i].getPreDelimiter() != null)
+					delimiterWords[2 * i] = language.getWord(mActionParams[i].getPreDelimiter());
+				if (mActionParams[i].getPostDelimiter() != null)
+					delimiterWords[2 * i + 1] = language.getWord(mActionParams[i].getPostDelimiter());
+			}
+			compiled = new CompiledTrigger(language, language.getSentenceObjects(language.getSentence(mTrigger)),
+					delimiterWords);
+			mCompiledTrigger = compiled;
+		}
+		return compiled;
+	}
+
+	/**
+	 * The analysis of a trigger with a specific {@link Language}.
+	 */
+	private static class CompiledTrigger {
+		private final Language mLanguage;
+		private final SentenceObjectSet mSentenceObjects;
+		private final Word[] mDelimiterWords;
+
+		CompiledTrigger(Language language, SentenceObjectSet sentenceObjects, Word[] delimiterWords) {
+			mLanguage = language;
+			mSentenceObjects = sentenceObjects;
+			mDelimiterWords = delimiterWords;
+		}
+	}
+
 	/**
 	 * This interface includes the run() function which contains the core code
 	 * of the {@link Action}.
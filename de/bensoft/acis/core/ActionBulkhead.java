@@ -0,0 +1,280 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.bensoft.acis.core.ActionResult.ActionResultCode;
+import de.bensoft.acis.utils.Metrics;
+import de.bensoft.acis.utils.Metrics.Counter;
+import de.bensoft.acis.utils.Metrics.Gauge;
+import de.bensoft.acis.utils.Metrics.Histogram;
+
+/**
+ * Runs the {@link Action}s of one {@link ActionPackage} on its own pool of
+ * threads and limits how many of them run at the same time, so a package with
+ * hanging {@link Action}s can only block its own runs.<br>
+ * While an {@link Action} waits for input (see
+ * {@link de.bensoft.acis.core.environment.Environment#requestInput(String)}),
+ * it does not count against the limit, as waiting for a user can take minutes;
+ * when the input arrives, it waits until it may run again.<br>
+ * When the limit is reached, a run is rejected with
+ * {@link ActionResultCode#REJECTED}; when it takes longer than its timeout, it
+ * is cancelled and {@link ActionResultCode#TIMEOUT} is returned. Cancelling
+ * interrupts the {@link Action} and sets the flag returned by
+ * {@link de.bensoft.acis.core.environment.Environment#isCancelled()}, the
+ * {@link Action} has to stop by itself.
+ *
+ */
+class ActionBulkhead {
+
+	private static final ThreadLocal<Run> CURRENT_RUN = new ThreadLocal<>();
+
+	private final String mPackageName;
+	private final ThreadPoolExecutor mExecutor;
+	private final AtomicInteger mActive = new AtomicInteger();
+	private int mRunning; // guarded by this
+	private int mMaximumConcurrent; // guarded by this
+	private final Counter mTimeouts;
+	private final Counter mRejections;
+	private final Histogram mDuration;
+	private final Gauge mActiveGauge;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param packageName
+	 *            The name of the {@link ActionPackage}.
+	 * @param maximumConcurrent
+	 *            The maximum number of {@link Action}s of the package running
+	 *            at the same time, not counting those waiting for input.
+	 */
+	ActionBulkhead(final String packageName, int maximumConcurrent) {
+		mPackageName = packageName;
+		mMaximumConcurrent = maximumConcurrent;
+		// a thread per run, the limit is kept by tryAcquire(), idle threads end
+		mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "acis-action-" + packageName + "-" + mCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		Metrics metrics = Metrics.getDefault();
+		mTimeouts = metrics.counter("acis_action_timeouts_total", "Action runs cancelled after their timeout.",
+				"package", packageName);
+		mRejections = metrics.counter("acis_action_rejections_total",
+				"Action runs rejected because the package had too many running Actions.", "package", packageName);
+		mDuration = metrics.histogram("acis_action_duration_seconds", "Time an Action ran.",
+				Metrics.DEFAULT_DURATION_BUCKETS, "package", packageName);
+		mActiveGauge = new Gauge() {
+
+			@Override
+			public double getValue() {
+				return mActive.get();
+			}
+		};
+		metrics.gauge("acis_action_runs_active", "Actions currently running, including those waiting for input.",
+				mActiveGauge, "package", packageName);
+	}
+
+	/**
+	 * Sets the maximum number of {@link Action}s of the package running at the
+	 * same time, not counting those waiting for input.
+	 *
+	 * @param maximumConcurrent
+	 *            The maximum, at least 1.
+	 */
+	synchronized void setMaximumConcurrent(int maximumConcurrent) {
+		mMaximumConcurrent = maximumConcurrent;
+		notifyAll();
+	}
+
+	/**
+	 * Runs an {@link Action} on the pool of the package and waits for its
+	 * result.
+	 *
+	 * @param run
+	 *            The run of the {@link Action}, e.g.
+	 *            {@link ACIS.OnExecutionListener#onActionRun(Action, de.bensoft.acis.core.environment.Environment, de.bensoft.acis.core.language.Sentence, Parameter[])}.
+	 * @param timeout
+	 *            The timeout in milliseconds, 0 for none.
+	 * @return The {@link ActionResult} of the run, one with
+	 *         {@link ActionResultCode#REJECTED} or
+	 *         {@link ActionResultCode#TIMEOUT}, or {@code null} if the waiting
+	 *         Thread was interrupted (the run is cancelled then).
+	 */
+	ActionResult run(final Callable<ActionResult> run, long timeout) {
+		if (!tryAcquire()) {
+			mRejections.inc();
+			return new ActionResult(ActionResultCode.REJECTED,
+					"'" + mPackageName + "' already runs " + getMaximumConcurrent() + " Actions.");
+		}
+
+		final Run token = new Run(this);
+		FutureTask<ActionResult> task = new FutureTask<>(new Callable<ActionResult>() {
+
+			@Override
+			public ActionResult call() throws Exception {
+				if (!token.mStarted.compareAndSet(false, true))
+					return null; // cancelled before it started
+				CURRENT_RUN.set(token);
+				mActive.incrementAndGet();
+				long start = System.nanoTime();
+				try {
+					return run.call();
+				} finally {
+					mDuration.observeSince(start);
+					mActive.decrementAndGet();
+					CURRENT_RUN.remove();
+					if (token.mHoldsPermit)
+						release();
+				}
+			}
+		});
+
+		try {
+			mExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			release();
+			mRejections.inc();
+			return new ActionResult(ActionResultCode.REJECTED, "The Action could not be started.");
+		}
+
+		try {
+			return timeout > 0 ? task.get(timeout, TimeUnit.MILLISECONDS) : task.get();
+		} catch (TimeoutException e) {
+			cancel(token, task);
+			mTimeouts.inc();
+			return new ActionResult(ActionResultCode.TIMEOUT, "The Action did not finish within " + timeout + " ms.");
+		} catch (InterruptedException e) {
+			cancel(token, task);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private void cancel(Run token, FutureTask<ActionResult> task) {
+		token.mCancelled = true;
+		task.cancel(true);
+		// the run releases its permit itself unless it never started
+		if (token.mStarted.compareAndSet(false, true))
+			release();
+	}
+
+	/**
+	 * Removes the metrics of this bulkhead, e.g. after its package was removed
+	 * from the system. Metrics of the package which belong to another
+	 * bulkhead are kept. Runs still in progress are finished, and the threads
+	 * of the pool end when they are idle.
+	 */
+	void close() {
+		Metrics metrics = Metrics.getDefault();
+		metrics.remove("acis_action_timeouts_total", mTimeouts, "package", mPackageName);
+		metrics.remove("acis_action_rejections_total", mRejections, "package", mPackageName);
+		metrics.remove("acis_action_duration_seconds", mDuration, "package", mPackageName);
+		metrics.remove("acis_action_runs_active", mActiveGauge, "package", mPackageName);
+	}
+
+	private synchronized int getMaximumConcurrent() {
+		return mMaximumConcurrent;
+	}
+
+	private synchronized boolean tryAcquire() {
+		if (mRunning >= mMaximumConcurrent)
+			return false;
+		mRunning++;
+		return true;
+	}
+
+	private synchronized void acquire() throws InterruptedException {
+		while (mRunning >= mMaximumConcurrent)
+			wait();
+		mRunning++;
+	}
+
+	private synchronized void release() {
+		mRunning--;
+		notifyAll();
+	}
+
+	/**
+	 * Marks the run of an {@link Action} on the current Thread as waiting for
+	 * input, so it does not count against the limit of its package until
+	 * {@link #endWaiting()}. Does nothing when not called from an
+	 * {@link Action} run by a bulkhead.
+	 */
+	static void beginWaiting() {
+		Run run = CURRENT_RUN.get();
+		if (run != null && run.mHoldsPermit) {
+			run.mHoldsPermit = false;
+			run.mBulkhead.release();
+		}
+	}
+
+	/**
+	 * Ends waiting for input (see {@link #beginWaiting()}) and blocks until the
+	 * run may continue within the limit of its package.<br>
+	 * When the run is cancelled meanwhile, the interrupt flag of the Thread is
+	 * set and it returns without counting against the limit.
+	 */
+	static void endWaiting() {
+		Run run = CURRENT_RUN.get();
+		if (run == null || run.mHoldsPermit)
+			return;
+		try {
+			run.mBulkhead.acquire();
+			run.mHoldsPermit = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns whether the run of an {@link Action} on the current Thread was
+	 * cancelled.
+	 *
+	 * @return {@code true} if cancelled, {@code false} if not or not called
+	 *         from an {@link Action} run by a bulkhead.
+	 */
+	static boolean isCurrentRunCancelled() {
+		Run run = CURRENT_RUN.get();
+		return run != null && run.mCancelled;
+	}
+
+	private static class Run {
+		private final ActionBulkhead mBulkhead;
+		private final AtomicBoolean mStarted = new AtomicBoolean();
+		private volatile boolean mCancelled;
+		// only used on the Thread of the run after it was started
+		private boolean mHoldsPermit = true;
+
+		Run(ActionBulkhead bulkhead) {
+			mBulkhead = bulkhead;
+		}
+	}
+}
\ No newline at end of file
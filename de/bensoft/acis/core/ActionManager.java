@@ -5,22 +5,36 @@
 package de.bensoft.acis.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import de.bensoft.acis.utils.Logging.Logger;
 
 /**
  * The ActionManager holds the {@link Action}s of the {@link ACIS} system it is
- * tied to.
+ * tied to.<br>
+ * Every change of the {@link Action}s increases its {@link #getVersion()
+ * version}, so derived data (e.g. a serialized catalogue) can be cached per
+ * version.<br>
+ * The {@link Action}s are held in an immutable {@link Snapshot} which is
+ * replaced on every change (copy-on-write), so reading never blocks. It is
+ * indexed by package, by context id and by context independent
+ * {@link Action}s.
  *
  */
 public class ActionManager {
 
 	private static final String LOG_TAG = "ACTIONS";
 
-	private List<Action> mActions = new ArrayList<>();
+	private volatile Snapshot mSnapshot = new Snapshot(0, new Action[0]);
 	private Logger mLogger;
+	private volatile OnPackagesRemovedListener mOnPackagesRemovedListener;
 
 	/**
 	 * The constructor.
@@ -41,15 +55,7 @@ public class ActionManager {
 	 *            The {@link Action} to add.
 	 */
 	public void add(Action action) {
-		if (action.getPackage().getMinimumRequiredLibraryVersion() <= ACIS.LIBRARY_VERSION) {
-			mActions.add(action);
-			mLogger.i(LOG_TAG, "Action '" + action.getName() + "' successfully initialized and added to the system.");
-		} else {
-			mLogger.w(LOG_TAG,
-					"Action '" + action.getName()
-							+ "' was not added to the system because it requires the minimum library version "
-							+ action.getPackage().getMinimumRequiredLibraryVersion() + ".");
-		}
+		add(new Action[] { action });
 	}
 
 	/**
@@ -61,8 +67,54 @@ public class ActionManager {
 	 *            The {@link Action} array.
 	 */
 	public void add(Action[] actions) {
-		for (Action action : actions)
-			add(action);
+		List<Action> added = filterSupported(actions);
+		if (added.isEmpty())
+			return;
+		synchronized (this) {
+			Snapshot snapshot = mSnapshot;
+			Action[] next = Arrays.copyOf(snapshot.mActions, snapshot.mActions.length + added.size());
+			for (int i = 0; i < added.size(); i++)
+				next[snapshot.mActions.length + i] = added.get(i);
+			mSnapshot = new Snapshot(snapshot.mVersion + 1, next);
+		}
+		for (Action action : added)
+			mLogger.i(LOG_TAG, "Action '" + action.getName() + "' successfully initialized and added to the system.");
+	}
+
+	/**
+	 * Replaces the {@link Action}s of {@link ActionPackage}s in one step, e.g.
+	 * after a package was installed or updated. All {@link Action}s of packages
+	 * with the same name as one of {@code packages} are removed and
+	 * {@code actions} are added. Matching either sees the old or the new
+	 * {@link Action}s, never a mix.<br>
+	 * Note: {@link Action}s with a minimum required library version higher than
+	 * the this' {@link ACIS#LIBRARY_VERSION} are not added.
+	 * 
+	 * @param packages
+	 *            The {@link ActionPackage}s to replace.
+	 * @param actions
+	 *            The new {@link Action}s of the packages.
+	 */
+	public void replace(ActionPackage[] packages, Action[] actions) {
+		Set<String> names = new HashSet<>();
+		for (ActionPackage pack : packages)
+			names.add(pack.getName());
+		List<Action> added = filterSupported(actions);
+		int removed = 0;
+		synchronized (this) {
+			Snapshot snapshot = mSnapshot;
+			List<Action> next = new ArrayList<>(snapshot.mActions.length + added.size());
+			for (Action action : snapshot.mActions) {
+				if (names.contains(action.getPackage().getName()))
+					removed++;
+				else
+					next.add(action);
+			}
+			next.addAll(added);
+			mSnapshot = new Snapshot(snapshot.mVersion + 1, next.toArray(new Action[0]));
+		}
+		mLogger.i(LOG_TAG, "Replaced " + removed + " Action(s) of " + names + " by " + added.size() + ".");
+		notifyPackagesRemoved(names);
 	}
 
 	/**
@@ -71,40 +123,51 @@ public class ActionManager {
 	 * @return The {@link Action} array.
 	 */
 	public Action[] getActions() {
-		return mActions.toArray(new Action[0]);
+		return mSnapshot.mActions.clone();
 	}
 
 	/**
-	 * Returns all {@link Action}s except {@link ContextDependentAction}s and
-	 * {@link ContextDestructorAction}s for which no context exists or where the
-	 * context is expired.
+	 * Returns the version of the {@link Action}s. It starts at 0 and increases
+	 * whenever {@link Action}s are added or removed.
 	 * 
-	 * @param contexts
-	 *            An array of context ids.
+	 * @return The version.
+	 */
+	public long getVersion() {
+		return mSnapshot.mVersion;
+	}
+
+	/**
+	 * Returns the current {@link Snapshot} of the {@link Action}s.
 	 * 
-	 * @return The {@link Action} array including
-	 *         {@link ContextDependentAction}s and
-	 *         {@link ContextDestructorAction}s for the context ids given in
-	 *         {@code contexts}.
+	 * @return The {@link Snapshot}. It never changes.
 	 */
-	Action[] getActions(Map<String, Context> contexts) {
-		List<Action> actions = new ArrayList<>(0);
-		for (int i = 0; i < mActions.size(); i++) {
-			Action action = mActions.get(i);
-			if (action instanceof ContextDependentAction) {
-				ContextDependentAction cdAction = (ContextDependentAction) action;
-				if (contexts.containsKey(cdAction.getDependingContextId())) {
-					Context context = contexts.get(cdAction.getDependingContextId());
-					if (context.getExpirationTime() == -1
-							|| context.getCreationTime() + context.getExpirationTime() >= System.currentTimeMillis())
-						actions.add(action);
-				}
-			}
-			if (!(action instanceof ContextDependentAction)) {
-				actions.add(action);
-			}
-		}
-		return actions.toArray(new Action[0]);
+	Snapshot getSnapshot() {
+		return mSnapshot;
+	}
+
+	/**
+	 * Returns the registered {@link ActionPackage} with a name.
+	 *
+	 * @param name
+	 *            The name of the {@link ActionPackage}.
+	 * @return The {@link ActionPackage} or {@code null} if no {@link Action} of
+	 *         a package with this name is registered.
+	 */
+	public ActionPackage getActionPackage(String name) {
+		return mSnapshot.mPackages.get(name);
+	}
+
+	/**
+	 * Returns the {@link Action}s of an {@link ActionPackage}.
+	 *
+	 * @param name
+	 *            The name of the {@link ActionPackage}.
+	 * @return The {@link Action} array, of length 0 if no {@link Action} of a
+	 *         package with this name is registered.
+	 */
+	public Action[] getActions(String name) {
+		Action[] actions = mSnapshot.mByPackage.get(name);
+		return actions != null ? actions.clone() : new Action[0];
 	}
 
 	/**
@@ -113,18 +176,162 @@ public class ActionManager {
 	 * @return The {@link ActionPackage} array.
 	 */
 	public ActionPackage[] getActionPackages() {
-		List<ActionPackage> packs = new ArrayList<>(0);
-		for (Action a : getActions())
-			if (!packs.contains(a.getPackage()))
-				packs.add(a.getPackage());
-		return packs.toArray(new ActionPackage[0]);
+		return mSnapshot.mPackages.values().toArray(new ActionPackage[0]);
 	}
 
 	/**
 	 * Removes all {@link Action}s from the system.
 	 */
 	public void removeAll() {
-		for (int i = 0; i < mActions.size(); i++)
-			mActions.remove(i);
+		Set<String> names;
+		synchronized (this) {
+			names = new HashSet<>(mSnapshot.mPackages.keySet());
+			mSnapshot = new Snapshot(mSnapshot.mVersion + 1, new Action[0]);
+		}
+		notifyPackagesRemoved(names);
+	}
+
+	/**
+	 * Sets the listener notified when the {@link Action}s of
+	 * {@link ActionPackage}s were removed or replaced.
+	 * 
+	 * @param listener
+	 *            The listener or {@code null}.
+	 */
+	void setOnPackagesRemovedListener(OnPackagesRemovedListener listener) {
+		mOnPackagesRemovedListener = listener;
+	}
+
+	private void notifyPackagesRemoved(Set<String> names) {
+		OnPackagesRemovedListener listener = mOnPackagesRemovedListener;
+		if (listener != null && !names.isEmpty())
+			listener.onPackagesRemoved(names);
+	}
+
+	private List<Action> filterSupported(Action[] actions) {
+		List<Action> supported = new ArrayList<>(actions.length);
+		for (Action action : actions) {
+			if (action.getPackage().getMinimumRequiredLibraryVersion() <= ACIS.LIBRARY_VERSION)
+				supported.add(action);
+			else
+				mLogger.w(LOG_TAG,
+						"Action '" + action.getName()
+								+ "' was not added to the system because it requires the minimum library version "
+								+ action.getPackage().getMinimumRequiredLibraryVersion() + ".");
+		}
+		return supported;
+	}
+
+	/**
+	 * An immutable state of the {@link Action}s of an {@link ActionManager} with
+	 * its indexes.
+	 *
+	 */
+	static final class Snapshot {
+
+		private final long mVersion;
+		private final Action[] mActions;
+		private final Action[] mIndependent;
+		private final Map<String, Action[]> mByContext;
+		private final Map<String, Action[]> mByPackage;
+		private final Map<String, ActionPackage> mPackages;
+
+		private Snapshot(long version, Action[] actions) {
+			mVersion = version;
+			mActions = actions;
+
+			List<Action> independent = new ArrayList<>(actions.length);
+			Map<String, List<Action>> byContext = new HashMap<>();
+			Map<String, List<Action>> byPackage = new LinkedHashMap<>();
+			Map<String, ActionPackage> packages = new LinkedHashMap<>();
+			for (Action action : actions) {
+				if (action instanceof ContextDependentAction)
+					group(byContext, ((ContextDependentAction) action).getDependingContextId(), action);
+				else
+					independent.add(action);
+				group(byPackage, action.getPackage().getName(), action);
+				packages.put(action.getPackage().getName(), action.getPackage());
+			}
+			mIndependent = independent.toArray(new Action[0]);
+			mByContext = toArrays(byContext);
+			mByPackage = toArrays(byPackage);
+			mPackages = Collections.unmodifiableMap(packages);
+		}
+
+		/**
+		 * Returns the version of the {@link ActionManager} this snapshot was
+		 * taken at.
+		 * 
+		 * @return The version.
+		 */
+		long getVersion() {
+			return mVersion;
+		}
+
+		/**
+		 * Returns all {@link Action}s except {@link ContextDependentAction}s and
+		 * {@link ContextDestructorAction}s for which no context exists, as union
+		 * of the indexed sets. Expired contexts are removed by the
+		 * {@link ContextLifecycle}.
+		 * 
+		 * @param contexts
+		 *            The {@link Context}s by id.
+		 * @return The {@link Action}s. Must not be modified. Without active
+		 *         context dependent {@link Action}s this is the same array on
+		 *         every call.
+		 */
+		Action[] getCandidates(Map<String, Context> contexts) {
+			if (mByContext.isEmpty() || contexts.isEmpty())
+				return mIndependent;
+			int size = mIndependent.length;
+			for (String id : contexts.keySet())
+				if (mByContext.containsKey(id))
+					size += mByContext.get(id).length;
+			if (size == mIndependent.length)
+				return mIndependent;
+
+			Action[] candidates = Arrays.copyOf(mIndependent, size);
+			int pos = mIndependent.length;
+			for (String id : contexts.keySet()) {
+				Action[] dependent = mByContext.get(id);
+				if (dependent != null) {
+					System.arraycopy(dependent, 0, candidates, pos, dependent.length);
+					pos += dependent.length;
+				}
+			}
+			return candidates;
+		}
+
+		private static void group(Map<String, List<Action>> groups, String key, Action action) {
+			List<Action> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(key, group);
+			}
+			group.add(action);
+		}
+
+		private static Map<String, Action[]> toArrays(Map<String, List<Action>> groups) {
+			Map<String, Action[]> arrays = new LinkedHashMap<>();
+			for (Map.Entry<String, List<Action>> group : groups.entrySet())
+				arrays.put(group.getKey(), group.getValue().toArray(new Action[0]));
+			return Collections.unmodifiableMap(arrays);
+		}
+	}
+
+	/**
+	 * Listener notified after the {@link Action}s of {@link ActionPackage}s
+	 * were removed or replaced.
+	 */
+	interface OnPackagesRemovedListener {
+
+		/**
+		 * Called after the {@link Action}s of packages were removed or
+		 * replaced.
+		 * 
+		 * @param names
+		 *            The names of the packages.
+		 */
+		void onPackagesRemoved(Set<String> names);
 	}
-}
\ No newline at end of file
+}
@@ -75,10 +75,14 @@ public class ActionResult {
 	 * DESTROY_CONTEXT: The context constructor returns this to indicate that
 	 * the context shall be destroyed.<br>
 	 * OTHER: Any other problem that cannot be categorized into the above.
-	 * Usually combined with a message.
+	 * Usually combined with a message.<br>
+	 * TIMEOUT: Set by the system when the Action did not finish within its
+	 * timeout and was cancelled.<br>
+	 * REJECTED: Set by the system when the Action was not run because too many
+	 * Actions of its package were running.
 	 *
 	 */
 	public static enum ActionResultCode {
-		SUCCESS, RESULT_PENDING, FAILURE, MISSING_INPUT, MISSING_FUNCTIONALITY, INTERNAL_ERROR, CREATE_CONTEXT, DESTROY_CONTEXT, OTHER
+		SUCCESS, RESULT_PENDING, FAILURE, MISSING_INPUT, MISSING_FUNCTIONALITY, INTERNAL_ERROR, CREATE_CONTEXT, DESTROY_CONTEXT, OTHER, TIMEOUT, REJECTED
 	}
 }
\ No newline at end of file
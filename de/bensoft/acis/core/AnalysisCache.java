@@ -0,0 +1,102 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import de.bensoft.acis.core.language.Language;
+import de.bensoft.acis.core.language.Sentence;
+import de.bensoft.acis.core.language.SentenceObjectSet;
+import de.bensoft.acis.core.language.Word;
+import de.bensoft.acis.core.language.WordCache;
+
+/**
+ * Shares the language analysis between the calls of a batch of
+ * {@link ACIS#execute(String, float, WeightSet, ACIS.OnExecutionListener, AnalysisCache)}
+ * and {@link ACIS#match(String, float, WeightSet, AnalysisCache)}.<br>
+ * Every text (inputs and parameter delimiters) is analyzed only once per cache,
+ * so repeated inputs of a batch are only analyzed once. The analysis of the
+ * {@link Action} triggers is kept by the {@link Action}s themselves.<br>
+ * Note: The cache is not thread-safe and should only live as long as the
+ * batch, it does not notice changes of the {@link WordCache}.
+ *
+ */
+public class AnalysisCache {
+
+	private final Map<String, Word> mWords = new HashMap<>();
+	private final Map<String, Sentence> mSentences = new HashMap<>();
+	private final Map<Sentence, SentenceObjectSet> mSentenceObjects = new IdentityHashMap<>();
+	private Language mLanguage;
+	private Language mCachingLanguage;
+
+	/**
+	 * Returns a {@link Language} answering from this cache and analyzing
+	 * missing texts with {@code language}.
+	 *
+	 * @param language
+	 *            The {@link Language} doing the analysis.
+	 * @return The caching {@link Language}.
+	 * @throws IllegalArgumentException
+	 *             When the cache is already used with another {@link Language}.
+	 */
+	Language wrap(final Language language) throws IllegalArgumentException {
+		if (mLanguage == null) {
+			mLanguage = language;
+			mCachingLanguage = new Language() {
+
+				@Override
+				public String getName() {
+					return language.getName();
+				}
+
+				@Override
+				public Locale getLanguage() {
+					return language.getLanguage();
+				}
+
+				@Override
+				public Word getWord(String word) {
+					Word w = mWords.get(word);
+					if (w == null) {
+						w = language.getWord(word);
+						mWords.put(word, w);
+					}
+					return w;
+				}
+
+				@Override
+				public Sentence getSentence(String sentence) {
+					Sentence s = mSentences.get(sentence);
+					if (s == null) {
+						s = language.getSentence(sentence);
+						mSentences.put(sentence, s);
+					}
+					return s;
+				}
+
+				@Override
+				public SentenceObjectSet getSentenceObjects(Sentence sentence) {
+					SentenceObjectSet set = mSentenceObjects.get(sentence);
+					if (set == null) {
+						set = language.getSentenceObjects(sentence);
+						mSentenceObjects.put(sentence, set);
+					}
+					return set;
+				}
+
+				@Override
+				public void setWordCache(WordCache wordCache) {
+					language.setWordCache(wordCache);
+				}
+			};
+		} else if (mLanguage != language) {
+			throw new IllegalArgumentException("The AnalysisCache is already used with another Language.");
+		}
+		return mCachingLanguage;
+	}
+}
\ No newline at end of file
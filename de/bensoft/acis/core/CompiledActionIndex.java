@@ -0,0 +1,380 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import de.bensoft.acis.core.language.Language;
+import de.bensoft.acis.core.language.SentenceObject;
+import de.bensoft.acis.core.language.SentenceObjectSet;
+import de.bensoft.acis.core.language.Word;
+import de.bensoft.acis.utils.Logging.Logger;
+
+/**
+ * A file in the data directory which keeps the analysis of the triggers of the
+ * {@link Action}s of every {@link ActionPackage} compiled with
+ * {@link ACIS#compile(ActionPackage)}: the {@link SentenceObjectSet}s of the
+ * triggers and the {@link Word}s of the parameter delimiters. So after a
+ * restart the triggers do not have to be analyzed again, which may need
+ * requests to the {@link Language}'s online sources.<br>
+ * There is one file per {@link Language}, it is memory-mapped when loaded and
+ * an entry is only decoded when its package is compiled. An entry is used if
+ * the package still has the same {@link Action}s with the same triggers and
+ * parameter delimiters, as an {@link ActionPackage} has no version of its own.
+ * Otherwise the triggers are analyzed and the entry is replaced.
+ *
+ */
+class CompiledActionIndex {
+
+	private static final String LOG_TAG = "ACTION_INDEX";
+
+	private static final int MAGIC = 0x41434958; // "ACIX"
+	private static final int FORMAT_VERSION = 2;
+
+	private final File mFile;
+	private final Language mLanguage;
+	private final Logger mLogger;
+
+	// encoded entries by package name, read from the mapped file or new
+	private final Map<String, ByteBuffer> mEntries = new LinkedHashMap<>();
+	private boolean mDirty;
+	private final Object mSaveLock = new Object();
+
+	/**
+	 * The constructor.
+	 *
+	 * @param file
+	 *            The file of the index.
+	 * @param language
+	 *            The {@link Language} of the system.
+	 * @param logger
+	 *            The {@link de.bensoft.acis.utils.Logging.Logger} to use.
+	 */
+	CompiledActionIndex(File file, Language language, Logger logger) {
+		mFile = file;
+		mLanguage = language;
+		mLogger = logger;
+	}
+
+	/**
+	 * Maps the file and reads its entries. A missing, outdated or malformed file
+	 * is ignored and overwritten by the next {@link #put(ActionPackage, Action[])}.
+	 */
+	synchronized void load() {
+		mEntries.clear();
+		if (!mFile.isFile())
+			return;
+		try (RandomAccessFile file = new RandomAccessFile(mFile, "r"); FileChannel channel = file.getChannel()) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+					|| buffer.getInt() != ACIS.LIBRARY_VERSION || !mLanguage.getName().equals(readString(buffer))) {
+				mLogger.w(LOG_TAG, "Ignoring the outdated index '" + mFile.getName() + "'.");
+				return;
+			}
+			int count = buffer.getInt();
+			Map<String, ByteBuffer> entries = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				String name = readString(buffer);
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining())
+					throw new IllegalArgumentException("Entry '" + name + "' exceeds the file.");
+				ByteBuffer entry = buffer.slice();
+				entry.limit(length);
+				buffer.position(buffer.position() + length);
+				entries.put(name, entry);
+			}
+			mEntries.putAll(entries);
+			mLogger.i(LOG_TAG, "Loaded the index '" + mFile.getName() + "' with " + count + " package(s).");
+		} catch (IOException | RuntimeException e) {
+			mLogger.w(LOG_TAG, "Ignoring the malformed index '" + mFile.getName() + "': " + e.toString());
+		}
+	}
+
+	/**
+	 * Sets the analysis of the triggers of the {@link Action}s of a package from
+	 * its entry.
+	 *
+	 * @param pack
+	 *            The {@link ActionPackage}.
+	 * @param actions
+	 *            The {@link Action}s just created by the package.
+	 * @return {@code true} if the entry matched and all {@link Action}s are
+	 *         compiled, {@code false} if there is no matching entry and nothing
+	 *         was changed.
+	 */
+	boolean apply(ActionPackage pack, Action[] actions) {
+		ByteBuffer entry;
+		synchronized (this) {
+			entry = mEntries.get(pack.getName());
+		}
+		if (entry == null)
+			return false;
+		entry = entry.duplicate();
+		try {
+			if (entry.getLong() != fingerprint(actions) || entry.getInt() != actions.length)
+				return false;
+			SentenceObjectSet[] sentenceObjects = new SentenceObjectSet[actions.length];
+			Word[][] delimiterWords = new Word[actions.length][];
+			for (int i = 0; i < actions.length; i++) {
+				if (!actions[i].getTrigger().equals(readString(entry)) || !readDelimiters(entry, actions[i]))
+					return false;
+				sentenceObjects[i] = new SentenceObjectSet(readSentenceObjects(entry), readSentenceObjects(entry),
+						readSentenceObjects(entry), readSentenceObjects(entry), readSentenceObjects(entry));
+				delimiterWords[i] = readWords(entry);
+				if (delimiterWords[i].length != actions[i].getActionParams().length * 2)
+					return false;
+			}
+			for (int i = 0; i < actions.length; i++)
+				actions[i].setCompiledTrigger(mLanguage, sentenceObjects[i], delimiterWords[i]);
+			return true;
+		} catch (RuntimeException e) {
+			mLogger.w(LOG_TAG, "Ignoring the malformed entry of '" + pack.getName() + "': " + e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the entry of a package by the analysis of the triggers of its
+	 * {@link Action}s and writes the file.
+	 *
+	 * @param pack
+	 *            The {@link ActionPackage}.
+	 * @param actions
+	 *            The compiled {@link Action}s of the package.
+	 */
+	void put(ActionPackage pack, Action[] actions) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeLong(fingerprint(actions));
+			out.writeInt(actions.length);
+			for (Action action : actions) {
+				writeString(out, action.getTrigger());
+				writeDelimiters(out, action);
+				SentenceObjectSet sentenceObjects = action.getTriggerSentenceObjects(mLanguage);
+				writeSentenceObjects(out, sentenceObjects.getActions());
+				writeSentenceObjects(out, sentenceObjects.getWhats());
+				writeSentenceObjects(out, sentenceObjects.getWhos());
+				writeSentenceObjects(out, sentenceObjects.getHows());
+				writeSentenceObjects(out, sentenceObjects.getElses());
+				writeWords(out, action.getDelimiterWords(mLanguage));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		synchronized (this) {
+			mEntries.put(pack.getName(), ByteBuffer.wrap(bytes.toByteArray()));
+			mDirty = true;
+		}
+		save();
+	}
+
+	/**
+	 * Writes all entries to a new file which replaces the old one, so a mapped
+	 * old file stays valid. Entries put while another Thread writes the file are
+	 * written together afterwards, so packages compiled in parallel do not write
+	 * the file once each.
+	 */
+	private void save() {
+		synchronized (mSaveLock) {
+			Map<String, ByteBuffer> entries;
+			synchronized (this) {
+				if (!mDirty)
+					return;
+				mDirty = false;
+				entries = new LinkedHashMap<>(mEntries);
+			}
+			write(entries);
+		}
+	}
+
+	private void write(Map<String, ByteBuffer> entries) {
+		File tmp = new File(mFile.getAbsolutePath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(ACIS.LIBRARY_VERSION);
+				writeString(out, mLanguage.getName());
+				out.writeInt(entries.size());
+				for (Map.Entry<String, ByteBuffer> entry : entries.entrySet()) {
+					ByteBuffer buffer = entry.getValue().duplicate();
+					byte[] data = new byte[buffer.remaining()];
+					buffer.get(data);
+					writeString(out, entry.getKey());
+					out.writeInt(data.length);
+					out.write(data);
+				}
+			}
+			Files.move(tmp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			mLogger.e(LOG_TAG, "The index '" + mFile.getName() + "' could not be written: " + e.toString());
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Returns a checksum of the names, triggers and parameter delimiters of
+	 * {@link Action}s.
+	 */
+	private static long fingerprint(Action[] actions) {
+		CRC32 crc = new CRC32();
+		for (Action action : actions) {
+			crc.update(action.getName().getBytes(StandardCharsets.UTF_8));
+			crc.update('\n');
+			crc.update(action.getTrigger().getBytes(StandardCharsets.UTF_8));
+			crc.update('\n');
+			for (ActionParameter param : action.getActionParams()) {
+				update(crc, param.getPreDelimiter());
+				update(crc, param.getPostDelimiter());
+			}
+			crc.update('\n');
+		}
+		return crc.getValue();
+	}
+
+	private static void update(CRC32 crc, String delimiter) {
+		// tell a missing delimiter from an empty one
+		if (delimiter != null)
+			crc.update(delimiter.getBytes(StandardCharsets.UTF_8));
+		crc.update(delimiter != null ? '\t' : 0);
+	}
+
+	private static void writeDelimiters(DataOutputStream out, Action action) throws IOException {
+		ActionParameter[] params = action.getActionParams();
+		out.writeInt(params.length);
+		for (ActionParameter param : params) {
+			writeString(out, param.getPreDelimiter());
+			writeString(out, param.getPostDelimiter());
+		}
+	}
+
+	/**
+	 * Reads the parameter delimiters of an {@link Action} and compares them
+	 * with its current ones, as the analyzed delimiter {@link Word}s depend on
+	 * them.
+	 */
+	private static boolean readDelimiters(ByteBuffer in, Action action) {
+		ActionParameter[] params = action.getActionParams();
+		if (in.getInt() != params.length)
+			return false;
+		for (ActionParameter param : params) {
+			if (!Objects.equals(param.getPreDelimiter(), readString(in))
+					|| !Objects.equals(param.getPostDelimiter(), readString(in)))
+				return false;
+		}
+		return true;
+	}
+
+	private static void writeSentenceObjects(DataOutputStream out, SentenceObject[] sentenceObjects)
+			throws IOException {
+		out.writeInt(sentenceObjects.length);
+		for (SentenceObject sentenceObject : sentenceObjects) {
+			writeWord(out, sentenceObject.getMainWord());
+			writeWord(out, sentenceObject.getCompound());
+		}
+	}
+
+	private static SentenceObject[] readSentenceObjects(ByteBuffer in) {
+		SentenceObject[] sentenceObjects = new SentenceObject[readLength(in)];
+		for (int i = 0; i < sentenceObjects.length; i++)
+			sentenceObjects[i] = new SentenceObject(readWord(in), readWord(in));
+		return sentenceObjects;
+	}
+
+	private static void writeWords(DataOutputStream out, Word[] words) throws IOException {
+		out.writeInt(words.length);
+		for (Word word : words)
+			writeWord(out, word);
+	}
+
+	private static Word[] readWords(ByteBuffer in) {
+		Word[] words = new Word[readLength(in)];
+		for (int i = 0; i < words.length; i++)
+			words[i] = readWord(in);
+		return words;
+	}
+
+	private static void writeWord(DataOutputStream out, Word word) throws IOException {
+		out.writeBoolean(word != null);
+		if (word == null)
+			return;
+		writeString(out, word.getTypedForm());
+		writeString(out, word.getNormalForm());
+		out.writeInt(word.getType());
+		String[] synonyms = word.getSynonyms();
+		out.writeInt(synonyms == null ? -1 : synonyms.length);
+		if (synonyms != null)
+			for (String synonym : synonyms)
+				writeString(out, synonym);
+	}
+
+	private static Word readWord(ByteBuffer in) {
+		if (in.get() == 0)
+			return null;
+		String typedForm = readString(in);
+		String normalForm = readString(in);
+		int type = in.getInt();
+		String[] synonyms = null;
+		int count = in.getInt();
+		if (count != -1) {
+			if (count < 0 || count > in.remaining())
+				throw new BufferUnderflowException();
+			synonyms = new String[count];
+			for (int i = 0; i < count; i++)
+				synonyms[i] = readString(in);
+		}
+		return new Word(typedForm, normalForm, type, synonyms);
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > in.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the length of an array, which cannot be larger than the rest of the
+	 * buffer as every element takes at least one byte.
+	 */
+	private static int readLength(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining())
+			throw new BufferUnderflowException();
+		return length;
+	}
+}
\ No newline at end of file
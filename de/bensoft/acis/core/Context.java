@@ -12,7 +12,7 @@ public class Context {
 
 	private String mId;
 	private long mExpirationTime;
-	private long mCreationTime;
+	private volatile long mCreationTime;
 
 	/**
 	 * The constructor.
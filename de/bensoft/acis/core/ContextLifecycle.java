@@ -0,0 +1,121 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the lifecycle of the {@link Context}s of an {@link ACIS} system.<br>
+ * Every {@link Context} with an expiration time is scheduled to be removed from
+ * its {@link Conversation} when it expires. A renewed {@link Context} is
+ * scheduled again when its old expiration time is reached, a destroyed one is
+ * ignored then. So the available {@link Action}s of a {@link Conversation} only
+ * change with its {@link Context}s and matching does not check any times.
+ *
+ */
+class ContextLifecycle {
+
+	private static final String LOG_TAG = "CONTEXTS";
+
+	private static final ScheduledExecutorService SCHEDULER = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "acis-context-expiry");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final ACIS mSystem;
+	private final List<ContextListener> mListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The constructor.
+	 *
+	 * @param system
+	 *            The system whose logger is used.
+	 */
+	ContextLifecycle(ACIS system) {
+		mSystem = system;
+	}
+
+	void addListener(ContextListener listener) {
+		mListeners.add(listener);
+	}
+
+	void removeListener(ContextListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Schedules the expiry of a created {@link Context}. The caller must hold the
+	 * lock of the {@link Conversation}, the listeners are notified with
+	 * {@link #notifyCreated(Conversation, Context)} after releasing it.
+	 */
+	void created(Conversation conversation, Context context) {
+		schedule(conversation, context, System.currentTimeMillis());
+	}
+
+	void notifyCreated(Conversation conversation, Context context) {
+		for (ContextListener listener : mListeners)
+			try {
+				listener.onContextCreated(conversation, context);
+			} catch (RuntimeException e) {
+				mSystem.getLogger().e(LOG_TAG, "A ContextListener failed: " + e.toString());
+			}
+	}
+
+	void notifyDestroyed(Conversation conversation, Context context) {
+		for (ContextListener listener : mListeners)
+			try {
+				listener.onContextDestroyed(conversation, context);
+			} catch (RuntimeException e) {
+				mSystem.getLogger().e(LOG_TAG, "A ContextListener failed: " + e.toString());
+			}
+	}
+
+	private void schedule(final Conversation conversation, final Context context, long now) {
+		if (context.getExpirationTime() == -1)
+			return;
+		long delay = Math.max(0, context.getCreationTime() + context.getExpirationTime() - now);
+		SCHEDULER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				expire(conversation, context);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void expire(Conversation conversation, Context context) {
+		synchronized (conversation) {
+			// destroyed or replaced by a new Context with the same id meanwhile
+			if (conversation.getContextMap().get(context.getId()) != context)
+				return;
+			long now = System.currentTimeMillis();
+			if (context.getCreationTime() + context.getExpirationTime() > now) {
+				// renewed meanwhile
+				schedule(conversation, context, now);
+				return;
+			}
+			conversation.getContextMap().remove(context.getId());
+			conversation.contextsChanged();
+		}
+		for (ContextListener listener : mListeners)
+			try {
+				listener.onContextExpired(conversation, context);
+			} catch (RuntimeException e) {
+				mSystem.getLogger().e(LOG_TAG, "A ContextListener failed: " + e.toString());
+			}
+		mSystem.getLogger().i(LOG_TAG, "Context '" + context.getId() + "' expired.");
+	}
+}
\ No newline at end of file
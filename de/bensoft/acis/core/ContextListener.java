@@ -0,0 +1,50 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+/**
+ * Represents a listener for the lifecycle of the {@link Context}s of all
+ * {@link Conversation}s of an {@link ACIS} system (see
+ * {@link ACIS#addContextListener(ContextListener)}).<br>
+ * The methods are called without holding the lock of the {@link Conversation}
+ * and must return quickly, {@link #onContextExpired(Conversation, Context)} is
+ * called on the Thread which expires all {@link Context}s.
+ *
+ */
+public interface ContextListener {
+
+	/**
+	 * Called when a {@link ContextConstructorAction} created a {@link Context}.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} of the {@link Context}.
+	 * @param context
+	 *            The created {@link Context}.
+	 */
+	public default void onContextCreated(Conversation conversation, Context context) {
+	}
+
+	/**
+	 * Called when a {@link ContextDestructorAction} destroyed a {@link Context}.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} of the {@link Context}.
+	 * @param context
+	 *            The destroyed {@link Context}.
+	 */
+	public default void onContextDestroyed(Conversation conversation, Context context) {
+	}
+
+	/**
+	 * Called when a {@link Context} was removed because it expired.
+	 *
+	 * @param conversation
+	 *            The {@link Conversation} of the {@link Context}.
+	 * @param context
+	 *            The expired {@link Context}.
+	 */
+	public default void onContextExpired(Conversation conversation, Context context) {
+	}
+}
\ No newline at end of file
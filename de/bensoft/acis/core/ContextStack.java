@@ -4,113 +4,180 @@
  */
 package de.bensoft.acis.core;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+
+import de.bensoft.acis.core.language.Sentence;
 
 /**
  * Class for managing the context elements.<br>
- * They are sorted by age from youngest to oldest.
+ * They are sorted by the time they were added from youngest to oldest. The
+ * items are held in a ring buffer of the maximum size, so adding an item
+ * replaces the oldest one when the stack is full.<br>
+ * All methods are synchronized, so a stack can be read while another thread
+ * adds items. {@link #asList()} returns an unmodifiable snapshot which is
+ * shared by all readers until the stack changes.
  *
  */
 public class ContextStack {
 
-	private List<ContextStackItem> mItems = new ArrayList<>(0);
-	private int mMaxSize;
+	private final ContextStackItem[] mRing;
+	private int mHead; // position of the next item
+	private int mSize;
+
+	private List<ContextStackItem> mSnapshot;
+	private final Map<ActionPackage, ContextStack> mPackageViews = new IdentityHashMap<>(0);
 
 	/**
 	 * The constructor.
-	 * 
+	 *
 	 * @param maxSize
 	 *            The maximum size.
 	 */
 	ContextStack(int maxSize) {
-		mMaxSize = maxSize;
+		mRing = new ContextStackItem[Math.max(0, maxSize)];
 	}
 
 	/**
 	 * The constructor.
-	 * 
+	 *
 	 * @param maxSize
 	 *            The maximum size.
 	 * @param items
-	 *            Items to be added.
+	 *            Items to be added, sorted from youngest to oldest. Only the
+	 *            youngest {@code maxSize} items are kept.
 	 */
 	ContextStack(int maxSize, ContextStackItem[] items) {
-		mMaxSize = maxSize;
-		mItems.addAll(Arrays.asList(items));
-		clean();
+		this(maxSize);
+		for (int i = Math.min(items.length, mRing.length) - 1; i >= 0; i--)
+			addItem(items[i]);
 	}
 
 	/**
 	 * Returns the items.
-	 * 
-	 * @return The item array sorted from youngest to oldest.
+	 *
+	 * @return A new item array sorted from youngest to oldest.
 	 */
 	public ContextStackItem[] getItems() {
-		return mItems.toArray(new ContextStackItem[0]);
+		return asList().toArray(new ContextStackItem[0]);
 	}
 
 	/**
-	 * Removes an item at the specified position.
-	 * 
-	 * @param index
-	 *            The position of the item to be removed.
+	 * Returns the items without copying them.
+	 *
+	 * @return An unmodifiable list of the items sorted from youngest to oldest.
+	 *         It does not change when items are added later.
+	 */
+	public synchronized List<ContextStackItem> asList() {
+		if (mSnapshot == null) {
+			ContextStackItem[] items = new ContextStackItem[mSize];
+			for (int i = 0; i < mSize; i++)
+				items[i] = mRing[index(i)];
+			mSnapshot = Collections.unmodifiableList(Arrays.asList(items));
+		}
+		return mSnapshot;
+	}
+
+	/**
+	 * Returns the number of items.
+	 *
+	 * @return The size, at most the maximum size.
 	 */
-	void removeItem(int index) {
-		mItems.remove(index);
+	public synchronized int size() {
+		return mSize;
 	}
 
 	/**
-	 * Updates an item at the specified position. All items are sorted upon
-	 * this.
-	 * 
+	 * Returns an item.
+	 *
 	 * @param index
-	 *            The position of the item to be updated.
-	 * @param newItem
-	 *            The new item.
+	 *            The position of the item, 0 is the youngest.
+	 * @return The item.
+	 * @throws IndexOutOfBoundsException
+	 *             When there is no item at {@code index}.
 	 */
-	void updateItem(int index, ContextStackItem newItem) {
-		mItems.set(index, newItem);
-		clean();
+	public synchronized ContextStackItem getItem(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index >= mSize)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+		return mRing[index(index)];
 	}
 
 	/**
-	 * Adds an item to the stack. All items are sorted upon this.
-	 * 
+	 * Adds an item to the stack as the youngest one. When the stack is full,
+	 * the oldest item is removed.
+	 *
 	 * @param item
 	 *            The item to be added.
 	 */
-	void addItem(ContextStackItem item) {
-		mItems.add(item);
-		clean();
+	synchronized void addItem(ContextStackItem item) {
+		if (mRing.length == 0)
+			return;
+		mRing[mHead] = item;
+		mHead = (mHead + 1) % mRing.length;
+		if (mSize < mRing.length)
+			mSize++;
+		changed();
 	}
 
 	/**
 	 * Returns the maximum size.
-	 * 
+	 *
 	 * @return The maximum size.
 	 */
 	int getMaximumSize() {
-		return mMaxSize;
+		return mRing.length;
 	}
 
 	/**
-	 * Sorts the items and cuts to the maximum size.
-	 * 
+	 * Returns the stack as an {@link ActionPackage} may see it: without the items
+	 * of {@link ContextVisibility#PRIVATE} {@link Action}s and of
+	 * {@link ContextVisibility#PACKAGE} {@link Action}s of other packages, and
+	 * with the trigger instead of the input for
+	 * {@link ContextVisibility#PUBLIC_NO_PARAMETERS} {@link Action}s.<br>
+	 * The view is created once per package and kept until the stack changes.
+	 *
+	 * @param pack
+	 *            The {@link ActionPackage}.
+	 * @return The filtered {@link ContextStack}.
 	 */
-	private void clean() {
-		mItems.sort(new Comparator<ContextStackItem>() {
-			@Override
-			public int compare(ContextStackItem arg0, ContextStackItem arg1) {
-				if (arg0.getAge() < arg1.getAge())
-					return -1;
-				if (arg0.getAge() == arg1.getAge())
-					return 0;
-				return 1;
+	synchronized ContextStack getPackageView(ActionPackage pack) {
+		ContextStack view = mPackageViews.get(pack);
+		if (view == null) {
+			view = new ContextStack(mRing.length);
+			for (int i = mSize - 1; i >= 0; i--) {
+				ContextStackItem item = mRing[index(i)];
+				ContextVisibility visibility = item.getAction().getContextVisibility();
+				if (visibility == ContextVisibility.PRIVATE
+						|| (visibility == ContextVisibility.PACKAGE && !item.getAction().getPackage().equals(pack)))
+					continue;
+				if (visibility == ContextVisibility.PUBLIC_NO_PARAMETERS)
+					item = new ContextStackItem(item.getTime(), item.getAction(),
+							new Sentence(item.getAction().getTrigger()).getTextWithoutParams(), item.getActionResult());
+				view.addItem(item);
 			}
-		});
-		mItems = mItems.subList(0, Math.min(mMaxSize, mItems.size()));
+			mPackageViews.put(pack, view);
+		}
+		return view;
+	}
+
+	/**
+	 * Returns the position in the ring of an item.
+	 *
+	 * @param index
+	 *            The position of the item, 0 is the youngest.
+	 */
+	private int index(int index) {
+		return (mHead - 1 - index + 2 * mRing.length) % mRing.length;
+	}
+
+	/**
+	 * Drops the snapshot and the views of the previous items.
+	 */
+	private void changed() {
+		mSnapshot = null;
+		mPackageViews.clear();
 	}
-}
\ No newline at end of file
+}
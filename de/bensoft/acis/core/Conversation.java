@@ -0,0 +1,161 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The state of a conversation with one user: its {@link ContextStack} and its
+ * active {@link Context}s.<br>
+ * One {@link ACIS} system can serve any number of conversations. They share
+ * the {@link de.bensoft.acis.core.language.Language}, the {@link Action}s with
+ * their analyzed triggers and the caches of the system, so a conversation only
+ * costs its context items.<br>
+ * Conversations are passed to
+ * {@link ACIS#execute(Conversation, String, float, WeightSet, ACIS.OnExecutionListener, AnalysisCache)};
+ * they can be created directly or looked up by an id (e.g. a session key)
+ * with {@link ACIS#getConversation(String)}.<br>
+ * Conversations are thread-safe: the {@link Context}s are guarded by the lock
+ * of the conversation, the {@link ContextStack} synchronizes itself.
+ *
+ */
+public class Conversation {
+
+	private volatile ContextStack mContextStack;
+	private final Map<String, Context> mContexts = new HashMap<>(0);
+	private volatile long mLastActivityTime = System.currentTimeMillis();
+	private final AtomicInteger mExecutions = new AtomicInteger();
+
+	private ActionManager.Snapshot mCandidatesSnapshot;
+	private Action[] mCandidates;
+
+	/**
+	 * Creates a conversation with a {@link ContextStack} of size 30.
+	 */
+	public Conversation() {
+		this(30);
+	}
+
+	/**
+	 * Creates a conversation.
+	 *
+	 * @param contextStackSize
+	 *            The maximum size of the {@link ContextStack}.
+	 */
+	public Conversation(int contextStackSize) {
+		mContextStack = new ContextStack(contextStackSize);
+	}
+
+	/**
+	 * Returns the {@link ContextStack} including all context items of this
+	 * conversation (even {@link ContextVisibility#PRIVATE}).
+	 *
+	 * @return The {@link ContextStack}.
+	 */
+	public ContextStack getContextStack() {
+		return mContextStack;
+	}
+
+	/**
+	 * Sets the size of the {@link ContextStack}.<br>
+	 * Note: Previous entries are lost.
+	 *
+	 * @param maxSize
+	 *            The size to set.
+	 */
+	public void setContextStackMaximumSize(int maxSize) {
+		mContextStack = new ContextStack(maxSize);
+	}
+
+	/**
+	 * Returns the active {@link Context}s of this conversation.
+	 *
+	 * @return The {@link Context}s. Expired ones are removed when they expire.
+	 */
+	public synchronized Context[] getContexts() {
+		return mContexts.values().toArray(new Context[0]);
+	}
+
+	/**
+	 * Returns the time of the last input of this conversation.
+	 *
+	 * @return The time in milliseconds (see
+	 *         {@link System#currentTimeMillis()}).
+	 */
+	public long getLastActivityTime() {
+		return mLastActivityTime;
+	}
+
+	/**
+	 * Returns the {@link Context}s by id, for matching and updating them. The
+	 * caller must hold the lock of the conversation.
+	 */
+	Map<String, Context> getContextMap() {
+		return mContexts;
+	}
+
+	/**
+	 * Returns the {@link Action}s available in this conversation. They are
+	 * cached until the {@link Action}s or the {@link Context}s change (including
+	 * the expiry of a {@link Context}). The caller must hold the lock of the
+	 * conversation.
+	 *
+	 * @param snapshot
+	 *            The current {@link ActionManager.Snapshot}.
+	 * @return The {@link Action}s. Must not be modified.
+	 */
+	Action[] getCandidates(ActionManager.Snapshot snapshot) {
+		if (mCandidates == null || mCandidatesSnapshot != snapshot) {
+			mCandidates = snapshot.getCandidates(mContexts);
+			mCandidatesSnapshot = snapshot;
+		}
+		return mCandidates;
+	}
+
+	/**
+	 * Drops the cached {@link Action}s after the {@link Context}s changed. The
+	 * caller must hold the lock of the conversation.
+	 */
+	void contextsChanged() {
+		mCandidates = null;
+	}
+
+	/**
+	 * Marks that the conversation received an input.
+	 */
+	void touch() {
+		mLastActivityTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns whether an input of this conversation is being executed, e.g.
+	 * while its {@link Action} waits for input.
+	 *
+	 * @return {@code true} if at least one input is being executed.
+	 */
+	public boolean isExecuting() {
+		return mExecutions.get() > 0;
+	}
+
+	/**
+	 * Marks the start of the execution of an input.
+	 *
+	 * @return {@code true} if no other input was being executed.
+	 */
+	boolean beginExecution() {
+		return mExecutions.incrementAndGet() == 1;
+	}
+
+	/**
+	 * Marks the end of the execution of an input.
+	 *
+	 * @return {@code true} if no other input is being executed.
+	 */
+	boolean endExecution() {
+		return mExecutions.decrementAndGet() == 0;
+	}
+}
\ No newline at end of file
@@ -77,7 +77,12 @@ class EnvironmentCreator {
 
 			@Override
 			public String requestInput(String message) {
-				return systemEnvironment.requestInput(message);
+				ActionBulkhead.beginWaiting();
+				try {
+					return systemEnvironment.requestInput(message);
+				} finally {
+					ActionBulkhead.endWaiting();
+				}
 			}
 
 			@Override
@@ -109,6 +114,11 @@ class EnvironmentCreator {
 			public ContextStack getContextStack() {
 				return packageEnvironment.getContextStack();
 			}
+
+			@Override
+			public boolean isCancelled() {
+				return ActionBulkhead.isCurrentRunCancelled();
+			}
 		};
 	}
 }
\ No newline at end of file
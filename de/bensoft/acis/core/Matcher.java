@@ -6,6 +6,7 @@ package de.bensoft.acis.core;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 
 import de.bensoft.acis.core.language.Language;
 import de.bensoft.acis.core.language.Sentence;
@@ -27,6 +28,7 @@ class Matcher extends Loggable {
 
 	private Action[] mActions;
 	private Language mLanguage;
+	private Language mTriggerLanguage;
 	private float mParameterThreshold;
 
 	/**
@@ -34,14 +36,18 @@ class Matcher extends Loggable {
 	 * 
 	 * @param language
 	 *            The {@link Language} to use.
+	 * @param triggerLanguage
+	 *            The {@link Language} the analysis of the triggers is kept for
+	 *            (see {@link Action#getTriggerSentenceObjects(Language)}).
 	 * @param actions
 	 *            The {@link Action}s to compare the input with.
 	 * @param parameterThreshold
 	 *            The parameter matching threshold.
 	 */
-	public Matcher(Language language, Action[] actions, float parameterThreshold) {
+	public Matcher(Language language, Language triggerLanguage, Action[] actions, float parameterThreshold) {
 		mActions = actions;
 		mLanguage = language;
+		mTriggerLanguage = triggerLanguage;
 		mParameterThreshold = parameterThreshold;
 	}
 
@@ -74,6 +80,10 @@ class Matcher extends Loggable {
 				+ String.valueOf(threshold));
 
 		ArrayList<MatchResult> results = new ArrayList<>();
+		// one snapshot for all Actions, the stack may change meanwhile
+		List<ContextStackItem> contextItems = generalContext.asList();
+		// where the words of the input are, for cutting out parameters
+		int[] bounds = getPartBounds(sentence.getText(), sentence.getParts());
 
 		for (Action i : mActions) {
 			float score = 0;
@@ -81,12 +91,12 @@ class Matcher extends Loggable {
 
 			// Matching of length
 			maxpossible += sentence.getParts().length * weightset.Length;
-			int diff = Math.abs(sentence.getParts().length - Sentence.splitUpAction(i.getTrigger()).length);
+			int diff = Math.abs(sentence.getParts().length - i.getTriggerLength());
 			if (diff <= sentence.getParts().length)
 				score += (sentence.getParts().length - diff) * weightset.Length;
 
 			// Matching of SentenceObjects
-			SentenceObjectSet vs = mLanguage.getSentenceObjects(mLanguage.getSentence(i.getTrigger()));
+			SentenceObjectSet vs = i.getTriggerSentenceObjects(mTriggerLanguage);
 			float curmaxpossible = 0f;
 			if (sentenceObjects.getActions().length != 0 || vs.getActions().length != 0) {
 				float[] result = Matcher.compareSentenceObjects(weightset, sentenceObjects.getActions(),
@@ -127,9 +137,9 @@ class Matcher extends Loggable {
 			}
 
 			// matching context
-			if (generalContext.getItems().length > 0) {
+			if (!contextItems.isEmpty()) {
 				float ageMultiplier = weightset.ContextStageOutdatedMultiplier;
-				long age = generalContext.getItems()[0].getAge();
+				long age = contextItems.get(0).getAge();
 				if (age < 300000)
 					ageMultiplier = weightset.ContextStageRecentMultiplier;
 				if (age < 60000)
@@ -137,7 +147,7 @@ class Matcher extends Loggable {
 				if (age < 10000)
 					ageMultiplier = weightset.ContextStageImmediateMultiplier;
 
-				Action action = generalContext.getItems()[0].getAction();
+				Action action = contextItems.get(0).getAction();
 
 				// same context
 				String prevContext = "";
@@ -171,6 +181,7 @@ class Matcher extends Loggable {
 				// exact matching by word strings
 				String[] words = sentence.getParts();
 				ActionParameter[] inputparams = i.getActionParams();
+				Word[] delimiterWords = mLanguage == mTriggerLanguage ? i.getDelimiterWords(mTriggerLanguage) : null;
 				for (int a = 0; a < inputparams.length; a++) {
 					String currentparam = null;
 					String predelimiter = inputparams[a].getPreDelimiter();
@@ -178,16 +189,17 @@ class Matcher extends Loggable {
 
 					// starting at beginning, searching for enddelimiter
 					if (predelimiter == null) {
-						if (sentence.indexOfWord(postdelimiter, 1) != -1) {
-							String tmp = getFromBeginning(sentence.getText(), postdelimiter);
+						int pos = sentence.indexOfWord(postdelimiter, 1);
+						if (pos != -1) {
+							String tmp = getFromBeginning(sentence.getText(), bounds, pos);
 							if (!tmp.equals("")) {
 								currentparam = tmp;
 							}
 						} else {
-							Word postdelimiterWord = mLanguage.getWord(postdelimiter);
+							Word postdelimiterWord = getDelimiterWord(delimiterWords, a, postdelimiter, true);
 							for (int k = 0; k < words.length; k++) {
 								if (sentence.getWords()[k].equalsSynonym(postdelimiterWord, false)) {
-									String tmp = getFromBeginning(sentence.getText(), sentence.getParts()[k]);
+									String tmp = getFromBeginning(sentence.getText(), bounds, k);
 									if (!tmp.equals("")) {
 										currentparam = tmp;
 										break;
@@ -198,16 +210,17 @@ class Matcher extends Loggable {
 					} else {
 						// at the end, searching for startdelimiter
 						if (postdelimiter == null) {
-							Word predelimiterWord = mLanguage.getWord(predelimiter);
-							if (sentence.indexOfWord(predelimiter, 0) != -1) {
-								String tmp = getUntilEnd(sentence.getText(), predelimiter);
+							Word predelimiterWord = getDelimiterWord(delimiterWords, a, predelimiter, false);
+							int pos = sentence.indexOfWord(predelimiter, 0);
+							if (pos != -1) {
+								String tmp = getUntilEnd(sentence.getText(), bounds, pos);
 								if (!tmp.equals("")) {
 									currentparam = tmp;
 								}
 							} else {
 								for (int k = 0; k < words.length; k++) {
 									if (sentence.getWords()[k].equalsSynonym(predelimiterWord, false)) {
-										String tmp = getUntilEnd(sentence.getText(), sentence.getParts()[k]);
+										String tmp = getUntilEnd(sentence.getText(), bounds, k);
 										if (!tmp.equals("")) {
 											currentparam = tmp;
 											break;
@@ -223,7 +236,7 @@ class Matcher extends Loggable {
 									if (words[b].equals(predelimiter)) {
 										int pos = sentence.indexOfWord(postdelimiter, b + 1);
 										if (pos != -1) {
-											String tmp = getBetweenWords(sentence.getText(), words[b], words[pos]);
+											String tmp = getBetweenWords(sentence.getText(), bounds, b, pos);
 											if (!tmp.equals("")) {
 												currentparam = tmp;
 												scored = true;
@@ -231,14 +244,13 @@ class Matcher extends Loggable {
 										}
 									}
 								if (!scored) {
-									Word predelimiterWord = mLanguage.getWord(predelimiter);
-									Word postdelimiterWord = mLanguage.getWord(postdelimiter);
+									Word predelimiterWord = getDelimiterWord(delimiterWords, a, predelimiter, false);
+									Word postdelimiterWord = getDelimiterWord(delimiterWords, a, postdelimiter, true);
 									for (int b = 0; b < words.length; b++)
 										if (sentence.getWords()[b].equalsSynonym(predelimiterWord, false)) {
 											for (int k = b + 1; k < words.length; k++) {
 												if (sentence.getWords()[k].equalsSynonym(postdelimiterWord, false)) {
-													String tmp = getBetweenWords(sentence.getText(),
-															sentence.getParts()[b], sentence.getParts()[k]);
+													String tmp = getBetweenWords(sentence.getText(), bounds, b, k);
 													if (!tmp.equals("")) {
 														currentparam = tmp;
 														break;
@@ -284,6 +296,27 @@ class Matcher extends Loggable {
 		return results.toArray(new MatchResult[results.size()]);
 	}
 
+	/**
+	 * Returns the {@link Word} of a delimiter of a parameter.
+	 * 
+	 * @param delimiterWords
+	 *            The analyzed delimiters of the {@link Action} (see
+	 *            {@link Action#getDelimiterWords(Language)}) or {@code null} to
+	 *            analyze {@code delimiter}.
+	 * @param parameter
+	 *            The position of the parameter.
+	 * @param delimiter
+	 *            The delimiter.
+	 * @param post
+	 *            Whether it is the post delimiter.
+	 * @return The {@link Word}.
+	 */
+	private Word getDelimiterWord(Word[] delimiterWords, int parameter, String delimiter, boolean post) {
+		if (delimiterWords == null)
+			return mLanguage.getWord(delimiter);
+		return delimiterWords[2 * parameter + (post ? 1 : 0)];
+	}
+
 	/**
 	 * Compares two {@link SentenceObject}s.
 	 * 
@@ -353,49 +386,84 @@ class Matcher extends Loggable {
 	}
 
 	/**
-	 * Returns the content between two delimiter Strings in a String.
+	 * Finds the parts of a {@link Sentence} in its text.<br>
+	 * The parts are the text without delimiters and filtered characters, so
+	 * they are found one after another, character by character. Searching
+	 * the text for a part as a whole could find it inside another word, like
+	 * "is" in "this".
+	 * 
+	 * @param text
+	 *            The text of the Sentence.
+	 * @param parts
+	 *            The parts of the Sentence (see {@link Sentence#getParts()}).
+	 * @return The start of part {@code n} at index {@code 2n} and its end
+	 *         (exclusive) at index {@code 2n + 1}.
+	 */
+	private static int[] getPartBounds(String text, String[] parts) {
+		int[] bounds = new int[parts.length * 2];
+		int pos = 0;
+		for (int n = 0; n < parts.length; n++) {
+			int start = -1;
+			for (int c = 0; c < parts[n].length(); c++) {
+				int found = text.indexOf(parts[n].charAt(c), pos);
+				if (found == -1)
+					break;
+				if (start == -1)
+					start = found;
+				pos = found + 1;
+			}
+			bounds[2 * n] = start == -1 ? pos : start;
+			bounds[2 * n + 1] = pos;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns the content between two words of a String.
 	 * 
 	 * @param text
 	 *            The input String.
+	 * @param bounds
+	 *            The positions of the words (see {@link #getPartBounds}).
 	 * @param word1
-	 *            The first delimiter. Must be contained in {@code text}.
+	 *            The index of the first word.
 	 * @param word2
-	 *            The second delimiter. Must be contained in {@code text}.
+	 *            The index of the second word, after {@code word1}.
 	 * @return The part between {@code word1} and {@code word2}.
 	 */
-	private static String getBetweenWords(String text, String word1, String word2) {
-		int startpos = text.indexOf(word1) + word1.length();
-		int endpos = text.indexOf(word2);
-		return text.substring(startpos, endpos).trim();
+	private static String getBetweenWords(String text, int[] bounds, int word1, int word2) {
+		return text.substring(bounds[2 * word1 + 1], bounds[2 * word2]).trim();
 	}
 
 	/**
-	 * Returns the part of a String from the beginning until the first
-	 * occurrence of another String.
+	 * Returns the part of a String from the beginning until a word.
 	 * 
 	 * @param text
 	 *            The input String.
+	 * @param bounds
+	 *            The positions of the words (see {@link #getPartBounds}).
 	 * @param endword
-	 *            The String until which the text should be returned.
+	 *            The index of the word until which the text should be
+	 *            returned.
 	 * @return The part of the input until {@code endword}.
 	 */
-	private static String getFromBeginning(String text, String endword) {
-		int endpos = text.indexOf(endword);
-		return text.substring(0, endpos).trim();
+	private static String getFromBeginning(String text, int[] bounds, int endword) {
+		return text.substring(0, bounds[2 * endword]).trim();
 	}
 
 	/**
-	 * Returns the part of a String from the first occurrence of another String
-	 * until the end.
+	 * Returns the part of a String after a word until the end.
 	 * 
 	 * @param text
 	 *            The input String.
+	 * @param bounds
+	 *            The positions of the words (see {@link #getPartBounds}).
 	 * @param startword
-	 *            The String after which the text should be returned.
-	 * @return The part of the input beginning at {@code startword}.
+	 *            The index of the word after which the text should be
+	 *            returned.
+	 * @return The part of the input after {@code startword}.
 	 */
-	private static String getUntilEnd(String text, String startword) {
-		int startpos = text.indexOf(startword) + startword.length();
-		return text.substring(startpos).trim();
+	private static String getUntilEnd(String text, int[] bounds, int startword) {
+		return text.substring(bounds[2 * startword + 1]).trim();
 	}
-}
\ No newline at end of file
+}
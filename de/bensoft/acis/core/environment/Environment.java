@@ -15,4 +15,15 @@ import de.bensoft.acis.core.Action;
  */
 public interface Environment extends PackageEnvironment, SystemEnvironment {
 
+	/**
+	 * Returns whether the run of the {@link Action} was cancelled, e.g. because
+	 * it took longer than its timeout. A long running {@link Action} should
+	 * check this regularly and return when it is {@code true}.<br>
+	 * Must be called on the Thread the {@link Action} runs on.
+	 * 
+	 * @return {@code true} if the {@link Action} should stop.
+	 */
+	public default boolean isCancelled() {
+		return false;
+	}
 }
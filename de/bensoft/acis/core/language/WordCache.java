@@ -16,6 +16,8 @@ import java.nio.charset.StandardCharsets;
 
 import de.bensoft.acis.utils.Logging.Loggable;
 import de.bensoft.acis.utils.IOUtils.SavingConfig;
+import de.bensoft.acis.utils.Metrics;
+import de.bensoft.acis.utils.Metrics.Counter;
 
 /**
  * Represents a class for caching the information from {@link Word} Objects.<br>
@@ -24,6 +26,11 @@ import de.bensoft.acis.utils.IOUtils.SavingConfig;
  */
 public class WordCache extends Loggable {
 
+	private static final Counter HITS = Metrics.getDefault().counter("acis_word_cache_hits_total",
+			"Words read from a WordCache.");
+	private static final Counter MISSES = Metrics.getDefault().counter("acis_word_cache_misses_total",
+			"Words looked up in a WordCache without being found.");
+
 	private SavingConfig mConfig;
 	private boolean mEnabled = true;
 
@@ -76,7 +83,7 @@ public class WordCache extends Loggable {
 	 * @param word
 	 *            The {@link Word} to write.
 	 */
-	public void writeInCache(Word word) {
+	public synchronized void writeInCache(Word word) {
 		if (word == null) {
 			getLogger().e("WORD_CACHING",
 					String.format(CacheLoggingMessages.CACHE_WRITE_ERROR, "null", "The word is null"));
@@ -131,9 +138,12 @@ public class WordCache extends Loggable {
 			getLogger().e("WORD_CACHING", String.format(CacheLoggingMessages.CACHE_READ_ERROR, word, e.getMessage()));
 		}
 
-		if (w == null)
+		if (w == null) {
+			MISSES.inc();
 			throw new IllegalArgumentException("The word " + word + " was not found in the cache");
+		}
 
+		HITS.inc();
 		getLogger().i("WORD_CACHING", String.format(CacheLoggingMessages.CACHE_READ_SUCCESS, word));
 		return w;
 	}
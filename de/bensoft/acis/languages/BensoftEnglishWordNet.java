@@ -4,6 +4,7 @@
  */
 package de.bensoft.acis.languages;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -109,6 +110,9 @@ public class BensoftEnglishWordNet extends Loggable implements Language {
 			} catch (Exception parseException) {
 				getLogger().e(LOG_TAG, String.format("An error occured while parsing Word data of '%1$s' : %2$s", word,
 						parseException.toString()));
+				// WordNet could not be reached, ask again next time
+				if (parseException instanceof IOException)
+					return w;
 			}
 		}
 		mCache.writeInCache(w);
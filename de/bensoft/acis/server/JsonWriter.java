@@ -0,0 +1,243 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+/**
+ * Writes a JSON document value by value to a {@link Writer}, without building
+ * the document in memory.<br>
+ * Strings are escaped while they are written, separators are inserted
+ * automatically.<br>
+ * Example: {@code json.beginObject().name("type").value("RESULT").endObject();}
+ * writes <code>{"type":"RESULT"}</code>.
+ *
+ */
+public class JsonWriter implements Flushable {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer mWriter;
+	// per nesting level: whether a value was already written
+	private final BitSet mHasValue = new BitSet();
+	private int mDepth;
+	private boolean mAfterName;
+
+	/**
+	 * Constructor for a JsonWriter.
+	 *
+	 * @param writer
+	 *            The {@link Writer} to write the document to.
+	 */
+	public JsonWriter(Writer writer) {
+		mWriter = writer;
+	}
+
+	/**
+	 * Begins an object.
+	 *
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter beginObject() throws IOException {
+		beforeValue();
+		mWriter.write('{');
+		mHasValue.clear(++mDepth);
+		return this;
+	}
+
+	/**
+	 * Ends the current object.
+	 *
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter endObject() throws IOException {
+		mDepth--;
+		mWriter.write('}');
+		return this;
+	}
+
+	/**
+	 * Begins an array.
+	 *
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter beginArray() throws IOException {
+		beforeValue();
+		mWriter.write('[');
+		mHasValue.clear(++mDepth);
+		return this;
+	}
+
+	/**
+	 * Ends the current array.
+	 *
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter endArray() throws IOException {
+		mDepth--;
+		mWriter.write(']');
+		return this;
+	}
+
+	/**
+	 * Writes the name of the next member of the current object.
+	 *
+	 * @param name
+	 *            The member name.
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter name(String name) throws IOException {
+		beforeValue();
+		string(name);
+		mWriter.write(':');
+		mAfterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes a string value.
+	 *
+	 * @param value
+	 *            The value. {@code null} is written as null.
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter value(String value) throws IOException {
+		if (value == null)
+			return nullValue();
+		beforeValue();
+		string(value);
+		return this;
+	}
+
+	/**
+	 * Writes a number value.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		mWriter.write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes a number value. NaN and infinite values are written as null.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter value(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return nullValue();
+		beforeValue();
+		mWriter.write(Double.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes a boolean value.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		mWriter.write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * Writes null.
+	 *
+	 * @return This JsonWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public JsonWriter nullValue() throws IOException {
+		beforeValue();
+		mWriter.write("null");
+		return this;
+	}
+
+	/**
+	 * Flushes the underlying {@link Writer}.
+	 */
+	@Override
+	public void flush() throws IOException {
+		mWriter.flush();
+	}
+
+	private void beforeValue() throws IOException {
+		if (mAfterName) {
+			mAfterName = false;
+			return;
+		}
+		if (mHasValue.get(mDepth))
+			mWriter.write(',');
+		mHasValue.set(mDepth);
+	}
+
+	private void string(String s) throws IOException {
+		mWriter.write('"');
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+				continue;
+			mWriter.write(s, start, i - start);
+			switch (c) {
+			case '"':
+				mWriter.write("\\\"");
+				break;
+			case '\\':
+				mWriter.write("\\\\");
+				break;
+			case '\n':
+				mWriter.write("\\n");
+				break;
+			case '\r':
+				mWriter.write("\\r");
+				break;
+			case '\t':
+				mWriter.write("\\t");
+				break;
+			default:
+				mWriter.write("\\u");
+				mWriter.write(HEX[(c >> 12) & 0xF]);
+				mWriter.write(HEX[(c >> 8) & 0xF]);
+				mWriter.write(HEX[(c >> 4) & 0xF]);
+				mWriter.write(HEX[c & 0xF]);
+			}
+			start = i + 1;
+		}
+		mWriter.write(s, start, s.length() - start);
+		mWriter.write('"');
+	}
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the query part of a request target into its arguments.<br>
+ * Keys and values are split at the first '=' of a parameter,
+ * {@code application/x-www-form-urlencoded} escapes ('%XX' and '+') are
+ * decoded as UTF-8. Parameters without escapes are taken over as plain
+ * substrings. Malformed escapes are kept literally instead of failing the
+ * whole request.
+ */
+final class QueryStringDecoder {
+
+	private QueryStringDecoder() {
+	}
+
+	/**
+	 * Decodes the parameters of a query.
+	 *
+	 * @param target
+	 *            The String containing the query.
+	 * @param from
+	 *            The index the query starts at (the position after '?').
+	 * @return A Map with the decoded arguments. Empty if there are none.
+	 */
+	static Map<String, String> decode(String target, int from) {
+		Map<String, String> result = new HashMap<String, String>(8);
+		int end = target.length();
+		byte[] buffer = null;
+
+		int start = from;
+		while (start < end) {
+			int amp = target.indexOf('&', start);
+			if (amp == -1)
+				amp = end;
+
+			if (amp > start) {
+				int eq = target.indexOf('=', start);
+				if (eq == -1 || eq > amp)
+					eq = amp;
+
+				// a char never takes more than three bytes in UTF-8
+				if (buffer == null)
+					buffer = new byte[3 * (end - from)];
+				String key = decodeComponent(target, start, eq, buffer);
+				String value = eq < amp ? decodeComponent(target, eq + 1, amp, buffer) : "";
+				result.put(key, value);
+			}
+			start = amp + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes a single key or value.
+	 *
+	 * @param s
+	 *            The source String.
+	 * @param start
+	 *            The start index (inclusive).
+	 * @param end
+	 *            The end index (exclusive).
+	 * @param buffer
+	 *            A scratch buffer of at least {@code 3 * (end - start)} bytes.
+	 * @return The decoded String.
+	 */
+	private static String decodeComponent(String s, int start, int end, byte[] buffer) {
+		boolean plain = true;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '%' || c == '+' || c > 0x7F) {
+				plain = false;
+				break;
+			}
+		}
+		if (plain)
+			return s.substring(start, end);
+
+		int len = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '+') {
+				buffer[len++] = ' ';
+			} else if (c == '%' && hexValue(s, i + 1, end) >= 0 && hexValue(s, i + 2, end) >= 0) {
+				buffer[len++] = (byte) ((hexValue(s, i + 1, end) << 4) | hexValue(s, i + 2, end));
+				i += 2;
+			} else if (c < 0x80) {
+				buffer[len++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[len++] = (byte) (0xC0 | (c >> 6));
+				buffer[len++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buffer[len++] = (byte) (0xF0 | (cp >> 18));
+				buffer[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buffer[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buffer[len++] = (byte) (0x80 | (cp & 0x3F));
+			} else {
+				buffer[len++] = (byte) (0xE0 | (c >> 12));
+				buffer[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[len++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return new String(buffer, 0, len, StandardCharsets.UTF_8);
+	}
+
+	private static int hexValue(String s, int index, int end) {
+		if (index >= end)
+			return -1;
+		char c = s.charAt(index);
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		return -1;
+	}
+}
\ No newline at end of file
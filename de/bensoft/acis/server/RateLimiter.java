@@ -0,0 +1,94 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for many keys (e.g. users and sessions), implemented as
+ * generic cell rate algorithm: every bucket is a single {@link AtomicLong}
+ * holding the time at which it is full again, updated by compare-and-set.
+ * There are no locks.<br>
+ * Buckets which are full again carry no information and are removed once there
+ * are many of them.
+ */
+final class RateLimiter {
+
+	private static final int SWEEP_THRESHOLD = 10000;
+	private static final long SWEEP_INTERVAL = 1000000000L; // 1 s
+
+	private final ConcurrentMap<String, AtomicLong> mBuckets = new ConcurrentHashMap<>();
+	private final AtomicLong mLastSweep = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Takes a token from a bucket.
+	 *
+	 * @param key
+	 *            The key of the bucket.
+	 * @param permitsPerSecond
+	 *            The rate at which the bucket is refilled.
+	 * @param burst
+	 *            The size of the bucket, i.e. the number of requests allowed
+	 *            at once.
+	 * @return 0 if a token was taken, else the number of nanoseconds until
+	 *         the next token is available.
+	 */
+	long acquire(String key, double permitsPerSecond, int burst) {
+		long interval = (long) (1e9 / permitsPerSecond);
+		long tolerance = interval * burst;
+		long now = System.nanoTime();
+		AtomicLong bucket = mBuckets.get(key);
+		if (bucket == null) {
+			if (mBuckets.size() >= SWEEP_THRESHOLD)
+				sweep(now);
+			bucket = new AtomicLong(now);
+			AtomicLong previous = mBuckets.putIfAbsent(key, bucket);
+			if (previous != null)
+				bucket = previous;
+		}
+		while (true) {
+			long full = bucket.get();
+			long next = Math.max(full, now) + interval;
+			if (next - now > tolerance)
+				return next - now - tolerance;
+			if (bucket.compareAndSet(full, next))
+				return 0;
+		}
+	}
+
+	/**
+	 * Removes the buckets which are full again, at most once per
+	 * {@link #SWEEP_INTERVAL}. A request racing with the removal may get one
+	 * token more than allowed.
+	 */
+	/**
+	 * Puts a token taken with {@link #acquire(String, double, int)} back, e.g.
+	 * when another bucket denied the request.
+	 *
+	 * @param key
+	 *            The key of the bucket.
+	 * @param permitsPerSecond
+	 *            The rate the token was taken with.
+	 */
+	void release(String key, double permitsPerSecond) {
+		AtomicLong bucket = mBuckets.get(key);
+		if (bucket != null)
+			bucket.addAndGet(-(long) (1e9 / permitsPerSecond));
+	}
+
+	private void sweep(long now) {
+		long last = mLastSweep.get();
+		if (now - last < SWEEP_INTERVAL || !mLastSweep.compareAndSet(last, now))
+			return;
+		Iterator<AtomicLong> buckets = mBuckets.values().iterator();
+		while (buckets.hasNext()) {
+			if (buckets.next().get() - now <= 0)
+				buckets.remove();
+		}
+	}
+}
\ No newline at end of file
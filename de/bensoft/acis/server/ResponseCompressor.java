@@ -0,0 +1,232 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates and applies the content encoding of responses.<br>
+ * Compressed bodies of responses with an entity tag are kept in a cache with a
+ * fixed byte budget, which drops the least recently used entries first.
+ */
+final class ResponseCompressor {
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	private final Map<String, byte[]> mCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private final int mMaxCacheSize;
+	private int mCacheSize;
+
+	/**
+	 * Constructor for a ResponseCompressor.
+	 *
+	 * @param maxCacheSize
+	 *            The maximum number of compressed bytes to cache.
+	 */
+	ResponseCompressor(int maxCacheSize) {
+		mMaxCacheSize = maxCacheSize;
+	}
+
+	/**
+	 * Selects the encoding for a response from the 'Accept-Encoding' header of
+	 * the request. gzip is preferred over deflate at equal quality.
+	 *
+	 * @param acceptEncoding
+	 *            The header value. May be {@code null}.
+	 * @return {@link #GZIP}, {@link #DEFLATE} or {@code null} if the body should
+	 *         not be compressed.
+	 */
+	static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+		float gzip = -1f;
+		float deflate = -1f;
+		float wildcard = -1f;
+		for (String token : acceptEncoding.split(",")) {
+			int semicolon = token.indexOf(';');
+			String coding = (semicolon == -1 ? token : token.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+			float q = 1f;
+			if (semicolon != -1) {
+				String param = token.substring(semicolon + 1).trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						q = 0f;
+					}
+				}
+			}
+			if (coding.equals(GZIP) || coding.equals("x-gzip"))
+				gzip = q;
+			else if (coding.equals(DEFLATE))
+				deflate = q;
+			else if (coding.equals("*"))
+				wildcard = q;
+		}
+		if (gzip < 0f)
+			gzip = wildcard;
+		if (deflate < 0f)
+			deflate = wildcard;
+		if (gzip <= 0f && deflate <= 0f)
+			return null;
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * Compresses a response body.
+	 *
+	 * @param data
+	 *            The uncompressed body.
+	 * @param encoding
+	 *            {@link #GZIP} or {@link #DEFLATE}.
+	 * @param cacheKey
+	 *            The key identifying the exact body (e.g. path and entity tag)
+	 *            or {@code null} if the result must not be cached.
+	 * @return The compressed body.
+	 * @throws IOException
+	 *             Never thrown for in-memory compression.
+	 */
+	byte[] compress(byte[] data, String encoding, String cacheKey) throws IOException {
+		byte[] cached = getCached(encoding, cacheKey);
+		if (cached != null)
+			return cached;
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+		OutputStream output = wrap(compressed, encoding, false);
+		output.write(data);
+		output.close();
+		byte[] result = compressed.toByteArray();
+		if (cacheKey != null)
+			putCached(encoding, cacheKey, result);
+		return result;
+	}
+
+	/**
+	 * Returns a cached compressed body.
+	 *
+	 * @param encoding
+	 *            {@link #GZIP} or {@link #DEFLATE}.
+	 * @param cacheKey
+	 *            The key identifying the exact body. May be {@code null}.
+	 * @return The compressed body or {@code null} if it is not cached.
+	 */
+	byte[] getCached(String encoding, String cacheKey) {
+		if (cacheKey == null)
+			return null;
+		synchronized (mCache) {
+			return mCache.get(encoding + ' ' + cacheKey);
+		}
+	}
+
+	/**
+	 * Returns a stream passing everything to {@code output} and keeping a
+	 * copy, which is cached by {@link CapturingOutputStream#commit()}. The copy
+	 * is dropped as soon as it is too large to be cached.
+	 *
+	 * @param output
+	 *            The stream to the client.
+	 * @param encoding
+	 *            The encoding of the bytes written.
+	 * @param cacheKey
+	 *            The key identifying the exact body.
+	 * @return The capturing stream.
+	 */
+	CapturingOutputStream capture(OutputStream output, String encoding, String cacheKey) {
+		return new CapturingOutputStream(output, encoding, cacheKey);
+	}
+
+	private void putCached(String encoding, String cacheKey, byte[] data) {
+		if (data.length > mMaxCacheSize / 4)
+			return;
+		synchronized (mCache) {
+			byte[] previous = mCache.put(encoding + ' ' + cacheKey, data);
+			mCacheSize += data.length - (previous != null ? previous.length : 0);
+			Iterator<byte[]> eldest = mCache.values().iterator();
+			while (mCacheSize > mMaxCacheSize && eldest.hasNext()) {
+				mCacheSize -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Wraps a stream so that everything written to it is compressed.
+	 *
+	 * @param output
+	 *            The stream receiving the compressed bytes.
+	 * @param encoding
+	 *            {@link #GZIP} or {@link #DEFLATE}.
+	 * @param syncFlush
+	 *            Whether flushing the returned stream also flushes the data
+	 *            compressed so far, e.g. for streamed responses.
+	 * @return The compressing stream. {@code finish()} or {@code close()} has
+	 *         to be called after the last write.
+	 * @throws IOException
+	 *             When the header can not be written.
+	 */
+	static DeflaterOutputStream wrap(OutputStream output, String encoding, boolean syncFlush) throws IOException {
+		if (encoding.equals(GZIP))
+			return new GZIPOutputStream(output, syncFlush);
+		return new DeflaterOutputStream(output, syncFlush);
+	}
+
+	/**
+	 * A stream keeping a copy of a compressed streamed body for the cache.
+	 */
+	final class CapturingOutputStream extends FilterOutputStream {
+		private final String mEncoding;
+		private final String mCacheKey;
+		private ByteArrayOutputStream mCopy = new ByteArrayOutputStream(1024);
+
+		private CapturingOutputStream(OutputStream output, String encoding, String cacheKey) {
+			super(output);
+			mEncoding = encoding;
+			mCacheKey = cacheKey;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (mCopy != null) {
+				mCopy.write(b);
+				checkSize();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (mCopy != null) {
+				mCopy.write(b, off, len);
+				checkSize();
+			}
+		}
+
+		/**
+		 * Caches the copy. Must only be called after the whole body was
+		 * written.
+		 */
+		void commit() {
+			if (mCopy != null)
+				putCached(mEncoding, mCacheKey, mCopy.toByteArray());
+			mCopy = null;
+		}
+
+		private void checkSize() {
+			if (mCopy.size() > mMaxCacheSize / 4)
+				mCopy = null;
+		}
+	}
+}
\ No newline at end of file
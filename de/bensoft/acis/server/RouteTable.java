@@ -0,0 +1,145 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps request paths to the {@link ServerContext}s registered in a
+ * {@link Server}.<br>
+ * Exact routes are kept in a hash map. Routes ending with
+ * {@value #PREFIX_WILDCARD} are prefix routes and are stored in a trie over the
+ * path segments, so that e.g. the route &quot;/files/*&quot; also handles
+ * &quot;/files/logs/system.log&quot;. Exact routes take precedence over prefix
+ * routes and the longest matching prefix wins.<br>
+ * Lookups do not lock and do not allocate; registrations are synchronized.
+ */
+class RouteTable {
+
+	/**
+	 * The suffix marking a prefix route.
+	 */
+	static final String PREFIX_WILDCARD = "/*";
+
+	private final Map<String, ServerContext> mExactRoutes = new ConcurrentHashMap<>();
+	private final Node mRoot = new Node(null);
+
+	/**
+	 * Adds a {@link ServerContext} to the table.
+	 *
+	 * @param context
+	 *            The {@link ServerContext} to add.
+	 * @throws IllegalArgumentException
+	 *             When there is already a {@link ServerContext} with the same
+	 *             route.
+	 */
+	synchronized void add(ServerContext context) throws IllegalArgumentException {
+		String route = context.getRoute();
+		if (mExactRoutes.containsKey(route))
+			throw new IllegalArgumentException("There is already a ServerContext with that route.");
+
+		if (route.endsWith(PREFIX_WILDCARD)) {
+			String prefix = route.substring(0, route.length() - PREFIX_WILDCARD.length());
+			Node node = mRoot;
+			int start = skipSlashes(prefix, 0, prefix.length());
+			while (start < prefix.length()) {
+				int end = segmentEnd(prefix, start, prefix.length());
+				node = node.getOrAddChild(prefix.substring(start, end));
+				start = skipSlashes(prefix, end, prefix.length());
+			}
+			node.mPrefixContext = context;
+		}
+		mExactRoutes.put(route, context);
+	}
+
+	/**
+	 * Returns all {@link ServerContext}s in the table.
+	 *
+	 * @return The {@link ServerContext}s.
+	 */
+	Collection<ServerContext> getContexts() {
+		return mExactRoutes.values();
+	}
+
+	/**
+	 * Looks up the {@link ServerContext} handling a request target.
+	 *
+	 * @param target
+	 *            The request target, possibly including a query.
+	 * @param end
+	 *            The index in {@code target} where the path ends (the position
+	 *            of '?' or the length of {@code target}).
+	 * @return The {@link ServerContext} for the path. {@code null} if there is
+	 *         no such {@link ServerContext}.
+	 */
+	ServerContext lookup(String target, int end) {
+		ServerContext exact = mExactRoutes.get(end == target.length() ? target : target.substring(0, end));
+		if (exact != null)
+			return exact;
+
+		Node node = mRoot;
+		ServerContext best = node.mPrefixContext;
+		int start = skipSlashes(target, 0, end);
+		while (start < end) {
+			int segEnd = segmentEnd(target, start, end);
+			node = node.getChild(target, start, segEnd);
+			if (node == null)
+				break;
+			if (node.mPrefixContext != null)
+				best = node.mPrefixContext;
+			start = skipSlashes(target, segEnd, end);
+		}
+		return best;
+	}
+
+	private static int skipSlashes(String s, int from, int end) {
+		while (from < end && s.charAt(from) == '/')
+			from++;
+		return from;
+	}
+
+	private static int segmentEnd(String s, int from, int end) {
+		while (from < end && s.charAt(from) != '/')
+			from++;
+		return from;
+	}
+
+	/**
+	 * A node of the prefix trie. Children are replaced copy-on-write so
+	 * readers never see a partially updated array.
+	 */
+	private static class Node {
+		private final String mSegment;
+		private volatile Node[] mChildren = new Node[0];
+		private volatile ServerContext mPrefixContext;
+
+		Node(String segment) {
+			mSegment = segment;
+		}
+
+		Node getChild(String s, int start, int end) {
+			int len = end - start;
+			for (Node child : mChildren) {
+				if (child.mSegment.length() == len && s.regionMatches(start, child.mSegment, 0, len))
+					return child;
+			}
+			return null;
+		}
+
+		Node getOrAddChild(String segment) {
+			Node child = getChild(segment, 0, segment.length());
+			if (child == null) {
+				Node[] children = new Node[mChildren.length + 1];
+				System.arraycopy(mChildren, 0, children, 0, mChildren.length);
+				child = new Node(segment);
+				children[mChildren.length] = child;
+				mChildren = children;
+			}
+			return child;
+		}
+	}
+}
\ No newline at end of file
@@ -4,30 +4,55 @@
  */
 package de.bensoft.acis.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.net.BindException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.zip.DeflaterOutputStream;
 
 import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.server.ResponseCompressor.CapturingOutputStream;
+import de.bensoft.acis.server.ServerContext.AsyncServerContextHandler;
+import de.bensoft.acis.server.ServerContext.RequestServerContextHandler;
+import de.bensoft.acis.server.ServerContext.ResponseStreamer;
 import de.bensoft.acis.server.ServerContext.ServerContextHandler;
 import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.server.ServerContext.ServerRequest;
+import de.bensoft.acis.server.ServerContext.WebSocketServerContextHandler;
 import de.bensoft.acis.utils.Logging.Loggable;
+import de.bensoft.acis.utils.Metrics;
 
 /**
  * Represents a web server specially designed for an ACIS system.<br>
@@ -57,21 +82,43 @@ import de.bensoft.acis.utils.Logging.Loggable;
  * ALLOWED TO ACCESS THIS PATH&quot; (403), &quot;ERROR: INTERNAL SERVER
  * ERROR&quot; (500)
  * </p>
+ * <p>
+ * Metrics: /metrics<br>
+ * Returns: The {@link Metrics#getDefault() default metrics} in the Prometheus
+ * text format, e.g. requests and latencies per route. No authentication is
+ * required, so scrapers can read it.
+ * </p>
+ * <p>
+ * {@link ServerContext}s with a
+ * {@link ServerContext.WebSocketServerContextHandler} additionally accept
+ * WebSocket upgrade requests to the same URL. The key is only checked at the
+ * upgrade; the standardized errors are returned instead of the handshake.
+ * </p>
  */
 public class Server extends Loggable implements Runnable {
 
 	private static final String LOG_TAG = "SERVER";
+	private static final int MAX_HEADER_LINE_LENGTH = 8192;
+	private static final long DRAIN_POLL_INTERVAL = 20; // ms
 
 	private final int mPort;
-	private boolean mIsRunning;
-	private ServerSocket mServerSocket;
-	private ArrayList<ServerContext> mServerContexts = new ArrayList<ServerContext>(0);
+	private volatile boolean mIsRunning;
+	private volatile ServerSocket mServerSocket;
+	private final RouteTable mRouteTable = new RouteTable();
 
 	private long mTokenExpirationTime = 3600000; // 1 hour
 	private int mTokenLength = 32;
+	private int mMaxRequestBodyLength = 1048576; // 1 MiB
+	private int mCompressionThreshold = 1024;
+	private final ResponseCompressor mCompressor = new ResponseCompressor(4194304); // 4 MiB
+	private final RateLimiter mRateLimiter = new RateLimiter();
 
 	private List<Session> mSessions = new ArrayList<Session>(0);
 
+	private final Metrics mMetrics = Metrics.getDefault();
+	private final LongAdder mRequestsInFlight = new LongAdder();
+	private final Set<WebSocket> mOpenWebSockets = ConcurrentHashMap.newKeySet();
+
 	private ArrayList<User> mUsers = new ArrayList<User>(0);
 
 	/**
@@ -130,6 +177,48 @@ public class Server extends Loggable implements Runnable {
 			}
 
 		}, true));
+		this.registerContext(new ServerContext("/metrics", null, new ServerContextHandler() {
+
+			@Override
+			public ServerContextResult handle(ACIS system, Map<String, String> arguments) {
+				ServerContextResult result = new ServerContextResult(new ResponseStreamer() {
+
+					@Override
+					public void stream(OutputStream output) throws IOException {
+						Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+						mMetrics.write(writer);
+						writer.flush();
+					}
+				}, HttpStatusCodeRepresentation.OK);
+				result.setContentType("text/plain; version=0.0.4; charset=utf-8");
+				return result;
+			}
+
+		}, false));
+
+		mMetrics.gauge("acis_http_requests_in_flight", "Requests waiting for or writing their response.",
+				new Metrics.Gauge() {
+
+					@Override
+					public double getValue() {
+						return mRequestsInFlight.sum();
+					}
+				});
+		mMetrics.gauge("acis_websocket_connections", "Open WebSocket connections.", new Metrics.Gauge() {
+
+			@Override
+			public double getValue() {
+				return mOpenWebSockets.size();
+			}
+		});
+		mMetrics.gauge("acis_sessions", "Sessions of logged in users, including expired ones not yet removed.",
+				new Metrics.Gauge() {
+
+					@Override
+					public double getValue() {
+						return mSessions.size();
+					}
+				});
 	}
 
 	/**
@@ -171,7 +260,56 @@ public class Server extends Loggable implements Runnable {
 	}
 
 	/**
-	 * Registers a new {@link ServerContext} in the server.
+	 * Returns the maximum length of a request body.
+	 * 
+	 * @return The maximum length in bytes.
+	 */
+	public int getMaxRequestBodyLength() {
+		return mMaxRequestBodyLength;
+	}
+
+	/**
+	 * Sets the maximum length of a request body. Larger requests are answered
+	 * with &quot;ERROR: REQUEST BODY TOO LARGE&quot; (413).
+	 * 
+	 * @param maxRequestBodyLength
+	 *            The maximum length in bytes to set.
+	 */
+	public void setMaxRequestBodyLength(int maxRequestBodyLength) {
+		this.mMaxRequestBodyLength = maxRequestBodyLength;
+	}
+
+	/**
+	 * Returns the minimum length of a response body to be compressed.
+	 * 
+	 * @return The compression threshold in bytes. Negative if compression is
+	 *         disabled.
+	 */
+	public int getCompressionThreshold() {
+		return mCompressionThreshold;
+	}
+
+	/**
+	 * Sets the minimum length of a response body to be compressed. Bodies of
+	 * {@link ServerContextResult#isCompressible() compressible} results are
+	 * sent gzip or deflate encoded if the client accepts it (header
+	 * 'Accept-Encoding'). Smaller bodies are sent as they are, because
+	 * compressing them costs more than it saves.
+	 * 
+	 * @param compressionThreshold
+	 *            The compression threshold in bytes to set. A negative value
+	 *            disables compression.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.mCompressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Registers a new {@link ServerContext} in the server.<br>
+	 * A route ending with &quot;/*&quot; (e.g. &quot;/files/*&quot;) is a
+	 * prefix route and also handles all nested paths below it (e.g.
+	 * &quot;/files/logs/system.log&quot;) unless there is a more specific
+	 * route.
 	 * 
 	 * @param context
 	 *            The {@link ServerContext} to register.
@@ -180,11 +318,7 @@ public class Server extends Loggable implements Runnable {
 	 *             the same route as {@code context}.
 	 */
 	public void registerContext(ServerContext context) throws IllegalArgumentException {
-		for (ServerContext c : mServerContexts) {
-			if (c.getRoute().equals(context.getRoute()))
-				throw new IllegalArgumentException("There is already a ServerContext with that route.");
-		}
-		mServerContexts.add(context);
+		mRouteTable.add(context);
 	}
 
 	/**
@@ -197,18 +331,13 @@ public class Server extends Loggable implements Runnable {
 		try {
 			mServerSocket = null;
 			try {
+				// kept open for run(), so a stop() right after start() closes it
 				mServerSocket = new ServerSocket(mPort);
 			} catch (BindException e) {
 				getLogger().i(LOG_TAG,
 						"Server could not be started: Port " + String.valueOf(mPort) + " already in use.");
 				throw new Exception(
 						"Server could not be started because port " + String.valueOf(mPort) + " is already in use.");
-			} finally {
-				if (mServerSocket != null)
-					try {
-						mServerSocket.close();
-					} catch (IOException ignored) {
-					}
 			}
 
 			if (mUsers.size() == 0)
@@ -223,13 +352,15 @@ public class Server extends Loggable implements Runnable {
 	}
 
 	/**
-	 * Stops the web server.
+	 * Stops the web server. Requests which are already running are not waited
+	 * for; see {@link #stop(long)} for a graceful stop.
 	 */
 	public void stop() {
 		try {
 			mIsRunning = false;
-			if (null != mServerSocket) {
-				mServerSocket.close();
+			ServerSocket serverSocket = mServerSocket;
+			if (null != serverSocket) {
+				serverSocket.close();
 				mServerSocket = null;
 				getLogger().i(LOG_TAG, "Server stopped");
 			}
@@ -238,6 +369,65 @@ public class Server extends Loggable implements Runnable {
 		}
 	}
 
+	/**
+	 * Stops the web server gracefully:
+	 * <ol>
+	 * <li>No more connections are accepted.</li>
+	 * <li>{@link ServerContextHandler#onServerStop()} is called for every
+	 * registered {@link ServerContext}, e.g. to release
+	 * {@link de.bensoft.acis.core.Action}s waiting
+	 * for input.</li>
+	 * <li>Open {@link WebSocket}s are closed with
+	 * {@link WebSocket#CLOSE_GOING_AWAY}.</li>
+	 * <li>Running requests may finish until {@code timeout} has passed.
+	 * {@link WebSocket}s whose client did not answer the close frame by then
+	 * are closed without waiting.</li>
+	 * </ol>
+	 * This blocks the calling thread until all requests finished or the
+	 * timeout has passed.
+	 *
+	 * @param timeout
+	 *            The maximum time to wait for running requests in milliseconds.
+	 * @return {@code true} if all requests finished in time, {@code false} if
+	 *         some are still running.
+	 */
+	public boolean stop(long timeout) {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		stop();
+
+		for (ServerContext context : mRouteTable.getContexts()) {
+			try {
+				context.getContextHandler().onServerStop();
+			} catch (Exception e) {
+				getLogger().e(LOG_TAG, "There was an error stopping the context '" + context.getRoute() + "': "
+						+ e.toString());
+			}
+		}
+		for (WebSocket webSocket : mOpenWebSockets)
+			webSocket.close(WebSocket.CLOSE_GOING_AWAY, "Server stopping");
+
+		try {
+			while (mRequestsInFlight.sum() > 0 || !mOpenWebSockets.isEmpty()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					break;
+				Thread.sleep(Math.max(1, Math.min(DRAIN_POLL_INTERVAL, remaining / 1000000L)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (WebSocket webSocket : mOpenWebSockets)
+			webSocket.abort();
+
+		long abandoned = mRequestsInFlight.sum();
+		if (abandoned > 0) {
+			getLogger().w(LOG_TAG, "Server stopped with " + abandoned + " request(s) still running.");
+			return false;
+		}
+		getLogger().i(LOG_TAG, "All requests finished");
+		return true;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -246,116 +436,690 @@ public class Server extends Loggable implements Runnable {
 	@Override
 	public void run() {
 		try {
-			mServerSocket = new ServerSocket(mPort);
+			ServerSocket serverSocket = mServerSocket;
+			if (serverSocket == null)
+				serverSocket = mServerSocket = new ServerSocket(mPort);
 			while (mIsRunning) {
-				final Socket socket = mServerSocket.accept();
+				final Socket socket = serverSocket.accept();
 				new Thread(new Runnable() {
 
 					@Override
 					public void run() {
-						try {
-							handle(socket);
-							socket.close();
-						} catch (IOException e) {
-							getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
-						}
+						handle(socket);
 					}
 				}).start();
 			}
 		} catch (SocketException e) {
-			getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
+			// thrown by accept() when the server is stopped
+			if (mIsRunning)
+				getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
 		} catch (IOException e) {
 			getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
 		}
 	}
 
 	/**
-	 * Respond to a request from a client.
+	 * Respond to a request from a client.<br>
+	 * The socket is closed as soon as the response is written. For an
+	 * {@link AsyncServerContextHandler} this happens when its result completes,
+	 * not necessarily before this method returns.
 	 *
 	 * @param socket
 	 *            The client socket.
 	 */
-	private void handle(Socket socket) {
-		BufferedReader reader = null;
-		PrintStream output = null;
+	private void handle(final Socket socket) {
+		final long received = System.nanoTime();
+		mRequestsInFlight.increment();
+		boolean deferred = false;
 		try {
+			String method = "";
 			String route = "";
 
-			// Read HTTP headers and parse out the route.
-			reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			// Read the request line and the HTTP headers.
+			InputStream input = new BufferedInputStream(socket.getInputStream());
 			String line;
-			while (!isEmpty(line = reader.readLine())) {
-				if (line.startsWith("GET /")) {
-					int start = line.indexOf('/');
-					int end = line.indexOf(' ', start);
-					route = line.substring(start, end);
-					break;
-				}
+			do {
+				line = readLine(input);
+			} while (line != null && line.isEmpty());
+			int methodEnd = line != null ? line.indexOf(' ') : -1;
+			if (methodEnd > 0 && line.startsWith(" /", methodEnd)) {
+				int start = methodEnd + 1;
+				int end = line.indexOf(' ', start);
+				method = line.substring(0, methodEnd);
+				route = end == -1 ? line.substring(start) : line.substring(start, end);
+			}
+			Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			while (!isEmpty(line = readLine(input))) {
+				int colon = line.indexOf(':');
+				if (colon > 0)
+					headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
 			}
-
-			// Output stream that we send the response to
-			output = new PrintStream(socket.getOutputStream(), true);
 
 			// Set initial status code to 404 and bytes to empty array
-			ServerContextResult result = new ServerContextResult("", HttpStatusCodeRepresentation.NOT_FOUND);
+			CompletableFuture<ServerContextResult> result = CompletableFuture
+					.completedFuture(new ServerContextResult("", HttpStatusCodeRepresentation.NOT_FOUND));
 
-			String[] splittedRoute = route.split("\\?");
-			ServerContext context = getContextByRoute(splittedRoute[0]);
+			int queryStart = route.indexOf('?');
+			int pathEnd = queryStart == -1 ? route.length() : queryStart;
+			final String path = route.substring(0, pathEnd);
+			ServerContext context = mRouteTable.lookup(route, pathEnd);
+			// the registered route, so that unknown paths do not create metrics
+			final String metricsRoute = context != null ? context.getRoute() : "unmatched";
 			if (context != null) {
-				Map<String, String> args = parseGETArguments("");
-				if (splittedRoute.length > 1)
-					args = parseGETArguments(splittedRoute[1]);
-
-				if (context.requiresAuthentication()) {
-					if (args.containsKey("key")) {
-						String sid = args.get("key");
-
-						if (isSessionGenuine(sid)) {
-
-							if (!isUserRestricted(sid, splittedRoute[0])) {
-								result = context.getContextHandler().handle(context.getSystem(), args);
-							} else {
-								result = new ServerContextResult("ERROR: USER NOT ALLOWED TO ACCESS THIS PATH",
-										HttpStatusCodeRepresentation.FORBIDDEN);
-							}
-						} else {
-							result = new ServerContextResult("ERROR: SESSION NOT FOUND OR EXPIRED",
-									HttpStatusCodeRepresentation.UNAUTHORIZED);
+				Map<String, String> args = QueryStringDecoder.decode(route, pathEnd + 1);
+
+				boolean acceptsBody = context.getContextHandler() instanceof RequestServerContextHandler;
+				ServerContextResult denial = authorize(context, args, path);
+				if (denial == null)
+					denial = limitRate(context, args, socket);
+				if (denial == null && !method.equals("GET") && !(acceptsBody && method.equals("POST"))) {
+					denial = new ServerContextResult("ERROR: METHOD NOT ALLOWED",
+							HttpStatusCodeRepresentation.METHOD_NOT_ALLOWED);
+					denial.setHeader("Allow", acceptsBody ? "GET, POST" : "GET");
+				}
+				if (denial == null && method.equals("POST"))
+					denial = checkBody(headers);
+
+				if (denial != null) {
+					result = CompletableFuture.completedFuture(denial);
+				} else if (context.getContextHandler() instanceof WebSocketServerContextHandler
+						&& isWebSocketUpgrade(headers)) {
+					deferred = true;
+					mRequestsInFlight.decrement();
+					upgrade(socket, input, context, args, headers, received);
+					return;
+				} else {
+					byte[] body = method.equals("POST") ? readBody(socket, input, headers) : new byte[0];
+					result = dispatch(context, new ServerRequest(method, path, args, headers, body));
+				}
+			}
+
+			if (result.isDone()) {
+				respond(socket, result, path, headers, metricsRoute, received);
+			} else {
+				deferred = true;
+				final CompletableFuture<ServerContextResult> pending = result;
+				result.whenComplete(new BiConsumer<ServerContextResult, Throwable>() {
+
+					@Override
+					public void accept(ServerContextResult r, Throwable t) {
+						try {
+							respond(socket, pending, path, headers, metricsRoute, received);
+						} finally {
+							mRequestsInFlight.decrement();
 						}
-					} else {
-						result = new ServerContextResult("ERROR: AUTHENTICATION REQUIRED",
-								HttpStatusCodeRepresentation.UNAUTHORIZED);
 					}
+				});
+			}
+		} catch (Exception e) {
+			getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
+		} finally {
+			if (!deferred) {
+				closeQuietly(socket);
+				mRequestsInFlight.decrement();
+			}
+		}
+	}
 
-				} else {
-					result = context.getContextHandler().handle(context.getSystem(), args);
+	/**
+	 * Checks whether a request may access a {@link ServerContext}.
+	 *
+	 * @param context
+	 *            The {@link ServerContext}.
+	 * @param args
+	 *            The query arguments.
+	 * @param path
+	 *            The requested path.
+	 * @return {@code null} if access is granted, else the
+	 *         {@link ServerContextResult} to respond with.
+	 */
+	private ServerContextResult authorize(ServerContext context, Map<String, String> args, String path) {
+		if (!context.requiresAuthentication())
+			return null;
+		if (!args.containsKey("key"))
+			return new ServerContextResult("ERROR: AUTHENTICATION REQUIRED", HttpStatusCodeRepresentation.UNAUTHORIZED);
+
+		String sid = args.get("key");
+		if (!isSessionGenuine(sid))
+			return new ServerContextResult("ERROR: SESSION NOT FOUND OR EXPIRED",
+					HttpStatusCodeRepresentation.UNAUTHORIZED);
+		if (isUserRestricted(sid, path, context.getRoute()))
+			return new ServerContextResult("ERROR: USER NOT ALLOWED TO ACCESS THIS PATH",
+					HttpStatusCodeRepresentation.FORBIDDEN);
+		return null;
+	}
+
+	/**
+	 * Takes a token from the buckets of the {@link User} and the
+	 * {@link Session} of an authorized request, or of the client address if
+	 * the {@link ServerContext} requires no authentication.
+	 *
+	 * @param context
+	 *            The {@link ServerContext}.
+	 * @param args
+	 *            The query arguments.
+	 * @param socket
+	 *            The client socket.
+	 * @return {@code null} if the request is within the rate limit of the
+	 *         {@link ServerContext}, else the {@link ServerContextResult} to
+	 *         respond with.
+	 */
+	private ServerContextResult limitRate(ServerContext context, Map<String, String> args, Socket socket) {
+		double rate = context.getRateLimit();
+		if (rate <= 0)
+			return null;
+		int burst = context.getRateLimitBurst();
+		String route = context.getRoute();
+		long wait;
+		Session session = context.requiresAuthentication() ? getSession(args.get("key")) : null;
+		if (session != null) {
+			String user = route + " user " + session.getUsername();
+			wait = mRateLimiter.acquire(user, rate, burst);
+			if (wait == 0) {
+				wait = mRateLimiter.acquire(route + " session " + session.getId(), rate, burst);
+				// a throttled session must not use up the budget of the user's other sessions
+				if (wait != 0)
+					mRateLimiter.release(user, rate);
+			}
+		} else {
+			wait = mRateLimiter.acquire(route + " address " + socket.getInetAddress().getHostAddress(), rate, burst);
+		}
+		if (wait == 0)
+			return null;
+
+		ServerContextResult result = new ServerContextResult("ERROR: TOO MANY REQUESTS",
+				HttpStatusCodeRepresentation.TOO_MANY_REQUESTS);
+		// whole seconds, rounded up
+		result.setHeader("Retry-After", String.valueOf((wait + 999999999L) / 1000000000L));
+		return result;
+	}
+
+	/**
+	 * Returns whether the headers of a request ask for a WebSocket upgrade.
+	 *
+	 * @param headers
+	 *            The request headers.
+	 * @return {@code true} if the request is a WebSocket handshake.
+	 */
+	private boolean isWebSocketUpgrade(Map<String, String> headers) {
+		String upgrade = headers.get("Upgrade");
+		String connection = headers.get("Connection");
+		return upgrade != null && upgrade.equalsIgnoreCase("websocket") && connection != null
+				&& connection.toLowerCase(Locale.ROOT).contains("upgrade");
+	}
+
+	/**
+	 * Finishes a WebSocket handshake and passes the messages of the connection
+	 * to the {@link WebSocketServerContextHandler} of a {@link ServerContext}
+	 * until it is closed. The socket is closed afterwards.
+	 *
+	 * @param socket
+	 *            The client socket.
+	 * @param input
+	 *            The stream positioned after the upgrade request.
+	 * @param context
+	 *            The {@link ServerContext}.
+	 * @param args
+	 *            The query arguments of the upgrade request.
+	 * @param headers
+	 *            The headers of the upgrade request.
+	 * @param start
+	 *            The value of {@link System#nanoTime()} when the request was
+	 *            received.
+	 */
+	private void upgrade(Socket socket, InputStream input, ServerContext context, Map<String, String> args,
+			Map<String, String> headers, long start) {
+		WebSocketServerContextHandler handler = (WebSocketServerContextHandler) context.getContextHandler();
+		WebSocket webSocket = null;
+		try {
+			String key = headers.get("Sec-WebSocket-Key");
+			if (isEmpty(key) || !"13".equals(headers.get("Sec-WebSocket-Version"))) {
+				ServerContextResult r = new ServerContextResult("ERROR: UNSUPPORTED WEBSOCKET HANDSHAKE",
+						HttpStatusCodeRepresentation.BAD_REQUEST);
+				r.setHeader("Sec-WebSocket-Version", "13");
+				respond(socket, CompletableFuture.completedFuture(r), context.getRoute(), headers, context.getRoute(),
+						start);
+				return;
+			}
+
+			OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+			output.write(("HTTP/1.1 " + HttpStatusCodeRepresentation.SWITCHING_PROTOCOLS + "\r\n"
+					+ "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+					+ WebSocket.createAcceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+			record(context.getRoute(), HttpStatusCodeRepresentation.SWITCHING_PROTOCOLS, start);
+
+			webSocket = new WebSocket(socket, input, output, args);
+			mOpenWebSockets.add(webSocket);
+			handler.onOpen(context.getSystem(), webSocket);
+			String message;
+			while ((message = webSocket.receive()) != null)
+				handler.onMessage(context.getSystem(), webSocket, message);
+		} catch (Exception e) {
+			getLogger().e(LOG_TAG, "There was an error handling a WebSocket: " + e.toString());
+			if (webSocket != null)
+				webSocket.close(WebSocket.CLOSE_INTERNAL_ERROR, "");
+		} finally {
+			closeQuietly(socket);
+			if (webSocket != null) {
+				mOpenWebSockets.remove(webSocket);
+				webSocket.closed();
+				try {
+					handler.onClose(context.getSystem(), webSocket);
+				} catch (Exception e) {
+					getLogger().e(LOG_TAG, "There was an error handling a WebSocket: " + e.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the body of a POST request can be read.
+	 *
+	 * @param headers
+	 *            The request headers.
+	 * @return {@code null} if the body can be read, else the
+	 *         {@link ServerContextResult} to respond with.
+	 */
+	private ServerContextResult checkBody(Map<String, String> headers) {
+		if (headers.containsKey("Transfer-Encoding") || !headers.containsKey("Content-Length"))
+			return new ServerContextResult("ERROR: LENGTH REQUIRED", HttpStatusCodeRepresentation.LENGTH_REQUIRED);
+		long length;
+		try {
+			length = Long.parseLong(headers.get("Content-Length"));
+		} catch (NumberFormatException e) {
+			length = -1;
+		}
+		if (length < 0)
+			return new ServerContextResult("ERROR: MALFORMED REQUEST DATA", HttpStatusCodeRepresentation.BAD_REQUEST);
+		if (length > mMaxRequestBodyLength)
+			return new ServerContextResult("ERROR: REQUEST BODY TOO LARGE",
+					HttpStatusCodeRepresentation.PAYLOAD_TOO_LARGE);
+		return null;
+	}
+
+	/**
+	 * Reads the body of a request checked by {@link #checkBody(Map)}.
+	 *
+	 * @param socket
+	 *            The client socket.
+	 * @param input
+	 *            The stream positioned after the request head.
+	 * @param headers
+	 *            The request headers.
+	 * @return The body.
+	 * @throws IOException
+	 *             When the body can not be read completely.
+	 */
+	private byte[] readBody(Socket socket, InputStream input, Map<String, String> headers) throws IOException {
+		if ("100-continue".equalsIgnoreCase(headers.get("Expect"))) {
+			OutputStream output = socket.getOutputStream();
+			output.write(("HTTP/1.1 " + HttpStatusCodeRepresentation.CONTINUE + "\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+		}
+		byte[] body = new byte[Integer.parseInt(headers.get("Content-Length"))];
+		int offset = 0;
+		while (offset < body.length) {
+			int read = input.read(body, offset, body.length - offset);
+			if (read < 0)
+				throw new IOException("Request body incomplete.");
+			offset += read;
+		}
+		return body;
+	}
+
+	/**
+	 * Reads a line of the request head.
+	 *
+	 * @param input
+	 *            The stream to read from.
+	 * @return The line without line terminator or {@code null} at the end of
+	 *         the stream.
+	 * @throws IOException
+	 *             When the line can not be read or is too long.
+	 */
+	private String readLine(InputStream input) throws IOException {
+		byte[] buffer = new byte[256];
+		int length = 0;
+		int b;
+		while ((b = input.read()) != '\n') {
+			if (b < 0) {
+				if (length == 0)
+					return null;
+				break;
+			}
+			if (length == buffer.length) {
+				if (length >= MAX_HEADER_LINE_LENGTH)
+					throw new IOException("Request header line too long.");
+				buffer = Arrays.copyOf(buffer, length * 2);
+			}
+			buffer[length++] = (byte) b;
+		}
+		if (length > 0 && buffer[length - 1] == '\r')
+			length--;
+		return new String(buffer, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Passes a request to the {@link ServerContextHandler} of a
+	 * {@link ServerContext}.
+	 *
+	 * @param context
+	 *            The {@link ServerContext}.
+	 * @param request
+	 *            The {@link ServerRequest}.
+	 * @return The future of the {@link ServerContextResult}. Completes
+	 *         exceptionally when the handler failed.
+	 */
+	private CompletableFuture<ServerContextResult> dispatch(ServerContext context, ServerRequest request) {
+		ServerContextHandler handler = context.getContextHandler();
+		try {
+			if (handler instanceof AsyncServerContextHandler) {
+				CompletableFuture<ServerContextResult> future = ((AsyncServerContextHandler) handler)
+						.handleAsync(context.getSystem(), request.getArguments());
+				if (future != null)
+					return future;
+				throw new NullPointerException("handleAsync returned null");
+			}
+			if (handler instanceof RequestServerContextHandler)
+				return CompletableFuture.completedFuture(
+						((RequestServerContextHandler) handler).handleRequest(context.getSystem(), request));
+			return CompletableFuture.completedFuture(handler.handle(context.getSystem(), request.getArguments()));
+		} catch (Exception e) {
+			CompletableFuture<ServerContextResult> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
+	/**
+	 * Writes a completed result to the client and closes the socket.
+	 *
+	 * @param socket
+	 *            The client socket.
+	 * @param result
+	 *            The completed future of the {@link ServerContextResult}.
+	 * @param path
+	 *            The requested path.
+	 * @param headers
+	 *            The request headers.
+	 * @param metricsRoute
+	 *            The route the request is counted for.
+	 * @param start
+	 *            The value of {@link System#nanoTime()} when the request was
+	 *            received.
+	 */
+	private void respond(Socket socket, CompletableFuture<ServerContextResult> result, String path,
+			Map<String, String> headers, String metricsRoute, long start) {
+		OutputStream output = null;
+		String status = HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR;
+		try {
+			ServerContextResult r = null;
+			Throwable error = null;
+			try {
+				r = result.getNow(null);
+			} catch (CompletionException e) {
+				error = e.getCause();
+			} catch (CancellationException e) {
+				error = e;
+			}
+			if (r == null) {
+				getLogger().e(LOG_TAG, "There was an error handling a request: " + String.valueOf(error));
+				r = new ServerContextResult("ERROR: INTERNAL SERVER ERROR",
+						HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR);
+			}
+			r = evaluateConditions(r, headers);
+			status = r.getStatusCode();
+
+			// Output stream that we send the response to
+			output = new BufferedOutputStream(socket.getOutputStream());
+
+			byte[] data = r.getBody();
+
+			// Compress if the client accepts it and it is worth it.
+			boolean compressible = r.isCompressible() && mCompressionThreshold >= 0
+					&& (r.isStreamed() || data.length >= mCompressionThreshold);
+			String encoding = compressible ? ResponseCompressor.negotiate(headers.get("Accept-Encoding")) : null;
+			String cacheKey = r.getEntityTag() != null ? path + ' ' + r.getEntityTag() : null;
+			boolean streamed = r.isStreamed();
+			if (encoding != null && !streamed) {
+				data = mCompressor.compress(data, encoding, cacheKey);
+			} else if (encoding != null) {
+				byte[] cached = mCompressor.getCached(encoding, cacheKey);
+				if (cached != null) {
+					data = cached;
+					streamed = false;
 				}
 			}
 
-			byte[] data = result.getResponse().getBytes(StandardCharsets.UTF_8);
 			// Send out the content.
-			output.println("HTTP/1.0 " + result.getStatusCode());
-			output.println("Content-Type: " + result.getContentType());
-			output.println("Content-Length: " + data.length);
-			output.println("Access-Control-Allow-Origin: *");
-			output.println();
-			output.write(data);
+			StringBuilder header = new StringBuilder(128);
+			header.append("HTTP/1.0 ").append(r.getStatusCode()).append("\r\n");
+			header.append("Content-Type: ").append(r.getContentType()).append("\r\n");
+			if (r.getFile() != null)
+				header.append("Content-Length: ").append(r.getFileLength()).append("\r\nAccept-Ranges: bytes\r\n");
+			else if (!streamed && !r.getStatusCode().equals(HttpStatusCodeRepresentation.NOT_MODIFIED))
+				header.append("Content-Length: ").append(data.length).append("\r\n");
+			if (encoding != null)
+				header.append("Content-Encoding: ").append(encoding).append("\r\n");
+			if (compressible)
+				header.append("Vary: Accept-Encoding\r\n");
+			if (r.getEntityTag() != null)
+				header.append("ETag: \"").append(r.getEntityTag()).append("\"\r\n");
+			for (Map.Entry<String, String> h : r.getHeaders().entrySet())
+				header.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+			header.append("Access-Control-Allow-Origin: *\r\n\r\n");
+			output.write(header.toString().getBytes(StandardCharsets.UTF_8));
+			if (r.getFile() != null) {
+				output.flush();
+				transfer(r.getFile(), r.getFileOffset(), r.getFileLength(), socket.getOutputStream());
+			} else if (streamed) {
+				output.flush();
+				if (encoding != null) {
+					CapturingOutputStream capture = cacheKey != null ? mCompressor.capture(output, encoding, cacheKey)
+							: null;
+					DeflaterOutputStream compressing = ResponseCompressor.wrap(capture != null ? capture : output,
+							encoding, true);
+					r.getStreamer().stream(compressing);
+					compressing.finish();
+					if (capture != null)
+						capture.commit();
+				} else {
+					r.getStreamer().stream(output);
+				}
+			} else {
+				output.write(data);
+			}
 			output.flush();
 		} catch (Exception e) {
 			getLogger().e(LOG_TAG, "There was an error handling a request: " + e.toString());
 		} finally {
-			if (null != output) {
-				output.close();
+			closeQuietly(socket);
+			record(metricsRoute, status, start);
+		}
+	}
+
+	/**
+	 * Counts a response in the request metrics of its route.
+	 *
+	 * @param route
+	 *            The route of the {@link ServerContext}.
+	 * @param status
+	 *            The status code representation sent.
+	 * @param start
+	 *            The value of {@link System#nanoTime()} when the request was
+	 *            received.
+	 */
+	private void record(String route, String status, long start) {
+		int space = status.indexOf(' ');
+		mMetrics.counter("acis_http_requests_total", "Responses sent, by route and status code.", "route", route,
+				"status", space == -1 ? status : status.substring(0, space)).inc();
+		mMetrics.histogram("acis_http_request_duration_seconds",
+				"Time from reading the request to the end of the response, by route.",
+				Metrics.DEFAULT_DURATION_BUCKETS, "route", route).observeSince(start);
+	}
+
+	/**
+	 * Answers conditional requests ('If-None-Match') and 'Range'-requests for
+	 * a successful result. Only file results are split into ranges; a
+	 * malformed or unsupported 'Range' header (e.g. multiple ranges) is
+	 * ignored and the whole file is sent.
+	 *
+	 * @param r
+	 *            The result of the handler.
+	 * @param headers
+	 *            The request headers.
+	 * @return The result to send: {@code r}, &quot;304 Not Modified&quot;,
+	 *         the requested part of the file or &quot;416 Range Not
+	 *         Satisfiable&quot;.
+	 */
+	private ServerContextResult evaluateConditions(ServerContextResult r, Map<String, String> headers) {
+		if (!r.getStatusCode().equals(HttpStatusCodeRepresentation.OK))
+			return r;
+		String entityTag = r.getEntityTag();
+		if (entityTag != null && matchesEntityTag(headers.get("If-None-Match"), entityTag)) {
+			ServerContextResult notModified = new ServerContextResult("", HttpStatusCodeRepresentation.NOT_MODIFIED);
+			notModified.setEntityTag(entityTag);
+			return notModified;
+		}
+
+		String range = headers.get("Range");
+		if (r.getFile() == null || range == null)
+			return r;
+		// a changed file is sent as a whole
+		String ifRange = headers.get("If-Range");
+		if (ifRange != null && (entityTag == null || !ifRange.equals('"' + entityTag + '"')))
+			return r;
+		long size = r.getFileSize();
+		long[] part = parseRange(range, size);
+		if (part == null)
+			return r;
+		ServerContextResult partial;
+		if (part.length == 0) {
+			partial = new ServerContextResult("ERROR: RANGE NOT SATISFIABLE",
+					HttpStatusCodeRepresentation.RANGE_NOT_SATISFIABLE);
+			partial.setHeader("Content-Range", "bytes */" + size);
+		} else {
+			partial = ServerContextResult.file(r.getFile(), part[0], part[1], size, r.getContentType());
+		}
+		for (Map.Entry<String, String> h : r.getHeaders().entrySet()) {
+			if (!partial.getHeaders().containsKey(h.getKey()))
+				partial.setHeader(h.getKey(), h.getValue());
+		}
+		partial.setEntityTag(entityTag);
+		return partial;
+	}
+
+	/**
+	 * Returns whether an 'If-None-Match' header matches an entity tag. Weak
+	 * tags are compared like strong ones.
+	 *
+	 * @param ifNoneMatch
+	 *            The header value. May be {@code null}.
+	 * @param entityTag
+	 *            The entity tag without quotes.
+	 * @return {@code true} if the client has the current body.
+	 */
+	private static boolean matchesEntityTag(String ifNoneMatch, String entityTag) {
+		if (ifNoneMatch == null)
+			return false;
+		String quoted = '"' + entityTag + '"';
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(quoted))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a 'Range' header with a single byte range.
+	 *
+	 * @param range
+	 *            The header value.
+	 * @param size
+	 *            The size of the file.
+	 * @return The offset and length of the part, an empty array if the range
+	 *         is not satisfiable or {@code null} if the header is not
+	 *         supported.
+	 */
+	private static long[] parseRange(String range, long size) {
+		if (!range.startsWith("bytes=") || range.indexOf(',') != -1)
+			return null;
+		String spec = range.substring(6);
+		int dash = spec.indexOf('-');
+		if (dash == -1)
+			return null;
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		long start;
+		long end;
+		try {
+			if (first.isEmpty()) {
+				// the last bytes of the file
+				start = Math.max(0, size - Long.parseLong(last));
+				end = size - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				if (end < start)
+					return null;
+				end = Math.min(end, size - 1);
 			}
-			if (null != reader) {
-				try {
-					reader.close();
-				} catch (Exception ignored) {
-				}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (start < 0 || start >= size || end < start)
+			return new long[0];
+		return new long[] { start, end - start + 1 };
+	}
+
+	/**
+	 * Copies a part of a file to the client with
+	 * {@link FileChannel#transferTo}, without reading it into memory.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param offset
+	 *            The position of the first byte.
+	 * @param length
+	 *            The number of bytes.
+	 * @param output
+	 *            The unbuffered stream to the client.
+	 * @throws IOException
+	 *             When the file can not be read or became shorter.
+	 */
+	private static void transfer(File file, long offset, long length, OutputStream output) throws IOException {
+		try (FileInputStream input = new FileInputStream(file)) {
+			FileChannel channel = input.getChannel();
+			WritableByteChannel target = Channels.newChannel(output);
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				long sent = channel.transferTo(position, end - position, target);
+				if (sent <= 0)
+					throw new EOFException("The file became shorter while it was sent.");
+				position += sent;
 			}
 		}
 	}
 
+	/**
+	 * Closes a socket and ignores any errors.
+	 * 
+	 * @param socket
+	 *            The socket to close.
+	 */
+	private void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+
 	/**
 	 * Adds a {@link User} to the system.
 	 * 
@@ -420,13 +1184,16 @@ public class Server extends Loggable implements Runnable {
 	 *            The session Id.
 	 * @param path
 	 *            The server path to check for.
+	 * @param route
+	 *            The route of the {@link ServerContext} handling {@code path}.
+	 *            Differs from {@code path} for prefix routes.
 	 * @return {@code true} when the {@link User} is restricted, else
 	 *         {@code false}.
 	 */
-	private boolean isUserRestricted(String sid, String path) {
+	private boolean isUserRestricted(String sid, String path, String route) {
 		if (isSessionGenuine(sid)) {
 			for (String p : getUser(getSession(sid).getUsername()).getRestrictedPaths()) {
-				if (p.equals(path))
+				if (p.equals(path) || p.equals(route))
 					return true;
 			}
 		} else {
@@ -541,49 +1308,6 @@ public class Server extends Loggable implements Runnable {
 		return null;
 	}
 
-	/**
-	 * Parses the arguments of the given {@code url}.
-	 *
-	 * @param query
-	 *            The query part of the url.
-	 * @return A Map with the GET arguments.
-	 */
-	private Map<String, String> parseGETArguments(String query) {
-		Map<String, String> result = new HashMap<String, String>(0);
-		try {
-			for (String param : query.split("&")) {
-				String pair[] = param.split("=");
-				if (pair.length > 1) {
-					result.put(java.net.URLDecoder.decode(pair[0], "UTF-8"),
-							java.net.URLDecoder.decode(pair[1], "UTF-8"));
-				} else {
-					result.put(java.net.URLDecoder.decode(pair[0], "UTF-8"), "");
-				}
-			}
-		} catch (UnsupportedEncodingException e) {
-			getLogger().e(LOG_TAG, "There was an error parsing the request GET arguments: " + e.toString());
-		}
-
-		return result;
-	}
-
-	/**
-	 * Gets the {@link ServerContext} for a specific route.
-	 * 
-	 * @param route
-	 *            The route of the {@link ServerContext} to search (without
-	 *            query).
-	 * @return The {@link ServerContext} for the route. {@code null} if there is
-	 *         no such {@link ServerContext}.
-	 */
-	private ServerContext getContextByRoute(String route) {
-		for (ServerContext c : mServerContexts) {
-			if (c.getRoute().equals(route))
-				return c;
-		}
-		return null;
-	}
-
 	/**
 	 * Checks whether a String is {@code null} or empty ("").
 	 * 
@@ -600,11 +1324,21 @@ public class Server extends Loggable implements Runnable {
 	 *
 	 */
 	public final static class HttpStatusCodeRepresentation {
+		public static final String CONTINUE = "100 Continue";
+		public static final String SWITCHING_PROTOCOLS = "101 Switching Protocols";
 		public static final String OK = "200 OK";
+		public static final String PARTIAL_CONTENT = "206 Partial Content";
+		public static final String NOT_MODIFIED = "304 Not Modified";
 		public static final String BAD_REQUEST = "400 Bad Request";
 		public static final String UNAUTHORIZED = "401 Unauthorized";
 		public static final String FORBIDDEN = "403 Forbidden";
 		public static final String NOT_FOUND = "404 Not Found";
+		public static final String METHOD_NOT_ALLOWED = "405 Method Not Allowed";
+		public static final String LENGTH_REQUIRED = "411 Length Required";
+		public static final String PAYLOAD_TOO_LARGE = "413 Payload Too Large";
+		public static final String RANGE_NOT_SATISFIABLE = "416 Range Not Satisfiable";
+		public static final String UPGRADE_REQUIRED = "426 Upgrade Required";
+		public static final String TOO_MANY_REQUESTS = "429 Too Many Requests";
 		public static final String INTERNAL_SERVER_ERROR = "500 Internal Server Error";
 	}
 }
\ No newline at end of file
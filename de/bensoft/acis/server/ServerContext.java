@@ -4,7 +4,16 @@
  */
 package de.bensoft.acis.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import de.bensoft.acis.core.ACIS;
 
@@ -18,6 +27,8 @@ public class ServerContext {
 	private final ACIS mACIS;
 	private final ServerContextHandler mContextHandler;
 	private final boolean mRequiresAuthentication;
+	private volatile double mRateLimit;
+	private volatile int mRateLimitBurst;
 
 	/**
 	 * Constructor for a ServerContext.
@@ -74,6 +85,48 @@ public class ServerContext {
 		return mRequiresAuthentication;
 	}
 
+	/**
+	 * Limits the rate of requests to this context. Every {@link User} and
+	 * every {@link Session} gets its own token bucket; without
+	 * authentication the address of the client is used instead. Requests
+	 * over the limit are answered with &quot;ERROR: TOO MANY REQUESTS&quot;
+	 * (429) and a 'Retry-After' header before the handler is called.
+	 * 
+	 * @param requestsPerSecond
+	 *            The sustained number of requests per second. 0 removes the
+	 *            limit.
+	 * @param burst
+	 *            The number of requests allowed at once.
+	 * @throws IllegalArgumentException
+	 *             When {@code requestsPerSecond} is negative or {@code burst}
+	 *             is less than 1.
+	 */
+	public void setRateLimit(double requestsPerSecond, int burst) throws IllegalArgumentException {
+		if (requestsPerSecond < 0 || burst < 1)
+			throw new IllegalArgumentException("Invalid rate limit.");
+		mRateLimitBurst = burst;
+		mRateLimit = requestsPerSecond;
+	}
+
+	/**
+	 * Returns the sustained number of requests per second allowed per
+	 * {@link User}, {@link Session} or client address.
+	 * 
+	 * @return The rate limit or 0 if the rate is not limited.
+	 */
+	public double getRateLimit() {
+		return mRateLimit;
+	}
+
+	/**
+	 * Returns the number of requests allowed at once.
+	 * 
+	 * @return The burst size.
+	 */
+	public int getRateLimitBurst() {
+		return mRateLimitBurst;
+	}
+
 	/**
 	 * Represents a handler for a {@link ServerContext}.
 	 *
@@ -93,19 +146,327 @@ public class ServerContext {
 		 *             When there is some kind of error during handling.
 		 */
 		public ServerContextResult handle(ACIS system, Map<String, String> arguments) throws Exception;
+
+		/**
+		 * Called when the {@link Server} is stopped gracefully (see
+		 * {@link Server#stop(long)}), after it stopped accepting connections.
+		 * Requests still waiting for this handler, e.g. for the input of a
+		 * user, should be completed now, because the {@link Server} only waits
+		 * for them until its timeout.<br>
+		 * By default this does nothing.
+		 */
+		public default void onServerStop() {
+		}
+	}
+
+	/**
+	 * Represents a handler for a {@link ServerContext} which delivers its
+	 * result asynchronously.<br>
+	 * The {@link Server} does not wait for the result: the response is written
+	 * to the client as soon as the returned future completes. A future
+	 * completing exceptionally results in &quot;ERROR: INTERNAL SERVER
+	 * ERROR&quot; (500).
+	 *
+	 */
+	public static abstract interface AsyncServerContextHandler extends ServerContextHandler {
+
+		/**
+		 * The method to process data asynchronously.
+		 * 
+		 * @param system
+		 *            The {@link de.bensoft.acis.core.ACIS} system to use.
+		 * @param arguments
+		 *            The query arguments.
+		 * @return A future completing with the
+		 *         {@link ServerContext.ServerContextResult} containing the
+		 *         execution result.
+		 * @throws Exception
+		 *             When there is some kind of error during handling.
+		 */
+		public CompletableFuture<ServerContextResult> handleAsync(ACIS system, Map<String, String> arguments)
+				throws Exception;
+
+		/**
+		 * Blocks until the result of
+		 * {@link #handleAsync(ACIS, Map)} is available.
+		 */
+		@Override
+		public default ServerContextResult handle(ACIS system, Map<String, String> arguments) throws Exception {
+			return handleAsync(system, arguments).get();
+		}
+	}
+
+	/**
+	 * Represents a handler for a {@link ServerContext} which needs the whole
+	 * request instead of the query arguments only, e.g. to read the body of a
+	 * POST request.<br>
+	 * Only contexts with such a handler accept POST requests; all other
+	 * contexts answer them with &quot;ERROR: METHOD NOT ALLOWED&quot; (405).
+	 *
+	 */
+	public static abstract interface RequestServerContextHandler extends ServerContextHandler {
+
+		/**
+		 * The method to process a request.
+		 * 
+		 * @param system
+		 *            The {@link de.bensoft.acis.core.ACIS} system to use.
+		 * @param request
+		 *            The {@link ServerContext.ServerRequest}.
+		 * @return A {@link ServerContext.ServerContextResult} containing the
+		 *         execution result.
+		 * @throws Exception
+		 *             When there is some kind of error during handling.
+		 */
+		public ServerContextResult handleRequest(ACIS system, ServerRequest request) throws Exception;
+
+		/**
+		 * Handles the arguments as a GET request without headers.
+		 */
+		@Override
+		public default ServerContextResult handle(ACIS system, Map<String, String> arguments) throws Exception {
+			return handleRequest(system, new ServerRequest("GET", "", arguments,
+					Collections.<String, String> emptyMap(), new byte[0]));
+		}
+	}
+
+	/**
+	 * Represents a handler for a {@link ServerContext} which keeps a
+	 * {@link WebSocket} connection to the client.<br>
+	 * The client opens the connection with a WebSocket upgrade request to the
+	 * route of the context. Authentication (the 'key' argument) is checked once
+	 * at the upgrade, afterwards all messages of the connection are passed to
+	 * the handler without further checks. The callbacks of one connection are
+	 * called one after another on the thread reading from the client;
+	 * {@link WebSocket#send(String)} may be called from any thread.<br>
+	 * Requests without upgrade are answered with &quot;ERROR: WEBSOCKET UPGRADE
+	 * REQUIRED&quot; (426).
+	 *
+	 */
+	public static abstract interface WebSocketServerContextHandler extends ServerContextHandler {
+
+		/**
+		 * Called when a client connected.
+		 *
+		 * @param system
+		 *            The {@link de.bensoft.acis.core.ACIS} system to use.
+		 * @param socket
+		 *            The new connection. Its
+		 *            {@link WebSocket#getArguments()} are the query arguments
+		 *            of the upgrade request.
+		 * @throws Exception
+		 *             When there is some kind of error. The connection is
+		 *             closed.
+		 */
+		public void onOpen(ACIS system, WebSocket socket) throws Exception;
+
+		/**
+		 * Called for every text message received from the client.
+		 *
+		 * @param system
+		 *            The {@link de.bensoft.acis.core.ACIS} system to use.
+		 * @param socket
+		 *            The connection the message was received on.
+		 * @param message
+		 *            The message.
+		 * @throws Exception
+		 *             When there is some kind of error. The connection is
+		 *             closed.
+		 */
+		public void onMessage(ACIS system, WebSocket socket, String message) throws Exception;
+
+		/**
+		 * Called once when the connection is closed, no matter by which side.
+		 *
+		 * @param system
+		 *            The {@link de.bensoft.acis.core.ACIS} system to use.
+		 * @param socket
+		 *            The closed connection.
+		 */
+		public void onClose(ACIS system, WebSocket socket);
+
+		/**
+		 * Answers plain requests to the context.
+		 */
+		@Override
+		public default ServerContextResult handle(ACIS system, Map<String, String> arguments) throws Exception {
+			ServerContextResult result = new ServerContextResult("ERROR: WEBSOCKET UPGRADE REQUIRED",
+					Server.HttpStatusCodeRepresentation.UPGRADE_REQUIRED);
+			result.setHeader("Upgrade", "websocket");
+			return result;
+		}
+	}
+
+	/**
+	 * Writes the body of a streamed {@link ServerContextResult} directly to the
+	 * client.
+	 *
+	 */
+	public static abstract interface ResponseStreamer {
+
+		/**
+		 * Writes the response body. The connection is closed when this method
+		 * returns, which marks the end of the body. The output should be flushed
+		 * whenever the client is supposed to see the data written so far.
+		 * 
+		 * @param output
+		 *            The stream to the client.
+		 * @throws IOException
+		 *             When the client can not be written to (e.g. because it
+		 *             disconnected).
+		 */
+		public void stream(OutputStream output) throws IOException;
+	}
+
+	/**
+	 * Writes the body of a {@link ServerContextResult} as XML.
+	 *
+	 * @see ServerContextResult#xml(XmlResponseBody, String)
+	 */
+	public static abstract interface XmlResponseBody {
+
+		/**
+		 * Writes the document. Open elements are ended afterwards.
+		 * 
+		 * @param xml
+		 *            The {@link XmlWriter} writing to the client.
+		 * @throws IOException
+		 *             When the client can not be written to.
+		 */
+		public void write(XmlWriter xml) throws IOException;
+	}
+
+	/**
+	 * Writes the body of a {@link ServerContextResult} as JSON.
+	 *
+	 * @see ServerContextResult#json(JsonResponseBody, String)
+	 */
+	public static abstract interface JsonResponseBody {
+
+		/**
+		 * Writes the document.
+		 * 
+		 * @param json
+		 *            The {@link JsonWriter} writing to the client.
+		 * @throws IOException
+		 *             When the client can not be written to.
+		 */
+		public void write(JsonWriter json) throws IOException;
+	}
+
+	/**
+	 * Represents a request to a {@link ServerContext}.<br>
+	 * Header names are case-insensitive.
+	 *
+	 */
+	public static class ServerRequest {
+		private final String mMethod;
+		private final String mPath;
+		private final Map<String, String> mArguments;
+		private final Map<String, String> mHeaders;
+		private final byte[] mBody;
+
+		/**
+		 * Constructor for a ServerRequest.
+		 * 
+		 * @param method
+		 *            The HTTP method, e.g. &quot;GET&quot;.
+		 * @param path
+		 *            The requested path without the query.
+		 * @param arguments
+		 *            The query arguments.
+		 * @param headers
+		 *            The request headers.
+		 * @param body
+		 *            The request body. Empty if there is none.
+		 */
+		public ServerRequest(String method, String path, Map<String, String> arguments, Map<String, String> headers,
+				byte[] body) {
+			mMethod = method;
+			mPath = path;
+			mArguments = arguments;
+			mHeaders = headers;
+			mBody = body;
+		}
+
+		/**
+		 * Returns the HTTP method.
+		 * 
+		 * @return The method, e.g. &quot;GET&quot; or &quot;POST&quot;.
+		 */
+		public String getMethod() {
+			return mMethod;
+		}
+
+		/**
+		 * Returns the requested path.
+		 * 
+		 * @return The path without the query.
+		 */
+		public String getPath() {
+			return mPath;
+		}
+
+		/**
+		 * Returns the query arguments.
+		 * 
+		 * @return A Map with the arguments.
+		 */
+		public Map<String, String> getArguments() {
+			return mArguments;
+		}
+
+		/**
+		 * Returns the request headers.
+		 * 
+		 * @return A Map from header name to value.
+		 */
+		public Map<String, String> getHeaders() {
+			return mHeaders;
+		}
+
+		/**
+		 * Returns the request body.
+		 * 
+		 * @return The body. Empty if there is none.
+		 */
+		public byte[] getBody() {
+			return mBody;
+		}
+
+		/**
+		 * Returns the request body as text.
+		 * 
+		 * @return The body decoded as UTF-8.
+		 */
+		public String getBodyAsString() {
+			return new String(mBody, StandardCharsets.UTF_8);
+		}
 	}
 
 	/**
 	 * Represents a result of a handle event in the {@link Server}.<br>
 	 * It consists of a response String, a status code and a content type.<br>
 	 * {@link #getContentType()} returns \"text/plain; charset=utf-8\" by
-	 * default.
+	 * default.<br>
+	 * A streamed result has a {@link ResponseStreamer} instead of a response
+	 * String. Its body has no length known in advance and ends when the
+	 * connection is closed.
 	 *
 	 */
 	public static class ServerContextResult {
 		private String mResponse;
+		private byte[] mBody;
+		private ResponseStreamer mStreamer;
 		private String mStatusCodeRepresentation;
 		private String mContentType = "text/plain; charset=utf-8";
+		private Map<String, String> mHeaders = new LinkedHashMap<>(0);
+		private Boolean mCompressible;
+		private String mEntityTag;
+		private File mFile;
+		private long mFileOffset;
+		private long mFileLength;
+		private long mFileSize;
 
 		/**
 		 * Constructor using a HTTP status code and a response text.
@@ -120,6 +481,189 @@ public class ServerContext {
 			mStatusCodeRepresentation = statusCode;
 		}
 
+		/**
+		 * Constructor using a HTTP status code and a prepared response body,
+		 * e.g. a cached document. The array is sent as it is and must not be
+		 * changed afterwards.
+		 * 
+		 * @param body
+		 *            The response body.
+		 * @param statusCode
+		 *            The response HTTP status code.
+		 */
+		public ServerContextResult(byte[] body, String statusCode) {
+			mResponse = "";
+			mBody = body;
+			mStatusCodeRepresentation = statusCode;
+		}
+
+		/**
+		 * Constructor for a streamed result using a HTTP status code and a
+		 * {@link ResponseStreamer}.<br>
+		 * The streamer is called on the thread that writes the response, after
+		 * the headers have been sent.
+		 * 
+		 * @param streamer
+		 *            The {@link ResponseStreamer} writing the body.
+		 * @param statusCode
+		 *            The response HTTP status code.
+		 */
+		public ServerContextResult(ResponseStreamer streamer, String statusCode) {
+			mResponse = "";
+			mStreamer = streamer;
+			mStatusCodeRepresentation = statusCode;
+		}
+
+		/**
+		 * Creates a streamed result writing an XML document directly to the
+		 * client (content type &quot;text/xml; charset=utf-8&quot;). Nothing is
+		 * built in memory; the body is written when the response is sent.
+		 * The result is {@link #isCompressible() compressible}.
+		 * 
+		 * @param body
+		 *            The {@link XmlResponseBody} writing the document.
+		 * @param statusCode
+		 *            The response HTTP status code.
+		 * @return The {@link ServerContextResult}.
+		 */
+		public static ServerContextResult xml(final XmlResponseBody body, String statusCode) {
+			ServerContextResult result = new ServerContextResult(new ResponseStreamer() {
+
+				@Override
+				public void stream(OutputStream output) throws IOException {
+					Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+					XmlWriter xml = new XmlWriter(writer);
+					body.write(xml);
+					xml.endAll();
+					writer.flush();
+				}
+			}, statusCode);
+			result.setContentType("text/xml; charset=utf-8");
+			result.setCompressible(true);
+			return result;
+		}
+
+		/**
+		 * Creates a streamed result writing a JSON document directly to the
+		 * client (content type &quot;application/json; charset=utf-8&quot;).
+		 * Nothing is built in memory; the body is written when the response is
+		 * sent. The result is {@link #isCompressible() compressible}.
+		 * 
+		 * @param body
+		 *            The {@link JsonResponseBody} writing the document.
+		 * @param statusCode
+		 *            The response HTTP status code.
+		 * @return The {@link ServerContextResult}.
+		 */
+		public static ServerContextResult json(final JsonResponseBody body, String statusCode) {
+			ServerContextResult result = new ServerContextResult(new ResponseStreamer() {
+
+				@Override
+				public void stream(OutputStream output) throws IOException {
+					Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+					body.write(new JsonWriter(writer));
+					writer.flush();
+				}
+			}, statusCode);
+			result.setContentType("application/json; charset=utf-8");
+			result.setCompressible(true);
+			return result;
+		}
+
+		/**
+		 * Creates a result sending a whole file as it is. The file is copied
+		 * to the client by {@link java.nio.channels.FileChannel#transferTo},
+		 * it is never read into memory. The {@link Server} answers
+		 * 'Range'-requests for the file by itself (&quot;206 Partial
+		 * Content&quot;). File results are never compressed.
+		 * 
+		 * @param file
+		 *            The file to send.
+		 * @param contentType
+		 *            The content type of the file.
+		 * @return The {@link ServerContextResult}.
+		 */
+		public static ServerContextResult file(File file, String contentType) {
+			long size = file.length();
+			return file(file, 0, size, size, contentType);
+		}
+
+		/**
+		 * Creates a result sending a part of a file as it is, e.g. the end of
+		 * a log. A part smaller than the file is sent as &quot;206 Partial
+		 * Content&quot; with a 'Content-Range' header, so the client knows
+		 * where to continue.
+		 * 
+		 * @param file
+		 *            The file to send.
+		 * @param offset
+		 *            The position of the first byte to send.
+		 * @param length
+		 *            The number of bytes to send.
+		 * @param contentType
+		 *            The content type of the file.
+		 * @return The {@link ServerContextResult}.
+		 * @throws IllegalArgumentException
+		 *             When the part is empty or not within the file.
+		 */
+		public static ServerContextResult file(File file, long offset, long length, String contentType)
+				throws IllegalArgumentException {
+			return file(file, offset, length, file.length(), contentType);
+		}
+
+		static ServerContextResult file(File file, long offset, long length, long size, String contentType)
+				throws IllegalArgumentException {
+			if (offset < 0 || length < 0 || offset + length > size || (length == 0 && size > 0))
+				throw new IllegalArgumentException("The part is not within the file.");
+			boolean partial = length < size;
+			ServerContextResult result = new ServerContextResult("", partial
+					? Server.HttpStatusCodeRepresentation.PARTIAL_CONTENT : Server.HttpStatusCodeRepresentation.OK);
+			result.mFile = file;
+			result.mFileOffset = offset;
+			result.mFileLength = length;
+			result.mFileSize = size;
+			result.setContentType(contentType);
+			if (partial)
+				result.setHeader("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+			return result;
+		}
+
+		/**
+		 * Returns the file of a file result.
+		 * 
+		 * @return The file or {@code null} if the result does not send a file.
+		 */
+		public File getFile() {
+			return mFile;
+		}
+
+		/**
+		 * Returns the position of the first byte of the file to send.
+		 * 
+		 * @return The offset in bytes.
+		 */
+		public long getFileOffset() {
+			return mFileOffset;
+		}
+
+		/**
+		 * Returns the number of bytes of the file to send.
+		 * 
+		 * @return The length in bytes.
+		 */
+		public long getFileLength() {
+			return mFileLength;
+		}
+
+		/**
+		 * Returns the size of the file when the result was created.
+		 * 
+		 * @return The size in bytes.
+		 */
+		public long getFileSize() {
+			return mFileSize;
+		}
+
 		/**
 		 * Returns the response text.
 		 * 
@@ -129,6 +673,36 @@ public class ServerContext {
 			return mResponse;
 		}
 
+		/**
+		 * Returns the response body.
+		 * 
+		 * @return The body given to the constructor or else the UTF-8 encoded
+		 *         response text.
+		 */
+		public byte[] getBody() {
+			return mBody != null ? mBody : mResponse.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Returns the {@link ResponseStreamer} of a streamed result.
+		 * 
+		 * @return The {@link ResponseStreamer} or {@code null} if the result is
+		 *         not streamed.
+		 */
+		public ResponseStreamer getStreamer() {
+			return mStreamer;
+		}
+
+		/**
+		 * Returns whether the result is streamed.
+		 * 
+		 * @return {@code true} if the body is written by a
+		 *         {@link ResponseStreamer}, else {@code false}.
+		 */
+		public boolean isStreamed() {
+			return mStreamer != null;
+		}
+
 		/**
 		 * Returns the result status code.
 		 * 
@@ -157,5 +731,79 @@ public class ServerContext {
 		public String getContentType() {
 			return mContentType;
 		}
+
+		/**
+		 * Sets an additional HTTP-header. An existing header with the same
+		 * name is replaced.<br>
+		 * Note: 'Content-Type' and 'Content-Length' are set by the
+		 * {@link Server}.
+		 * 
+		 * @param name
+		 *            The header name without ':'.
+		 * @param value
+		 *            The header value.
+		 */
+		public void setHeader(String name, String value) {
+			mHeaders.put(name, value);
+		}
+
+		/**
+		 * Returns the additional HTTP-headers.
+		 * 
+		 * @return A Map from header name to value.
+		 */
+		public Map<String, String> getHeaders() {
+			return mHeaders;
+		}
+
+		/**
+		 * Sets whether the body may be compressed for clients accepting it.
+		 * 
+		 * @param compressible
+		 *            {@code true} to allow compression.
+		 */
+		public void setCompressible(boolean compressible) {
+			mCompressible = compressible;
+		}
+
+		/**
+		 * Returns whether the body may be compressed for clients accepting
+		 * it.<br>
+		 * By default results with a response text are compressible, streamed
+		 * results are not, because a compressing stream can delay e.g. events
+		 * the client waits for. File results are never compressible.
+		 * 
+		 * @return {@code true} if the body may be compressed, else
+		 *         {@code false}.
+		 */
+		public boolean isCompressible() {
+			if (mFile != null)
+				return false;
+			return mCompressible != null ? mCompressible : !isStreamed();
+		}
+
+		/**
+		 * Sets the entity tag identifying this exact response body (sent as
+		 * HTTP-header 'ETag'). The {@link Server} keeps the compressed body of
+		 * a result with an entity tag, so the tag has to change whenever the
+		 * body does. For a streamed result a cached compressed body is sent
+		 * without calling the {@link ResponseStreamer} at all.
+		 * 
+		 * @param entityTag
+		 *            The entity tag without quotes. {@code null} for none.
+		 */
+		public void setEntityTag(String entityTag) {
+			mEntityTag = entityTag;
+		}
+
+		/**
+		 * Returns the entity tag identifying this exact response body.
+		 * 
+		 * @return The entity tag without quotes or {@code null} if there is
+		 *         none.
+		 */
+		public String getEntityTag() {
+			return mEntityTag;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,373 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Represents a WebSocket connection (RFC 6455) to a client of the
+ * {@link Server}.<br>
+ * Only text messages are supported. Fragmented messages are reassembled, pings
+ * are answered and a close frame of the client is answered with a close frame
+ * before the connection ends.
+ *
+ */
+public class WebSocket {
+
+	/**
+	 * The GUID appended to the key of the client in the handshake.
+	 */
+	private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	private static final int OPCODE_CONTINUATION = 0x0;
+	private static final int OPCODE_TEXT = 0x1;
+	private static final int OPCODE_BINARY = 0x2;
+	private static final int OPCODE_CLOSE = 0x8;
+	private static final int OPCODE_PING = 0x9;
+	private static final int OPCODE_PONG = 0xA;
+
+	/**
+	 * Close status code for a normal closure.
+	 */
+	public static final int CLOSE_NORMAL = 1000;
+	/**
+	 * Close status code for a server going down.
+	 */
+	public static final int CLOSE_GOING_AWAY = 1001;
+	/**
+	 * Close status code for a violation of the protocol.
+	 */
+	public static final int CLOSE_PROTOCOL_ERROR = 1002;
+	/**
+	 * Close status code for a message type that is not supported.
+	 */
+	public static final int CLOSE_UNSUPPORTED_DATA = 1003;
+	/**
+	 * Close status code for a text message that is not valid UTF-8.
+	 */
+	public static final int CLOSE_INVALID_DATA = 1007;
+	/**
+	 * Close status code for a message exceeding the maximum length.
+	 */
+	public static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+	/**
+	 * Close status code for an unexpected error of the server.
+	 */
+	public static final int CLOSE_INTERNAL_ERROR = 1011;
+
+	private static final int MAX_MESSAGE_LENGTH = 1 << 20; // 1 MiB
+
+	private final Socket mSocket;
+	private final InputStream mInput;
+	private final OutputStream mOutput;
+	private final Map<String, String> mArguments;
+	private volatile boolean mCloseSent;
+	private volatile boolean mClosed;
+	private volatile Object mAttachment;
+
+	/**
+	 * Constructor for a WebSocket. The handshake has to be finished already.
+	 *
+	 * @param socket
+	 *            The client socket.
+	 * @param input
+	 *            The stream to read frames from, positioned after the upgrade
+	 *            request.
+	 * @param output
+	 *            The stream to write frames to.
+	 * @param arguments
+	 *            The query arguments of the upgrade request.
+	 */
+	WebSocket(Socket socket, InputStream input, OutputStream output, Map<String, String> arguments) {
+		mSocket = socket;
+		mInput = input;
+		mOutput = output;
+		mArguments = arguments;
+	}
+
+	/**
+	 * Computes the 'Sec-WebSocket-Accept' value for the key of a client.
+	 *
+	 * @param key
+	 *            The value of the 'Sec-WebSocket-Key' request header.
+	 * @return The value of the 'Sec-WebSocket-Accept' response header.
+	 */
+	static String createAcceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.ISO_8859_1));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the query arguments of the upgrade request.
+	 *
+	 * @return A Map with the arguments.
+	 */
+	public Map<String, String> getArguments() {
+		return mArguments;
+	}
+
+	/**
+	 * Returns the remote address of the client.
+	 *
+	 * @return The address, e.g. &quot;/192.168.0.2:50312&quot;.
+	 */
+	public String getRemoteAddress() {
+		return String.valueOf(mSocket.getRemoteSocketAddress());
+	}
+
+	/**
+	 * Returns the object attached to this connection.
+	 *
+	 * @return The attachment or {@code null} if there is none.
+	 */
+	public Object getAttachment() {
+		return mAttachment;
+	}
+
+	/**
+	 * Attaches an object to this connection, e.g. the state of the
+	 * conversation held on it.
+	 *
+	 * @param attachment
+	 *            The object to attach.
+	 */
+	public void setAttachment(Object attachment) {
+		mAttachment = attachment;
+	}
+
+	/**
+	 * Returns whether messages can still be sent.
+	 *
+	 * @return {@code false} as soon as a close frame was sent or the connection
+	 *         is gone, else {@code true}.
+	 */
+	public boolean isOpen() {
+		return !mCloseSent && !mClosed;
+	}
+
+	/**
+	 * Sends a text message to the client.
+	 *
+	 * @param message
+	 *            The message to send.
+	 * @throws IOException
+	 *             When the connection is closed or can not be written to.
+	 */
+	public void send(String message) throws IOException {
+		if (!isOpen())
+			throw new IOException("WebSocket is closed.");
+		writeFrame(OPCODE_TEXT, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Closes the connection normally. Does nothing if it is already closed.
+	 */
+	public void close() {
+		close(CLOSE_NORMAL, "");
+	}
+
+	/**
+	 * Closes the connection by sending a close frame. The client answers with
+	 * a close frame, after which the {@link Server} ends the connection. Does
+	 * nothing if it is already closed.
+	 *
+	 * @param code
+	 *            The close status code, e.g. {@link #CLOSE_NORMAL}.
+	 * @param reason
+	 *            A short reason, may be empty.
+	 */
+	public void close(int code, String reason) {
+		byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[2 + Math.min(text.length, 123)];
+		payload[0] = (byte) (code >> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(text, 0, payload, 2, payload.length - 2);
+		synchronized (this) {
+			if (mCloseSent || mClosed)
+				return;
+			try {
+				writeFrame(OPCODE_CLOSE, payload);
+			} catch (IOException e) {
+				mClosed = true;
+			}
+			mCloseSent = true;
+		}
+	}
+
+	/**
+	 * Reads the next text message, answering control frames on the way.
+	 *
+	 * @return The message or {@code null} when the connection was closed.
+	 * @throws IOException
+	 *             When the client can not be read from.
+	 */
+	String receive() throws IOException {
+		ByteArrayOutputStream message = null;
+		while (!mClosed) {
+			int b0 = mInput.read();
+			int b1 = mInput.read();
+			if (b0 < 0 || b1 < 0) {
+				mClosed = true;
+				return null;
+			}
+
+			boolean fin = (b0 & 0x80) != 0;
+			int opcode = b0 & 0x0F;
+			long length = b1 & 0x7F;
+			if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0) {
+				// reserved bits without extension or unmasked client frame
+				return fail(CLOSE_PROTOCOL_ERROR, "Protocol error");
+			}
+			if (length == 126) {
+				length = ((long) readByte() << 8) | readByte();
+			} else if (length == 127) {
+				length = 0;
+				for (int i = 0; i < 8; i++)
+					length = (length << 8) | readByte();
+			}
+
+			boolean control = (opcode & 0x08) != 0;
+			if (control && (!fin || length > 125))
+				return fail(CLOSE_PROTOCOL_ERROR, "Protocol error");
+			if (length < 0 || length + (message == null ? 0 : message.size()) > MAX_MESSAGE_LENGTH)
+				return fail(CLOSE_MESSAGE_TOO_BIG, "Message too big");
+
+			byte[] mask = new byte[4];
+			readFully(mask);
+			byte[] payload = new byte[(int) length];
+			readFully(payload);
+			for (int i = 0; i < payload.length; i++)
+				payload[i] ^= mask[i & 3];
+
+			switch (opcode) {
+			case OPCODE_CLOSE:
+				if (payload.length >= 2)
+					close(((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF), "");
+				else
+					close(CLOSE_NORMAL, "");
+				mClosed = true;
+				return null;
+			case OPCODE_PING:
+				if (isOpen())
+					writeFrame(OPCODE_PONG, payload);
+				break;
+			case OPCODE_PONG:
+				break;
+			case OPCODE_TEXT:
+				if (message != null)
+					return fail(CLOSE_PROTOCOL_ERROR, "Protocol error");
+				if (fin)
+					return decode(payload);
+				message = new ByteArrayOutputStream(payload.length * 2);
+				message.write(payload);
+				break;
+			case OPCODE_CONTINUATION:
+				if (message == null)
+					return fail(CLOSE_PROTOCOL_ERROR, "Protocol error");
+				message.write(payload);
+				if (fin)
+					return decode(message.toByteArray());
+				break;
+			case OPCODE_BINARY:
+				return fail(CLOSE_UNSUPPORTED_DATA, "Only text messages are supported");
+			default:
+				return fail(CLOSE_PROTOCOL_ERROR, "Protocol error");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the socket without waiting for the client, e.g. when it did not
+	 * answer a close frame in time.
+	 */
+	void abort() {
+		mClosed = true;
+		try {
+			mSocket.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * Marks the connection as closed after the socket is gone.
+	 */
+	void closed() {
+		mClosed = true;
+	}
+
+	private String fail(int code, String reason) {
+		close(code, reason);
+		mClosed = true;
+		return null;
+	}
+
+	private String decode(byte[] payload) throws IOException {
+		try {
+			return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(payload)).toString();
+		} catch (CharacterCodingException e) {
+			return fail(CLOSE_INVALID_DATA, "Invalid UTF-8");
+		}
+	}
+
+	private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+		byte[] header;
+		if (payload.length < 126) {
+			header = new byte[] { (byte) (0x80 | opcode), (byte) payload.length };
+		} else if (payload.length < 65536) {
+			header = new byte[] { (byte) (0x80 | opcode), 126, (byte) (payload.length >> 8), (byte) payload.length };
+		} else {
+			header = new byte[10];
+			header[0] = (byte) (0x80 | opcode);
+			header[1] = 127;
+			for (int i = 0; i < 8; i++)
+				header[9 - i] = (byte) ((long) payload.length >> (8 * i));
+		}
+		try {
+			mOutput.write(header);
+			mOutput.write(payload);
+			mOutput.flush();
+		} catch (IOException e) {
+			mClosed = true;
+			throw e;
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = mInput.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private void readFully(byte[] buffer) throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			int read = mInput.read(buffer, offset, buffer.length - offset);
+			if (read < 0)
+				throw new EOFException();
+			offset += read;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes an XML document element by element to a {@link Writer}, without
+ * building the document in memory.<br>
+ * Text and attribute values are escaped while they are written. Characters not
+ * allowed in XML 1.0 are replaced by U+FFFD. Element names are written as they
+ * are.<br>
+ * Example: {@code xml.start("response").attribute("version", "1").element("type",
+ * "RESULT").end();} writes
+ * {@code <response version="1"><type>RESULT</type></response>}.
+ *
+ */
+public class XmlWriter implements Flushable {
+
+	private final Writer mWriter;
+	private final Deque<String> mOpenElements = new ArrayDeque<>();
+	private boolean mStartTagOpen;
+
+	/**
+	 * Constructor for a XmlWriter.
+	 *
+	 * @param writer
+	 *            The {@link Writer} to write the document to.
+	 */
+	public XmlWriter(Writer writer) {
+		mWriter = writer;
+	}
+
+	/**
+	 * Writes the XML declaration for UTF-8.
+	 *
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public XmlWriter declaration() throws IOException {
+		mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		return this;
+	}
+
+	/**
+	 * Starts an element. Attributes can be added until content is written.
+	 *
+	 * @param name
+	 *            The element name.
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public XmlWriter start(String name) throws IOException {
+		closeStartTag();
+		mWriter.write('<');
+		mWriter.write(name);
+		mOpenElements.push(name);
+		mStartTagOpen = true;
+		return this;
+	}
+
+	/**
+	 * Adds an attribute to the element just started.
+	 *
+	 * @param name
+	 *            The attribute name.
+	 * @param value
+	 *            The attribute value. {@code null} is written as
+	 *            &quot;null&quot;.
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 * @throws IllegalStateException
+	 *             When content was already written to the element.
+	 */
+	public XmlWriter attribute(String name, Object value) throws IOException, IllegalStateException {
+		if (!mStartTagOpen)
+			throw new IllegalStateException("Attributes must be written directly after start().");
+		mWriter.write(' ');
+		mWriter.write(name);
+		mWriter.write("=\"");
+		escape(String.valueOf(value));
+		mWriter.write('"');
+		return this;
+	}
+
+	/**
+	 * Writes escaped text into the current element.
+	 *
+	 * @param text
+	 *            The text. {@code null} is written as &quot;null&quot;.
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public XmlWriter text(Object text) throws IOException {
+		closeStartTag();
+		escape(String.valueOf(text));
+		return this;
+	}
+
+	/**
+	 * Writes the whole content of a {@link Reader} as escaped text into the
+	 * current element. The {@link Reader} is not closed.
+	 *
+	 * @param reader
+	 *            The {@link Reader} to copy.
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When reading or writing fails.
+	 */
+	public XmlWriter text(Reader reader) throws IOException {
+		closeStartTag();
+		char[] buffer = new char[4096];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++)
+				escape(buffer[i]);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes an element with escaped text content.
+	 *
+	 * @param name
+	 *            The element name.
+	 * @param text
+	 *            The text. {@code null} is written as &quot;null&quot;.
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public XmlWriter element(String name, Object text) throws IOException {
+		return start(name).text(text).end();
+	}
+
+	/**
+	 * Ends the element started last.
+	 *
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 * @throws IllegalStateException
+	 *             When there is no open element.
+	 */
+	public XmlWriter end() throws IOException, IllegalStateException {
+		if (mOpenElements.isEmpty())
+			throw new IllegalStateException("There is no open element.");
+		String name = mOpenElements.pop();
+		if (mStartTagOpen) {
+			mWriter.write("/>");
+			mStartTagOpen = false;
+		} else {
+			mWriter.write("</");
+			mWriter.write(name);
+			mWriter.write('>');
+		}
+		return this;
+	}
+
+	/**
+	 * Ends all open elements.
+	 *
+	 * @return This XmlWriter.
+	 * @throws IOException
+	 *             When the underlying {@link Writer} fails.
+	 */
+	public XmlWriter endAll() throws IOException {
+		while (!mOpenElements.isEmpty())
+			end();
+		return this;
+	}
+
+	/**
+	 * Escapes a text for XML content or attribute values, e.g. for short
+	 * messages which are sent as one String.
+	 *
+	 * @param text
+	 *            The text. {@code null} is returned as &quot;null&quot;.
+	 * @return The escaped text.
+	 */
+	public static String escape(Object text) {
+		String s = String.valueOf(text);
+		StringWriter writer = new StringWriter(s.length() + 16);
+		try {
+			new XmlWriter(writer).escape(s);
+		} catch (IOException e) {
+			// a StringWriter does not throw
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Flushes the underlying {@link Writer}.
+	 */
+	@Override
+	public void flush() throws IOException {
+		mWriter.flush();
+	}
+
+	private void closeStartTag() throws IOException {
+		if (mStartTagOpen) {
+			mWriter.write('>');
+			mStartTagOpen = false;
+		}
+	}
+
+	private void escape(String s) throws IOException {
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '"' || c == '\'' || c > 0xFFFD) {
+				mWriter.write(s, start, i - start);
+				escape(c);
+				start = i + 1;
+			}
+		}
+		mWriter.write(s, start, s.length() - start);
+	}
+
+	private void escape(char c) throws IOException {
+		switch (c) {
+		case '<':
+			mWriter.write("&lt;");
+			break;
+		case '>':
+			mWriter.write("&gt;");
+			break;
+		case '&':
+			mWriter.write("&amp;");
+			break;
+		case '"':
+			mWriter.write("&quot;");
+			break;
+		case '\'':
+			mWriter.write("&#x27;");
+			break;
+		case '\t':
+		case '\n':
+		case '\r':
+			mWriter.write(c);
+			break;
+		default:
+			if (c < 0x20 || c > 0xFFFD)
+				mWriter.write('\uFFFD');
+			else
+				mWriter.write(c);
+		}
+	}
+}
\ No newline at end of file
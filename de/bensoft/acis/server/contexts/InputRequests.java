@@ -0,0 +1,112 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server.contexts;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The input requests of the sample handlers waiting for an answer, by request
+ * id.<br>
+ * The ids are random and not guessable, and a request can only be answered
+ * with the session key of the request it belongs to, and only once.
+ *
+ * @param <T>
+ *            The type of the waiting requests.
+ */
+class InputRequests<T> {
+
+	private static final char[] ID_ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"
+			.toCharArray();
+
+	private final ConcurrentMap<String, Entry<T>> mRequests = new ConcurrentHashMap<>();
+	private final SecureRandom mRandom = new SecureRandom();
+
+	/**
+	 * Generates the id of a request. The id and the session key are all that is
+	 * needed to answer an input request, so it must not be guessable.
+	 *
+	 * @return The id.
+	 */
+	String generateId() {
+		char[] id = new char[16];
+		for (int i = 0; i < id.length; i++)
+			id[i] = ID_ALPHABET[mRandom.nextInt(ID_ALPHABET.length)];
+		return new String(id);
+	}
+
+	/**
+	 * Registers a request waiting for input.
+	 *
+	 * @param id
+	 *            The id of the request (see {@link #generateId()}).
+	 * @param session
+	 *            The session key of the client which may answer it.
+	 * @param request
+	 *            The waiting request.
+	 */
+	void put(String id, String session, T request) {
+		mRequests.put(id, new Entry<T>(session, request));
+	}
+
+	/**
+	 * Removes a request to answer it.
+	 *
+	 * @param id
+	 *            The id of the request.
+	 * @param session
+	 *            The session key of the answering client.
+	 * @return The request or {@code null} if there is no request with this id
+	 *         belonging to the session.
+	 */
+	T take(String id, String session) {
+		Entry<T> entry = mRequests.get(id);
+		if (entry != null && entry.mSession.equals(session) && mRequests.remove(id, entry))
+			return entry.mRequest;
+		return null;
+	}
+
+	/**
+	 * Removes a request if it is still registered with an id.
+	 *
+	 * @param id
+	 *            The id of the request.
+	 * @param request
+	 *            The request.
+	 * @return {@code true} if it was removed.
+	 */
+	boolean remove(String id, T request) {
+		Entry<T> entry = mRequests.get(id);
+		return entry != null && entry.mRequest == request && mRequests.remove(id, entry);
+	}
+
+	/**
+	 * Removes all requests.
+	 *
+	 * @return The removed requests.
+	 */
+	List<T> removeAll() {
+		List<T> removed = new ArrayList<>();
+		for (String id : mRequests.keySet()) {
+			Entry<T> entry = mRequests.remove(id);
+			if (entry != null)
+				removed.add(entry.mRequest);
+		}
+		return removed;
+	}
+
+	private static class Entry<T> {
+		private final String mSession;
+		private final T mRequest;
+
+		Entry(String session, T request) {
+			mSession = session;
+			mRequest = request;
+		}
+	}
+}
\ No newline at end of file
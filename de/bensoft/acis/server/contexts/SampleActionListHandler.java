@@ -4,19 +4,32 @@
  */
 package de.bensoft.acis.server.contexts;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import de.bensoft.acis.core.ACIS;
 import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionManager;
 import de.bensoft.acis.core.ActionPackage;
+import de.bensoft.acis.server.JsonWriter;
 import de.bensoft.acis.server.Server.HttpStatusCodeRepresentation;
 import de.bensoft.acis.server.ServerContext;
 import de.bensoft.acis.server.ServerContext.ServerContextHandler;
 import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.server.XmlWriter;
 
 /**
  * Sample handler for listing Actions and ActionPackages. <br>
- * Syntax: /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN (required) <br>
+ * Syntax: /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN (required)
+ * &amp;format=&lt;xml | json (optional; default is xml)&gt; <br>
  * Returns: &quot;ERROR: INTERNAL SERVER ERROR (EXCEPTION)&quot; (500) or the
  * result in XML-format: <br>
  * &lt;response version=&quot;LIBRARY_VERSION&quot;&gt; &lt;package
@@ -25,63 +38,121 @@ import de.bensoft.acis.server.ServerContext.ServerContextResult;
  * name=&quot;ACTION_NAME&quot; visibility=&quot;CONTEXT_VISIBILITY&quot;
  * trigger=&quot;TRIGGER&quot;/&gt; &lt;action name=&quot;ACTION_NAME&quot;
  * visibility=&quot;CONTEXT_VISIBILITY&quot; trigger=&quot;TRIGGER&quot;/&gt;
- * &lt;/package&gt; &lt;/response&gt;
+ * &lt;/package&gt; &lt;/response&gt; <br>
+ * or in JSON-format: <br>
+ * {&quot;version&quot;:LIBRARY_VERSION,&quot;packages&quot;:[{&quot;name&quot;:
+ * &quot;PACKAGE_NAME&quot;,&quot;description&quot;:&quot;PACKAGE_DESCRIPTION&quot;,
+ * &quot;minversion&quot;:MINIMAL_LIBRARY_VERSION,&quot;actions&quot;:[{&quot;name&quot;:
+ * &quot;ACTION_NAME&quot;,&quot;visibility&quot;:&quot;CONTEXT_VISIBILITY&quot;,
+ * &quot;trigger&quot;:&quot;TRIGGER&quot;}]}]} <br>
+ * The documents are built once per version of the {@link ActionManager} and
+ * then served from memory. The entity tag contains the version, so clients can
+ * revalidate with 'If-None-Match' and get &quot;304 Not Modified&quot; until
+ * {@link Action}s are added or removed.
  */
 public class SampleActionListHandler implements ServerContextHandler {
 
-	private final String STANDARD_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	// distinguishes the versions of this process from those of earlier ones
+	private final String mEpoch = Long.toHexString(System.currentTimeMillis());
+	private volatile Catalogue mXml;
+	private volatile Catalogue mJson;
 
 	@Override
 	public ServerContext.ServerContextResult handle(ACIS system, Map<String, String> arguments) {
-		String response = STANDARD_RESPONSE + "<response version=\"" + ACIS.LIBRARY_VERSION + "\">";
-		try {
-			for (ActionPackage pack : system.getActionManager().getActionPackages()) {
-				response += "<package name=\"" + encode(pack.getName()) + "\" description=\""
-						+ encode(pack.getDescription()) + "\" minversion=\"" + pack.getMinimumRequiredLibraryVersion()
-						+ "\">";
-				for (Action a : pack.getActions(system.getLanguage()))
-					response += "<action name=\"" + encode(a.getName().replace(pack.getName() + "/", ""))
-							+ "\" visibility=\"" + encode(a.getContextVisibility().toString().toLowerCase())
-							+ "\" trigger=\"" + encode(a.getTrigger()) + "\"></action>";
-				response += "</package>";
+		boolean json = "json".equals(arguments.get("format"));
+		ActionManager manager = system.getActionManager();
+		// read before the Actions, so a concurrent change leads to a rebuild
+		long version = manager.getVersion();
+		Catalogue catalogue = json ? mJson : mXml;
+		if (catalogue == null || catalogue.mManager != manager || catalogue.mVersion != version) {
+			try {
+				Map<ActionPackage, List<Action>> packages = groupByPackage(manager.getActions());
+				catalogue = new Catalogue(manager, version, json ? writeJson(packages) : writeXml(packages));
+			} catch (IOException e) {
+				return new ServerContextResult("ERROR: INTERNAL SERVER ERROR (" + e.toString() + ")",
+						HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR);
 			}
-			response += "</response>";
-		} catch (Exception e) {
-			response = "ERROR: INTERNAL SERVER ERROR (" + e.toString() + ")";
-			return new ServerContextResult(response, HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR);
+			if (json)
+				mJson = catalogue;
+			else
+				mXml = catalogue;
 		}
-		ServerContextResult result = new ServerContextResult(response, HttpStatusCodeRepresentation.OK);
-		result.setContentType("text/xml");
+
+		ServerContextResult result = new ServerContextResult(catalogue.mBody, HttpStatusCodeRepresentation.OK);
+		result.setContentType(json ? "application/json; charset=utf-8" : "text/xml; charset=utf-8");
+		result.setEntityTag("v" + version + "-" + mEpoch + (json ? "-json" : "-xml"));
 		return result;
 	}
 
-	private String encode(String string) {
-		StringBuilder escapedTxt = new StringBuilder();
-		for (int i = 0; i < string.length(); i++) {
-			char tmp = string.charAt(i);
-			switch (tmp) {
-			case '<':
-				escapedTxt.append("&lt;");
-				break;
-			case '>':
-				escapedTxt.append("&gt;");
-				break;
-			case '&':
-				escapedTxt.append("&amp;");
-				break;
-			case '"':
-				escapedTxt.append("&quot;");
-				break;
-			case '\'':
-				escapedTxt.append("&#x27;");
-				break;
-			case '/':
-				escapedTxt.append("&#x2F;");
-				break;
-			default:
-				escapedTxt.append(tmp);
+	private static Map<ActionPackage, List<Action>> groupByPackage(Action[] actions) {
+		Map<ActionPackage, List<Action>> packages = new LinkedHashMap<>();
+		for (Action a : actions) {
+			List<Action> list = packages.get(a.getPackage());
+			if (list == null) {
+				list = new ArrayList<>();
+				packages.put(a.getPackage(), list);
 			}
+			list.add(a);
+		}
+		return packages;
+	}
+
+	private static byte[] writeXml(Map<ActionPackage, List<Action>> packages) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		XmlWriter xml = new XmlWriter(writer);
+		xml.declaration().start("response").attribute("version", ACIS.LIBRARY_VERSION);
+		for (Map.Entry<ActionPackage, List<Action>> p : packages.entrySet()) {
+			ActionPackage pack = p.getKey();
+			xml.start("package").attribute("name", pack.getName()).attribute("description", pack.getDescription())
+					.attribute("minversion", pack.getMinimumRequiredLibraryVersion());
+			for (Action a : p.getValue())
+				xml.start("action").attribute("name", getShortName(pack, a))
+						.attribute("visibility", a.getContextVisibility().toString().toLowerCase(Locale.ROOT))
+						.attribute("trigger", a.getTrigger()).text("").end();
+			xml.text("").end();
+		}
+		xml.end();
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	private static byte[] writeJson(Map<ActionPackage, List<Action>> packages) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		JsonWriter json = new JsonWriter(writer);
+		json.beginObject().name("version").value(ACIS.LIBRARY_VERSION).name("packages").beginArray();
+		for (Map.Entry<ActionPackage, List<Action>> p : packages.entrySet()) {
+			ActionPackage pack = p.getKey();
+			json.beginObject().name("name").value(pack.getName()).name("description").value(pack.getDescription())
+					.name("minversion").value(pack.getMinimumRequiredLibraryVersion()).name("actions").beginArray();
+			for (Action a : p.getValue())
+				json.beginObject().name("name").value(getShortName(pack, a)).name("visibility")
+						.value(a.getContextVisibility().toString().toLowerCase(Locale.ROOT)).name("trigger")
+						.value(a.getTrigger()).endObject();
+			json.endArray().endObject();
+		}
+		json.endArray().endObject();
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	private static String getShortName(ActionPackage pack, Action action) {
+		return action.getName().replace(pack.getName() + "/", "");
+	}
+
+	/**
+	 * A serialized catalogue of one version of an {@link ActionManager}.
+	 */
+	private static class Catalogue {
+		private final ActionManager mManager;
+		private final long mVersion;
+		private final byte[] mBody;
+
+		Catalogue(ActionManager manager, long version, byte[] body) {
+			mManager = manager;
+			mVersion = version;
+			mBody = body;
 		}
-		return escapedTxt.toString();
 	}
-}
\ No newline at end of file
+}
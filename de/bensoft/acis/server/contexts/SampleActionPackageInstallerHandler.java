@@ -4,17 +4,18 @@
  */
 package de.bensoft.acis.server.contexts;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
 
 import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.ActionPackage;
 import de.bensoft.acis.server.Server.HttpStatusCodeRepresentation;
-import de.bensoft.acis.server.ServerContext;
-import de.bensoft.acis.server.ServerContext.ServerContextHandler;
+import de.bensoft.acis.server.ServerContext.AsyncServerContextHandler;
 import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.utils.ActionPackageInstaller;
 
 /**
  * Sample handler for installing ActionPackages from an url. <br>
@@ -22,60 +23,48 @@ import de.bensoft.acis.server.ServerContext.ServerContextResult;
  * (required)&amp;url=&lt;URL (required)&gt; <br>
  * Returns: &quot;ERROR: INCOMPLETE REQUEST DATA&quot; (400), &quot;ERROR: FILE
  * NOT FOUND&quot; (200), &quot;ERROR: INTERNAL SERVER ERROR (EXCEPTION)&quot;
- * (500) or the result if successful: &quot;true&quot;.
+ * (500) or the result if successful: &quot;true&quot;. <br>
+ * The installation runs on the thread of the {@link ActionPackageInstaller};
+ * the response is sent when the new Actions are in use.
  */
-public class SampleActionPackageInstallerHandler implements ServerContextHandler {
+public class SampleActionPackageInstallerHandler implements AsyncServerContextHandler {
 
-	private Runnable mPostInstall;
+	private ActionPackageInstaller mInstaller;
 
-	public SampleActionPackageInstallerHandler(Runnable postInstall) {
-		mPostInstall = postInstall;
+	public SampleActionPackageInstallerHandler(ActionPackageInstaller installer) {
+		mInstaller = installer;
 	}
 
 	@Override
-	public ServerContext.ServerContextResult handle(ACIS system, Map<String, String> arguments) {
-		if (arguments.containsKey("url")) {
-			try {
-				String url = arguments.get("url");
-				URL fileUrl = new URL(url);
-				String name = String.valueOf(System.currentTimeMillis());
-				String[] p = fileUrl.getPath().split("/");
-				String fName = p[p.length - 1];
-				if (!fName.equals("") && !fName.equals(".") && !fName.equals(".."))
-					name = fName;
+	public CompletableFuture<ServerContextResult> handleAsync(ACIS system, Map<String, String> arguments) {
+		if (!arguments.containsKey("url"))
+			return CompletableFuture.completedFuture(new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+					HttpStatusCodeRepresentation.BAD_REQUEST));
 
-				BufferedInputStream in = null;
-				FileOutputStream fout = null;
-				try {
-					in = new BufferedInputStream(fileUrl.openStream());
-					fout = new FileOutputStream(
-							new File(system.getPackageFilesDirectory().getAbsolutePath() + "/" + name));
-
-					final byte data[] = new byte[1024];
-					int count;
-					while ((count = in.read(data, 0, 1024)) != -1) {
-						fout.write(data, 0, count);
-					}
+		URL fileUrl;
+		try {
+			fileUrl = new URL(arguments.get("url"));
+		} catch (MalformedURLException e) {
+			return CompletableFuture
+					.completedFuture(new ServerContextResult("ERROR: FILE NOT FOUND", HttpStatusCodeRepresentation.OK));
+		}
+		String name = String.valueOf(System.currentTimeMillis());
+		String[] p = fileUrl.getPath().split("/");
+		String fName = p.length > 0 ? p[p.length - 1] : "";
+		if (!fName.equals("") && !fName.equals(".") && !fName.equals(".."))
+			name = fName;
 
-					new Thread(mPostInstall).start();
+		return mInstaller.install(fileUrl, name)
+				.handle(new BiFunction<ActionPackage[], Throwable, ServerContextResult>() {
 
-					return new ServerContextResult("true", HttpStatusCodeRepresentation.OK);
-				} catch (Exception e) {
-					return new ServerContextResult("ERROR: INTERNAL SERVER ERROR (" + e.toString() + ")",
-							HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR);
-				} finally {
-					if (in != null) {
-						in.close();
+					@Override
+					public ServerContextResult apply(ActionPackage[] packages, Throwable error) {
+						if (error == null)
+							return new ServerContextResult("true", HttpStatusCodeRepresentation.OK);
+						Throwable cause = error.getCause() != null ? error.getCause() : error;
+						return new ServerContextResult("ERROR: INTERNAL SERVER ERROR (" + cause.toString() + ")",
+								HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR);
 					}
-					if (fout != null) {
-						fout.close();
-					}
-				}
-			} catch (Exception e) {
-				return new ServerContextResult("ERROR: FILE NOT FOUND", HttpStatusCodeRepresentation.OK);
-			}
-		} else {
-			return new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA", HttpStatusCodeRepresentation.BAD_REQUEST);
-		}
+				});
 	}
-}
\ No newline at end of file
+}
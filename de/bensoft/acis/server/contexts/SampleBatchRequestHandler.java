@@ -0,0 +1,337 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server.contexts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionResult;
+import de.bensoft.acis.core.ActionResult.ActionResultCode;
+import de.bensoft.acis.core.AnalysisCache;
+import de.bensoft.acis.core.Conversation;
+import de.bensoft.acis.core.MatchResult;
+import de.bensoft.acis.core.Parameter;
+import de.bensoft.acis.core.WeightSet;
+import de.bensoft.acis.core.environment.Environment;
+import de.bensoft.acis.core.environment.SystemEnvironment;
+import de.bensoft.acis.core.environment.SystemProperties;
+import de.bensoft.acis.core.environment.UserInfo;
+import de.bensoft.acis.core.environment.VisualOutput;
+import de.bensoft.acis.core.language.Sentence;
+import de.bensoft.acis.server.Server;
+import de.bensoft.acis.server.ServerContext.RequestServerContextHandler;
+import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.server.ServerContext.ServerRequest;
+import de.bensoft.acis.server.ServerContext.XmlResponseBody;
+import de.bensoft.acis.server.XmlWriter;
+
+/**
+ * Sample handler for a batch of queries in one POST request. The queries share
+ * one {@link AnalysisCache}, so the triggers of the {@link Action}s are only
+ * analyzed once per batch. The queries are processed one after another and
+ * every result is sent as soon as it is available. <br>
+ * Syntax: POST /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN
+ * (required)&gt;&amp;mode=&lt;match | execute (required; match: only match the
+ * queries; execute: execute the best {@link Action} of every
+ * query)&gt;&amp;threshold=&lt;MATCHER_THRESHOLD (optional; between 0 and
+ * 1)&gt;&amp;serveroutput=&lt;true | false (optional; whether there should be
+ * output on the server, default is false)&gt; <br>
+ * Body: a JSON array of strings (e.g. [&quot;query one&quot;, &quot;query
+ * two&quot;]) or one query per line. Empty lines are skipped. Input can not be
+ * requested by the {@link Action}s. <br>
+ * Returns: &quot;ERROR: INCOMPLETE REQUEST DATA&quot; (400), &quot;ERROR:
+ * MALFORMED REQUEST DATA&quot; (400) or the results in XML-format in the order
+ * of the queries: <br>
+ * &lt;batch version=&quot;LIBRARY_VERSION&quot;&gt; ITEMS &lt;/batch&gt; <br>
+ * <ul>
+ * <li>RESULT: &lt;item index=&quot;INDEX&quot;&gt;
+ * &lt;query&gt;QUERY&lt;/query&gt; &lt;type&gt;RESULT&lt;/type&gt;
+ * &lt;name&gt;NAME&lt;/name&gt; &lt;result&gt;
+ * &lt;code&gt;ACTIONRESULTCODE&lt;/code&gt;
+ * &lt;message&gt;RESULT_MESSAGE&lt;/message&gt; &lt;/result&gt;
+ * &lt;score&gt;MATCHER_SCORE&lt;/score&gt; &lt;output&gt;
+ * &lt;written&gt;WRITTEN OUTPUT&lt;/written&gt; &lt;spoken&gt;SPOKEN
+ * OUTPUT&lt;/spoken&gt; &lt;/output&gt; &lt;/item&gt;</li>
+ * <li>MATCH: &lt;item index=&quot;INDEX&quot;&gt;
+ * &lt;query&gt;QUERY&lt;/query&gt; &lt;type&gt;MATCH&lt;/type&gt;
+ * &lt;name&gt;NAME&lt;/name&gt; &lt;score&gt;MATCHER_SCORE&lt;/score&gt;
+ * &lt;/item&gt;</li>
+ * <li>NO_RESULTS: &lt;item index=&quot;INDEX&quot;&gt;
+ * &lt;query&gt;QUERY&lt;/query&gt; &lt;type&gt;NO_RESULTS&lt;/type&gt;
+ * &lt;/item&gt;</li>
+ * </ul>
+ */
+public class SampleBatchRequestHandler implements RequestServerContextHandler {
+
+	@Override
+	public ServerContextResult handleRequest(final ACIS system, ServerRequest request) {
+		if (!request.getArguments().containsKey("mode") || request.getBody().length == 0)
+			return new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+
+		final String mode = request.getArguments().get("mode");
+		if (!mode.equals("match") && !mode.equals("execute"))
+			return new ServerContextResult("ERROR: MALFORMED REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+
+		final List<String> queries = parseQueries(request.getBodyAsString());
+		if (queries == null)
+			return new ServerContextResult("ERROR: MALFORMED REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+
+		final float threshold = request.getArguments().containsKey("threshold")
+				? Float.valueOf(request.getArguments().get("threshold")) : 0f;
+		final Conversation conversation = system.getConversation(request.getArguments().get("key"));
+		final boolean serveroutput = request.getArguments().containsKey("serveroutput")
+				&& Boolean.valueOf(request.getArguments().get("serveroutput"));
+
+		return ServerContextResult.xml(new XmlResponseBody() {
+
+			@Override
+			public void write(XmlWriter xml) throws IOException {
+				AnalysisCache cache = new AnalysisCache();
+				WeightSet weightSet = new WeightSet();
+				xml.declaration().start("batch").attribute("version", ACIS.LIBRARY_VERSION);
+				for (int i = 0; i < queries.size(); i++) {
+					String query = queries.get(i);
+					xml.start("item").attribute("index", i).element("query", query);
+					if (mode.equals("match")) {
+						MatchResult[] matches = system.match(conversation, query, threshold, weightSet, cache);
+						if (matches.length > 0)
+							xml.element("type", "MATCH").element("name", matches[0].getAction().getName())
+									.element("score", matches[0].getScore());
+						else
+							xml.element("type", "NO_RESULTS");
+					} else {
+						BatchItemListener listener = new BatchItemListener(system, conversation, serveroutput);
+						listener.write(xml, system.execute(conversation, query, threshold, weightSet, listener, cache));
+					}
+					xml.end().flush();
+				}
+				xml.end();
+			}
+		}, Server.HttpStatusCodeRepresentation.OK);
+	}
+
+	/**
+	 * Parses the queries of a batch.
+	 *
+	 * @param body
+	 *            A JSON array of strings or one query per line.
+	 * @return The queries or {@code null} if the JSON array is malformed.
+	 */
+	private static List<String> parseQueries(String body) {
+		List<String> queries = new ArrayList<>();
+		String trimmed = body.trim();
+		if (!trimmed.startsWith("[")) {
+			for (String line : trimmed.split("\r?\n")) {
+				if (!line.trim().isEmpty())
+					queries.add(line.trim());
+			}
+			return queries;
+		}
+
+		int i = skipWhitespace(trimmed, 1);
+		if (i < trimmed.length() && trimmed.charAt(i) == ']')
+			return i == trimmed.length() - 1 ? queries : null;
+		while (i < trimmed.length()) {
+			if (trimmed.charAt(i) != '"')
+				return null;
+			StringBuilder sb = new StringBuilder();
+			i++;
+			while (i < trimmed.length() && trimmed.charAt(i) != '"') {
+				char c = trimmed.charAt(i++);
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (i >= trimmed.length())
+					return null;
+				char e = trimmed.charAt(i++);
+				switch (e) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(e);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (i + 4 > trimmed.length())
+						return null;
+					try {
+						sb.append((char) Integer.parseInt(trimmed.substring(i, i + 4), 16));
+					} catch (NumberFormatException ex) {
+						return null;
+					}
+					i += 4;
+					break;
+				default:
+					return null;
+				}
+			}
+			if (i >= trimmed.length())
+				return null;
+			queries.add(sb.toString());
+			i = skipWhitespace(trimmed, i + 1);
+			if (i >= trimmed.length())
+				return null;
+			if (trimmed.charAt(i) == ']')
+				return i == trimmed.length() - 1 ? queries : null;
+			if (trimmed.charAt(i) != ',')
+				return null;
+			i = skipWhitespace(trimmed, i + 1);
+		}
+		return null;
+	}
+
+	private static int skipWhitespace(String s, int i) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Runs the best {@link Action} of one query of the batch and keeps the
+	 * resulting item.
+	 */
+	private static class BatchItemListener extends ACIS.OnExecutionListener {
+
+		private final ACIS mSystem;
+		private final Conversation mConversation;
+		private final boolean mServerOutput;
+		private MatchResult mBest;
+		// set by the Action thread, mResult last
+		private StringBuilder mWritten;
+		private StringBuilder mSpoken;
+		private volatile ActionResult mResult;
+
+		BatchItemListener(ACIS system, Conversation conversation, boolean serverOutput) {
+			mSystem = system;
+			mConversation = conversation;
+			mServerOutput = serverOutput;
+		}
+
+		@Override
+		public MatchResult onGetBestResult(MatchResult[] results) {
+			MatchResult matchResult = super.onGetBestResult(results);
+			mBest = matchResult;
+			return matchResult;
+		}
+
+		@Override
+		public ActionResult onActionRun(Action action, Environment environment, Sentence sentence,
+				Parameter[] parameter) {
+			final StringBuilder written = new StringBuilder();
+			final StringBuilder spoken = new StringBuilder();
+			SystemEnvironment env = new SystemEnvironment() {
+
+				@Override
+				public SystemProperties getSystemProperties() {
+					return mSystem.getSystemEnvironment().getSystemProperties();
+				}
+
+				@Override
+				public UserInfo getUserInfo() {
+					return mSystem.getSystemEnvironment().getUserInfo();
+				}
+
+				@Override
+				public boolean canSpeak() {
+					return true;
+				}
+
+				@Override
+				public void addOutput(String s) {
+					addWrittenOutput(s);
+					addSpokenOutput(s);
+				}
+
+				@Override
+				public void addWrittenOutput(String s) {
+					if (mServerOutput)
+						mSystem.getSystemEnvironment().addWrittenOutput(s);
+					written.append(s).append('\n');
+				}
+
+				@Override
+				public void addSpokenOutput(String s) {
+					if (mServerOutput)
+						mSystem.getSystemEnvironment().addSpokenOutput(s);
+					spoken.append(s).append('\n');
+				}
+
+				@Override
+				public boolean canRequestInput() {
+					return false;
+				}
+
+				@Override
+				public String requestInput(String s) throws UnsupportedOperationException {
+					throw new UnsupportedOperationException("No input requesting supported in a batch.");
+				}
+
+				@Override
+				public boolean hasVisualOutput() {
+					return mSystem.getSystemEnvironment().hasVisualOutput();
+				}
+
+				@Override
+				public VisualOutput getVisualOutput() {
+					return mSystem.getSystemEnvironment().getVisualOutput();
+				}
+			};
+
+			ActionResult result;
+			try {
+				result = action.getActionMethod().run(
+						mSystem.getEnvironment(action.getPackage(), env, mConversation), sentence, parameter);
+			} catch (Exception e) {
+				result = new ActionResult(ActionResultCode.INTERNAL_ERROR, e.toString());
+			}
+
+			mWritten = written;
+			mSpoken = spoken;
+			mResult = result;
+			return result;
+		}
+
+		/**
+		 * Writes the content of the item, NO_RESULTS if no {@link Action} was
+		 * run.
+		 *
+		 * @param result
+		 *            The result of the execution. When the {@link Action} was
+		 *            rejected or timed out, it has no output.
+		 */
+		void write(XmlWriter xml, ActionResult result) throws IOException {
+			if (result == null) {
+				xml.element("type", "NO_RESULTS");
+				return;
+			}
+			boolean finished = mResult == result;
+			xml.element("type", "RESULT").element("name", mBest.getAction().getName()).start("result")
+					.element("code", result.getResultCode()).element("message", result.getMessage()).end()
+					.element("score", mBest.getScore()).start("output")
+					.element("written", finished ? mWritten : "").element("spoken", finished ? mSpoken : "").end();
+		}
+	}
+}
\ No newline at end of file
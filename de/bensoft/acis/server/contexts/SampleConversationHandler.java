@@ -0,0 +1,309 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server.contexts;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionResult;
+import de.bensoft.acis.core.ActionResult.ActionResultCode;
+import de.bensoft.acis.core.Conversation;
+import de.bensoft.acis.core.MatchResult;
+import de.bensoft.acis.core.Parameter;
+import de.bensoft.acis.core.WeightSet;
+import de.bensoft.acis.core.environment.Environment;
+import de.bensoft.acis.core.environment.SystemEnvironment;
+import de.bensoft.acis.core.environment.SystemProperties;
+import de.bensoft.acis.core.environment.UserInfo;
+import de.bensoft.acis.core.environment.VisualOutput;
+import de.bensoft.acis.core.language.Sentence;
+import de.bensoft.acis.server.ServerContext.WebSocketServerContextHandler;
+import de.bensoft.acis.server.WebSocket;
+import de.bensoft.acis.server.XmlWriter;
+
+/**
+ * Sample handler holding a whole conversation on one WebSocket connection.
+ * Queries, input requests of {@link Action}s, the replies to them and all
+ * output fragments are exchanged as messages, so there is no polling and no
+ * request id to pass around. <br>
+ * Syntax: WebSocket upgrade to /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN
+ * (required)&gt;&amp;threshold=&lt;MATCHER_THRESHOLD (optional; between 0 and
+ * 1)&gt;&amp;serveroutput=&lt;true | false (optional; whether there should be
+ * output on the server, default is false)&gt; <br>
+ * Messages from the client:
+ * <ul>
+ * <li>request:&lt;QUERY&gt; (simple text request; one at a time)</li>
+ * <li>respond:&lt;REQUESTED_TEXT&gt; (respond to the last input request)</li>
+ * </ul>
+ * Messages to the client:
+ * <ul>
+ * <li>&lt;written&gt;NEW WRITTEN OUTPUT&lt;/written&gt;</li>
+ * <li>&lt;spoken&gt;NEW SPOKEN OUTPUT&lt;/spoken&gt;</li>
+ * <li>&lt;request&gt;&lt;text&gt;REQUEST_PROMPT&lt;/text&gt;&lt;/request&gt;</li>
+ * <li>&lt;result&gt;&lt;name&gt;NAME&lt;/name&gt;
+ * &lt;code&gt;ACTIONRESULTCODE&lt;/code&gt;
+ * &lt;message&gt;RESULT_MESSAGE&lt;/message&gt;
+ * &lt;score&gt;MATCHER_SCORE&lt;/score&gt;&lt;/result&gt;</li>
+ * <li>&lt;no_results/&gt;</li>
+ * <li>&lt;error&gt;MALFORMED REQUEST DATA | REQUEST ALREADY RUNNING | NO INPUT
+ * REQUESTED&lt;/error&gt;</li>
+ * </ul>
+ * A request ends with a result or no_results message.
+ */
+public class SampleConversationHandler implements WebSocketServerContextHandler {
+
+	private static final String REQUEST_PREFIX = "request:";
+	private static final String RESPOND_PREFIX = "respond:";
+
+	@Override
+	public void onOpen(ACIS system, WebSocket socket) {
+		float threshold = socket.getArguments().containsKey("threshold")
+				? Float.valueOf(socket.getArguments().get("threshold")) : 0f;
+		boolean serveroutput = socket.getArguments().containsKey("serveroutput")
+				&& Boolean.valueOf(socket.getArguments().get("serveroutput"));
+		socket.setAttachment(new Connection(socket, system.getConversation(socket.getArguments().get("key")),
+				threshold, serveroutput));
+	}
+
+	@Override
+	public void onMessage(ACIS system, WebSocket socket, String message) {
+		Connection connection = (Connection) socket.getAttachment();
+		if (message.startsWith(REQUEST_PREFIX)) {
+			if (!connection.mRunning.compareAndSet(false, true)) {
+				connection.send("<error>REQUEST ALREADY RUNNING</error>");
+				return;
+			}
+			execute(system, connection, message.substring(REQUEST_PREFIX.length()));
+		} else if (message.startsWith(RESPOND_PREFIX)) {
+			CompletableFuture<String> input = connection.mInput;
+			if (input == null) {
+				connection.send("<error>NO INPUT REQUESTED</error>");
+				return;
+			}
+			connection.mInput = null;
+			input.complete(message.substring(RESPOND_PREFIX.length()));
+		} else {
+			connection.send("<error>MALFORMED REQUEST DATA</error>");
+		}
+	}
+
+	@Override
+	public void onClose(ACIS system, WebSocket socket) {
+		Connection connection = (Connection) socket.getAttachment();
+		if (connection == null)
+			return;
+		// release an Action waiting for input
+		CompletableFuture<String> input = connection.mInput;
+		if (input != null)
+			input.cancel(false);
+	}
+
+	/**
+	 * Executes a query of a conversation on a new thread.
+	 */
+	private void execute(final ACIS system, final Connection connection, final String query) {
+		final Request request = new Request(connection);
+		final AtomicReference<MatchResult> best = new AtomicReference<>();
+		final ACIS.OnExecutionListener listener = new ACIS.OnExecutionListener() {
+
+			@Override
+			public MatchResult onGetBestResult(MatchResult[] results) {
+				MatchResult matchResult = super.onGetBestResult(results);
+				best.set(matchResult);
+				return matchResult;
+			}
+
+			@Override
+			public ActionResult onActionRun(final Action action, Environment environment, Sentence sentence,
+					Parameter[] parameter) {
+				SystemEnvironment env = new SystemEnvironment() {
+
+					@Override
+					public SystemProperties getSystemProperties() {
+						return system.getSystemEnvironment().getSystemProperties();
+					}
+
+					@Override
+					public UserInfo getUserInfo() {
+						return system.getSystemEnvironment().getUserInfo();
+					}
+
+					@Override
+					public boolean canSpeak() {
+						return true;
+					}
+
+					@Override
+					public void addOutput(String s) {
+						addWrittenOutput(s);
+						addSpokenOutput(s);
+					}
+
+					@Override
+					public void addWrittenOutput(String s) {
+						if (connection.mServerOutput)
+							system.getSystemEnvironment().addWrittenOutput(s);
+						request.send("<written>" + XmlWriter.escape(s) + "</written>");
+					}
+
+					@Override
+					public void addSpokenOutput(String s) {
+						if (connection.mServerOutput)
+							system.getSystemEnvironment().addSpokenOutput(s);
+						request.send("<spoken>" + XmlWriter.escape(s) + "</spoken>");
+					}
+
+					@Override
+					public boolean canRequestInput() {
+						return true;
+					}
+
+					@Override
+					public String requestInput(String s) throws UnsupportedOperationException {
+						CompletableFuture<String> input = new CompletableFuture<>();
+						if (!request.requestInput(input, "<request><text>" + XmlWriter.escape(s) + "</text></request>"))
+							return null;
+						try {
+							return input.get();
+						} catch (InterruptedException e) {
+							// cancelled, e.g. by the timeout of the Action
+							Thread.currentThread().interrupt();
+							return null;
+						} catch (ExecutionException | CancellationException e) {
+							return null;
+						}
+					}
+
+					@Override
+					public boolean hasVisualOutput() {
+						return system.getSystemEnvironment().hasVisualOutput();
+					}
+
+					@Override
+					public VisualOutput getVisualOutput() {
+						return system.getSystemEnvironment().getVisualOutput();
+					}
+				};
+
+				ActionResult result;
+				try {
+					result = action.getActionMethod().run(
+							system.getEnvironment(action.getPackage(), env, connection.mConversation), sentence, parameter);
+				} catch (Exception e) {
+					result = new ActionResult(ActionResultCode.INTERNAL_ERROR, e.toString());
+				}
+
+				request.finish(result(best.get(), result));
+				return result;
+			}
+		};
+
+		system.executeAsync(connection.mConversation, query, connection.mThreshold, new WeightSet(), listener, 0)
+				.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+
+					@Override
+					public void accept(ActionResult result, Throwable error) {
+						if (result != null)
+							// e.g. REJECTED or TIMEOUT, the Action did not send its result
+							request.finish(result(best.get(), result));
+						else
+							// no Action was run
+							request.finish("<no_results/>");
+						// release a cancelled Action still waiting for input
+						CompletableFuture<String> input = connection.mInput;
+						connection.mInput = null;
+						if (input != null)
+							input.cancel(false);
+						connection.mRunning.set(false);
+					}
+				});
+	}
+
+	private static String result(MatchResult best, ActionResult result) {
+		return "<result><name>" + (best != null ? XmlWriter.escape(best.getAction().getName()) : "") + "</name><code>"
+				+ result.getResultCode() + "</code><message>" + XmlWriter.escape(result.getMessage())
+				+ "</message><score>" + (best != null ? best.getScore() : 0f) + "</score></result>";
+	}
+
+	/**
+	 * The messages of one request on a connection. Once the request finished,
+	 * an {@link Action} still running after it was cancelled can not send to
+	 * the connection anymore, so it does not mix with the next request.
+	 */
+	private static class Request {
+		private final Connection mConnection;
+		private boolean mFinished; // guarded by this
+
+		Request(Connection connection) {
+			mConnection = connection;
+		}
+
+		synchronized void send(String message) {
+			if (!mFinished)
+				mConnection.send(message);
+		}
+
+		/**
+		 * Registers the input an {@link Action} waits for and sends the
+		 * request.
+		 *
+		 * @return {@code false} if the request finished or the client is gone.
+		 */
+		synchronized boolean requestInput(CompletableFuture<String> input, String message) {
+			if (mFinished || !mConnection.mSocket.isOpen())
+				return false;
+			mConnection.mInput = input;
+			mConnection.send(message);
+			return true;
+		}
+
+		/**
+		 * Sends the last message of the request, unless it already finished.
+		 */
+		synchronized void finish(String message) {
+			if (!mFinished) {
+				mFinished = true;
+				mConnection.send(message);
+			}
+		}
+	}
+
+	/**
+	 * The state of a connection holding a conversation.
+	 */
+	private static class Connection {
+		private final WebSocket mSocket;
+		private final Conversation mConversation;
+		private final float mThreshold;
+		private final boolean mServerOutput;
+		private final AtomicBoolean mRunning = new AtomicBoolean();
+		private volatile CompletableFuture<String> mInput;
+
+		Connection(WebSocket socket, Conversation conversation, float threshold, boolean serverOutput) {
+			mSocket = socket;
+			mConversation = conversation;
+			mThreshold = threshold;
+			mServerOutput = serverOutput;
+		}
+
+		/**
+		 * Sends a message unless the client is gone.
+		 */
+		void send(String message) {
+			try {
+				if (mSocket.isOpen())
+					mSocket.send(message);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,343 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.server.contexts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionResult;
+import de.bensoft.acis.core.ActionResult.ActionResultCode;
+import de.bensoft.acis.core.Conversation;
+import de.bensoft.acis.core.MatchResult;
+import de.bensoft.acis.core.Parameter;
+import de.bensoft.acis.core.WeightSet;
+import de.bensoft.acis.core.environment.Environment;
+import de.bensoft.acis.core.environment.SystemEnvironment;
+import de.bensoft.acis.core.environment.SystemProperties;
+import de.bensoft.acis.core.environment.UserInfo;
+import de.bensoft.acis.core.environment.VisualOutput;
+import de.bensoft.acis.core.language.Sentence;
+import de.bensoft.acis.server.Server;
+import de.bensoft.acis.server.ServerContext;
+import de.bensoft.acis.server.ServerContext.ResponseStreamer;
+import de.bensoft.acis.server.ServerContext.ServerContextHandler;
+import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.server.XmlWriter;
+
+/**
+ * Sample handler streaming the execution of a query as Server-Sent Events.
+ * Every output fragment is pushed to the client as soon as the {@link Action}
+ * produces it, so e.g. speech output can start while the {@link Action} is
+ * still running. <br>
+ * Syntax: /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN
+ * (required)&gt;&amp;mode=&lt;request | respond (required; request: simple text
+ * request; respond: respond to a input request)&gt; <br>
+ * <ul>
+ * <li>mode=request&amp;threshold=&lt;MATCHER_THRESHOLD (optional; between 0 and
+ * 1)&gt;&amp;serveroutput=&lt;true | false (optional; whether there should be
+ * output on the server, default is false)&gt;&amp;q=&lt;QUERY
+ * (required)&gt;</li>
+ * <li>mode=respond&amp;id=&lt;INPUT_REQUEST_ID
+ * (required)&gt;&amp;content=&lt;REQUESTED_TEXT (required)&gt;</li>
+ * </ul>
+ * <br>
+ * Returns: &quot;ERROR: INCOMPLETE REQUEST DATA&quot; (400), &quot;ERROR:
+ * MALFORMED REQUEST DATA&quot; (400), &quot;ERROR: NO SUCH REQUEST ID&quot;
+ * (400), &quot;true&quot; for mode=respond (the answer continues on the event
+ * stream of the request) or for mode=request an event stream
+ * (text/event-stream) with the following events: <br>
+ * <ul>
+ * <li>written: data: NEW WRITTEN OUTPUT</li>
+ * <li>spoken: data: NEW SPOKEN OUTPUT</li>
+ * <li>request: data:
+ * &lt;request&gt;&lt;id&gt;REQUEST_ID&lt;/id&gt;&lt;text&gt;REQUEST_PROMPT&lt;/text&gt;&lt;/request&gt;</li>
+ * <li>result: data: &lt;result&gt;&lt;name&gt;NAME&lt;/name&gt;
+ * &lt;code&gt;ACTIONRESULTCODE&lt;/code&gt;
+ * &lt;message&gt;RESULT_MESSAGE&lt;/message&gt;
+ * &lt;score&gt;MATCHER_SCORE&lt;/score&gt;&lt;/result&gt;</li>
+ * <li>no_results: data: (empty)</li>
+ * </ul>
+ * The stream ends after the result or no_results event. An input request can
+ * only be answered with the session key of the request it belongs to. When the
+ * {@link Server} is stopped gracefully, {@link Action}s waiting for input
+ * continue without it, so their streams still end with the result.
+ */
+public class SampleEventStreamHandler implements ServerContextHandler {
+
+	private static final long KEEP_ALIVE_INTERVAL = 15000;
+
+	// inputs the Actions are waiting for
+	private final InputRequests<CompletableFuture<String>> mRequests = new InputRequests<>();
+	private volatile boolean mStopping;
+
+	@Override
+	public void onServerStop() {
+		mStopping = true;
+		// the Actions continue without input and end their streams
+		for (CompletableFuture<String> input : mRequests.removeAll())
+			input.cancel(false);
+	}
+
+	@Override
+	public ServerContextResult handle(final ACIS system, Map<String, String> arguments) {
+		if (!arguments.containsKey("mode"))
+			return new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+
+		String mode = arguments.get("mode");
+		if (mode.equals("respond")) {
+			if (arguments.containsKey("id") && arguments.containsKey("content")) {
+				// only the session that started the request may answer it, and only once
+				CompletableFuture<String> input = mRequests.take(arguments.get("id"), arguments.get("key"));
+				if (input != null) {
+					input.complete(arguments.get("content"));
+					return new ServerContextResult("true", Server.HttpStatusCodeRepresentation.OK);
+				}
+				return new ServerContextResult("ERROR: NO SUCH REQUEST ID",
+						Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+			}
+			return new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+		} else if (mode.equals("request")) {
+			if (!arguments.containsKey("q"))
+				return new ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+						Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+
+			final String query = arguments.get("q");
+			final String session = String.valueOf(arguments.get("key"));
+			final Conversation conversation = system.getConversation(arguments.get("key"));
+			final float threshold = arguments.containsKey("threshold") ? Float.valueOf(arguments.get("threshold"))
+					: 0f;
+			final boolean serveroutput = arguments.containsKey("serveroutput")
+					&& Boolean.valueOf(arguments.get("serveroutput"));
+
+			final EventStream stream = new EventStream();
+			final AtomicReference<MatchResult> best = new AtomicReference<>();
+			final ACIS.OnExecutionListener listener = new ACIS.OnExecutionListener() {
+
+				@Override
+				public MatchResult onGetBestResult(MatchResult[] results) {
+					MatchResult matchResult = super.onGetBestResult(results);
+					best.set(matchResult);
+					return matchResult;
+				}
+
+				@Override
+				public ActionResult onActionRun(final Action action, Environment environment, Sentence sentence,
+						Parameter[] parameter) {
+					SystemEnvironment env = new SystemEnvironment() {
+
+						@Override
+						public SystemProperties getSystemProperties() {
+							return system.getSystemEnvironment().getSystemProperties();
+						}
+
+						@Override
+						public UserInfo getUserInfo() {
+							return system.getSystemEnvironment().getUserInfo();
+						}
+
+						@Override
+						public boolean canSpeak() {
+							return true;
+						}
+
+						@Override
+						public void addOutput(String s) {
+							addWrittenOutput(s);
+							addSpokenOutput(s);
+						}
+
+						@Override
+						public void addWrittenOutput(String s) {
+							if (serveroutput)
+								system.getSystemEnvironment().addWrittenOutput(s);
+							stream.emit("written", s);
+						}
+
+						@Override
+						public void addSpokenOutput(String s) {
+							if (serveroutput)
+								system.getSystemEnvironment().addSpokenOutput(s);
+							stream.emit("spoken", s);
+						}
+
+						@Override
+						public boolean canRequestInput() {
+							return true;
+						}
+
+						@Override
+						public String requestInput(String s) throws UnsupportedOperationException {
+							if (stream.mClosed)
+								return null;
+							String id = mRequests.generateId();
+							CompletableFuture<String> input = new CompletableFuture<>();
+							stream.mInput = input;
+							mRequests.put(id, session, input);
+							// checked after put, so onServerStop() sees either the flag or the request
+							if (mStopping) {
+								mRequests.remove(id, input);
+								return null;
+							}
+							stream.emit("request", "<request><id>" + id + "</id><text>" + XmlWriter.escape(s) + "</text></request>");
+							try {
+								return input.get();
+							} catch (InterruptedException e) {
+								// cancelled, e.g. by the timeout of the Action
+								Thread.currentThread().interrupt();
+								return null;
+							} catch (ExecutionException | CancellationException e) {
+								return null;
+							} finally {
+								mRequests.remove(id, input);
+							}
+						}
+
+						@Override
+						public boolean hasVisualOutput() {
+							return system.getSystemEnvironment().hasVisualOutput();
+						}
+
+						@Override
+						public VisualOutput getVisualOutput() {
+							return system.getSystemEnvironment().getVisualOutput();
+						}
+					};
+
+					ActionResult result;
+					try {
+						result = action.getActionMethod().run(
+								system.getEnvironment(action.getPackage(), env, conversation), sentence, parameter);
+					} catch (Exception e) {
+						result = new ActionResult(ActionResultCode.INTERNAL_ERROR, e.toString());
+					}
+
+					stream.finish("result", result(best.get(), result));
+					return result;
+				}
+			};
+
+			system.executeAsync(conversation, query, threshold, new WeightSet(), listener, 0)
+					.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+
+						@Override
+						public void accept(ActionResult result, Throwable error) {
+							if (result != null)
+								// e.g. REJECTED or TIMEOUT, the Action did not emit its result
+								stream.finish("result", result(best.get(), result));
+							else
+								// no Action was run
+								stream.finish("no_results", "");
+						}
+					});
+
+			ServerContextResult result = new ServerContextResult(stream, Server.HttpStatusCodeRepresentation.OK);
+			result.setContentType("text/event-stream; charset=utf-8");
+			result.setHeader("Cache-Control", "no-cache");
+			return result;
+		} else {
+			return new ServerContext.ServerContextResult("ERROR: MALFORMED REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+		}
+	}
+
+	private static String result(MatchResult best, ActionResult result) {
+		return "<result><name>" + (best != null ? XmlWriter.escape(best.getAction().getName()) : "") + "</name><code>"
+				+ result.getResultCode() + "</code><message>" + XmlWriter.escape(result.getMessage())
+				+ "</message><score>" + (best != null ? best.getScore() : 0f) + "</score></result>";
+	}
+
+	/**
+	 * The event stream of one execution. Events are queued by the action
+	 * thread and written by the thread responding to the client.
+	 */
+	private static class EventStream implements ResponseStreamer {
+
+		private static final String END = new String("END");
+
+		private final BlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+		private volatile CompletableFuture<String> mInput;
+		private volatile boolean mEnded;
+		private volatile boolean mClosed;
+		private int mEventId;
+
+		/**
+		 * Queues an event. Every line of {@code data} becomes a 'data:' line.
+		 */
+		synchronized void emit(String event, String data) {
+			if (mEnded || mClosed)
+				return;
+			StringBuilder sb = new StringBuilder(data.length() + 32);
+			sb.append("id: ").append(mEventId++).append('\n');
+			sb.append("event: ").append(event).append('\n');
+			int start = 0;
+			do {
+				int end = data.indexOf('\n', start);
+				if (end == -1)
+					end = data.length();
+				int lineEnd = end > start && data.charAt(end - 1) == '\r' ? end - 1 : end;
+				sb.append("data: ").append(data, start, lineEnd).append('\n');
+				start = end + 1;
+			} while (start <= data.length());
+			sb.append('\n');
+			mEvents.add(sb.toString());
+		}
+
+		/**
+		 * Queues the last event and ends the stream, unless it already ended.
+		 */
+		synchronized void finish(String event, String data) {
+			if (!mEnded) {
+				emit(event, data);
+				end();
+			}
+		}
+
+		/**
+		 * Marks the end of the stream after all queued events.
+		 */
+		synchronized void end() {
+			if (!mEnded) {
+				mEnded = true;
+				mEvents.add(END);
+			}
+		}
+
+		@Override
+		public void stream(OutputStream output) throws IOException {
+			try {
+				while (true) {
+					String event = mEvents.poll(KEEP_ALIVE_INTERVAL, TimeUnit.MILLISECONDS);
+					if (event == END)
+						break;
+					// comments keep the connection alive and detect gone clients
+					output.write((event == null ? ":\n\n" : event).getBytes(StandardCharsets.UTF_8));
+					output.flush();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				// the client is gone: release an Action waiting for input
+				mClosed = true;
+				CompletableFuture<String> input = mInput;
+				if (input != null)
+					input.cancel(false);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -5,6 +5,12 @@
 package de.bensoft.acis.server.contexts;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import de.bensoft.acis.core.ACIS;
@@ -12,13 +18,17 @@ import de.bensoft.acis.server.Server.HttpStatusCodeRepresentation;
 import de.bensoft.acis.server.ServerContext;
 import de.bensoft.acis.server.ServerContext.ServerContextHandler;
 import de.bensoft.acis.server.ServerContext.ServerContextResult;
-import de.bensoft.acis.utils.IOUtils;
+import de.bensoft.acis.server.ServerContext.XmlResponseBody;
+import de.bensoft.acis.server.XmlWriter;
 
 /**
  * Sample handler for showing files. The path required is the relative path to
  * the data directory.<br>
  * Syntax: /&lt;CONTEXT_PATH&gt;?key=&lt;SESSION_TOKEN
- * (required)&amp;path=&lt;PATH_TO_FILE (required)&gt;<br>
+ * (required)&amp;path=&lt;PATH_TO_FILE (required)&gt;&amp;raw=&lt;true |
+ * false (optional; send the file as it is instead of XML, default is
+ * false)&gt;&amp;tail=&lt;BYTES (optional; only send the last bytes of the
+ * file as it is)&gt;<br>
  * Returns: &quot;ERROR: INCOMPLETE REQUEST DATA&quot; (400), &quot;ERROR: FILE
  * DOES NOT EXIST&quot; (404), &quot;ERROR: INTERNAL SERVER ERROR
  * (EXCEPTION)&quot; (500) or the result in XML-format: <br>
@@ -28,22 +38,47 @@ import de.bensoft.acis.utils.IOUtils;
  * name=&quot;ACTION_NAME&quot; visibility=&quot;CONTEXT_VISIBILITY&quot;
  * trigger=&quot;TRIGGER&quot;/&gt; &lt;action name=&quot;ACTION_NAME&quot;
  * visibility=&quot;CONTEXT_VISIBILITY&quot; trigger=&quot;TRIGGER&quot;/&gt;
- * &lt;/package&gt; &lt;/response&gt;
+ * &lt;/package&gt; &lt;/response&gt; <br>
+ * The file is escaped while it is copied to the client, it is never read into
+ * memory as a whole.<br>
+ * Raw files are copied to the client without any conversion and support
+ * 'Range'-requests. To follow a growing log, a client requests it with
+ * 'tail' once and then polls with 'Range: bytes=&lt;END + 1&gt;-' (END from
+ * the 'Content-Range' of the last response) and 'If-None-Match' with the last
+ * 'ETag': &quot;304 Not Modified&quot; means there is nothing new,
+ * &quot;416 Range Not Satisfiable&quot; means the file was replaced by a
+ * shorter one.
  */
 public class SampleFileViewHandler implements ServerContextHandler {
 
-	private final String STANDARD_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
-
 	@Override
 	public ServerContext.ServerContextResult handle(ACIS system, Map<String, String> arguments) {
 		if (arguments.containsKey("path")) {
-			File f = new File(system.getDataDirectory() + arguments.get("path"));
+			final File f = new File(system.getDataDirectory() + arguments.get("path"));
 			if (f.exists() && !f.isDirectory()) {
-				String response = STANDARD_RESPONSE + "<response version=\"" + ACIS.LIBRARY_VERSION + "\">";
-				response += encode(IOUtils.readFromFile(f));
-				response += "</response>";
-				ServerContextResult result = new ServerContextResult(response, HttpStatusCodeRepresentation.OK);
-				result.setContentType("text/xml");
+				// identifies the version of the file, also for the compressed copy
+				String entityTag = Integer.toHexString(f.getPath().hashCode()) + "-"
+						+ Long.toHexString(f.lastModified()) + "-" + Long.toHexString(f.length());
+				if (arguments.containsKey("tail"))
+					return tail(f, arguments.get("tail"), entityTag);
+				if (arguments.containsKey("raw") && Boolean.valueOf(arguments.get("raw"))) {
+					ServerContextResult result = ServerContextResult.file(f, getContentType(f));
+					result.setEntityTag("raw-" + entityTag);
+					return result;
+				}
+
+				ServerContextResult result = ServerContextResult.xml(new XmlResponseBody() {
+
+					@Override
+					public void write(XmlWriter xml) throws IOException {
+						xml.declaration().start("response").attribute("version", ACIS.LIBRARY_VERSION).text("");
+						try (Reader reader = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+							xml.text(reader);
+						}
+						xml.end();
+					}
+				}, HttpStatusCodeRepresentation.OK);
+				result.setEntityTag(entityTag);
 				return result;
 			} else {
 				return new ServerContextResult("ERROR: FILE DOES NOT EXIST", HttpStatusCodeRepresentation.NOT_FOUND);
@@ -53,33 +88,25 @@ public class SampleFileViewHandler implements ServerContextHandler {
 		}
 	}
 
-	private String encode(String string) {
-		StringBuilder escapedTxt = new StringBuilder();
-		for (int i = 0; i < string.length(); i++) {
-			char tmp = string.charAt(i);
-			switch (tmp) {
-			case '<':
-				escapedTxt.append("&lt;");
-				break;
-			case '>':
-				escapedTxt.append("&gt;");
-				break;
-			case '&':
-				escapedTxt.append("&amp;");
-				break;
-			case '"':
-				escapedTxt.append("&quot;");
-				break;
-			case '\'':
-				escapedTxt.append("&#x27;");
-				break;
-			case '/':
-				escapedTxt.append("&#x2F;");
-				break;
-			default:
-				escapedTxt.append(tmp);
-			}
+	private ServerContextResult tail(File f, String tail, String entityTag) {
+		long bytes;
+		try {
+			bytes = Long.parseLong(tail);
+		} catch (NumberFormatException e) {
+			bytes = -1;
 		}
-		return escapedTxt.toString();
+		if (bytes <= 0)
+			return new ServerContextResult("ERROR: MALFORMED REQUEST DATA", HttpStatusCodeRepresentation.BAD_REQUEST);
+
+		long size = f.length();
+		ServerContextResult result = size == 0 || bytes >= size ? ServerContextResult.file(f, getContentType(f))
+				: ServerContextResult.file(f, size - bytes, bytes, getContentType(f));
+		result.setEntityTag("raw-" + entityTag);
+		return result;
+	}
+
+	private static String getContentType(File f) {
+		String contentType = URLConnection.guessContentTypeFromName(f.getName());
+		return contentType != null ? contentType : "text/plain; charset=utf-8";
 	}
-}
\ No newline at end of file
+}
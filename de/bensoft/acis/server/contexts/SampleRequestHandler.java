@@ -4,14 +4,20 @@
  */
 package de.bensoft.acis.server.contexts;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import de.bensoft.acis.core.ACIS;
 import de.bensoft.acis.core.Action;
 import de.bensoft.acis.core.ActionResult;
 import de.bensoft.acis.core.ActionResult.ActionResultCode;
+import de.bensoft.acis.core.Conversation;
 import de.bensoft.acis.core.MatchResult;
 import de.bensoft.acis.core.Parameter;
 import de.bensoft.acis.core.WeightSet;
@@ -23,8 +29,10 @@ import de.bensoft.acis.core.environment.VisualOutput;
 import de.bensoft.acis.core.language.Sentence;
 import de.bensoft.acis.server.Server;
 import de.bensoft.acis.server.ServerContext;
-import de.bensoft.acis.server.ServerContext.ServerContextHandler;
+import de.bensoft.acis.server.ServerContext.AsyncServerContextHandler;
 import de.bensoft.acis.server.ServerContext.ServerContextResult;
+import de.bensoft.acis.server.ServerContext.XmlResponseBody;
+import de.bensoft.acis.server.XmlWriter;
 
 /**
  * Sample handler for queries and input requests. <br>
@@ -67,72 +75,82 @@ import de.bensoft.acis.server.ServerContext.ServerContextResult;
  * &lt;request&gt;&lt;id&gt;REQUEST_ID&lt;/id&gt;&lt;text&gt;REQUEST_PROMPT&lt;/text&gt;&lt;/request&gt;
  * &lt;/response&gt;</li>
  * </ul>
+ * The handler works asynchronously: the response of a request is completed
+ * directly by the action thread when the {@link Action} finishes or requests
+ * input. A respond request hands its content over to the waiting
+ * {@link Action} and completes with the next of these events.<br>
+ * One instance serves any number of parallel requests. An input request can
+ * only be answered with the session key of the request it belongs to; if it is
+ * not answered within 10 minutes, the {@link Action} gets {@code null} as
+ * input. The same happens to all waiting {@link Action}s when the
+ * {@link Server} is stopped gracefully, so their executions can finish.
  */
-public class SampleRequestHandler implements ServerContextHandler {
+public class SampleRequestHandler implements AsyncServerContextHandler {
 
-	private final String STANDARD_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	private static final long INPUT_TIMEOUT = 600000; // 10 minutes
 
-	private Map<String, String> mRequests = new HashMap<>();
+	// executions waiting for input
+	private final InputRequests<Execution> mRequests = new InputRequests<>();
+	private volatile boolean mStopping;
 
-	private String currentResponse;
-
-	private String generateRequestId() {
-		String reqId = "";
-		char[] alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
-		Random rand = new Random();
-		do {
-			reqId = "";
-			for (int i = 0; i < 16; i++) {
-				reqId += alphabet[rand.nextInt(alphabet.length - 1)];
-			}
-		} while (reqId == "" || mRequests.containsKey(reqId));
-		return reqId;
+	@Override
+	public void onServerStop() {
+		mStopping = true;
+		for (Execution execution : mRequests.removeAll())
+			execution.mInput.cancel(false);
 	}
 
 	@Override
-	public ServerContext.ServerContextResult handle(final ACIS system, Map<String, String> arguments) {
-		final String currentRequestId = generateRequestId();
-		currentResponse = "";
-
+	public CompletableFuture<ServerContextResult> handleAsync(final ACIS system, Map<String, String> arguments) {
 		if (arguments.containsKey("mode")) {
 			String mode = arguments.get("mode");
 			if (mode.equals("respond")) {
 				if (arguments.containsKey("id") && arguments.containsKey("content")) {
-					String requestId = arguments.get("id");
-					if (mRequests.containsKey(requestId)) {
-						mRequests.put(requestId, arguments.get("content"));
-						// abort here
+					// only the session that started the request may answer it, and only once
+					Execution execution = mRequests.take(arguments.get("id"), arguments.get("key"));
+					if (execution != null) {
+						return execution.respond(arguments.get("content"));
 					} else {
-						return new ServerContext.ServerContextResult("ERROR: NO SUCH REQUEST ID",
-								Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+						return completed(new ServerContext.ServerContextResult("ERROR: NO SUCH REQUEST ID",
+								Server.HttpStatusCodeRepresentation.BAD_REQUEST));
 					}
 				} else {
-					return new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
-							Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+					return completed(new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+							Server.HttpStatusCodeRepresentation.BAD_REQUEST));
 				}
 			} else if (mode.equals("request")) {
 				if (arguments.containsKey("q")) {
-					String query = arguments.get("q");
+					final String query = arguments.get("q");
+					final Conversation conversation = system.getConversation(arguments.get("key"));
 
 					Float tres = 0f;
 					if (arguments.containsKey("threshold"))
 						tres = Float.valueOf(arguments.get("threshold"));
+					final float threshold = tres;
 
 					Boolean serveroutput = false;
 					if (arguments.containsKey("serveroutput"))
 						serveroutput = Boolean.valueOf(arguments.get("serveroutput"));
 					final boolean finalServeroutput = serveroutput;
 
-					system.executeNewThread(query, tres, new WeightSet(), new ACIS.OnExecutionListener() {
+					final Execution execution = new Execution(mRequests.generateId(), String.valueOf(arguments.get("key")));
+					final ACIS.OnExecutionListener listener = new ACIS.OnExecutionListener() {
 
 						private float matchScore = 0f;
 
 						@Override
 						public MatchResult onGetBestResult(MatchResult[] results) {
 							if (results.length == 0)
-								currentResponse = STANDARD_RESPONSE + "<response version=\"" + ACIS.LIBRARY_VERSION
-								+ "\"><type>NO_RESULTS</type></response>";
+								execution.complete(new XmlResponseBody() {
+
+									@Override
+									public void write(XmlWriter xml) throws IOException {
+										xml.declaration().start("response").attribute("version", ACIS.LIBRARY_VERSION)
+												.element("type", "NO_RESULTS").end();
+									}
+								});
 							MatchResult matchResult = super.onGetBestResult(results);
+							execution.mBest = matchResult;
 							if (matchResult != null)
 								matchScore = matchResult.getScore();
 							else
@@ -144,10 +162,10 @@ public class SampleRequestHandler implements ServerContextHandler {
 						public ActionResult onActionRun(final Action action, Environment environment, Sentence sentence,
 								Parameter[] parameter) {
 							ServerEnvironment env = new ServerEnvironment() {
-								String totalWritten = "";
-								String totalSpoken = "";
-								String partialWritten = "";
-								String partialSpoken = "";
+								StringBuilder totalWritten = new StringBuilder();
+								StringBuilder totalSpoken = new StringBuilder();
+								StringBuilder partialWritten = new StringBuilder();
+								StringBuilder partialSpoken = new StringBuilder();
 
 								@Override
 								public SystemProperties getSystemProperties() {
@@ -170,10 +188,10 @@ public class SampleRequestHandler implements ServerContextHandler {
 										system.getSystemEnvironment().addWrittenOutput(s);
 										system.getSystemEnvironment().addSpokenOutput(s);
 									}
-									totalWritten += s + "\r\n";
-									totalSpoken += s + "\r\n";
-									partialWritten += s + "\r\n";
-									partialSpoken += s + "\r\n";
+									totalWritten.append(s).append("\r\n");
+									totalSpoken.append(s).append("\r\n");
+									partialWritten.append(s).append("\r\n");
+									partialSpoken.append(s).append("\r\n");
 								}
 
 								@Override
@@ -181,8 +199,8 @@ public class SampleRequestHandler implements ServerContextHandler {
 									if (finalServeroutput) {
 										system.getSystemEnvironment().addWrittenOutput(s);
 									}
-									totalWritten += s + "\r\n";
-									partialWritten += s + "\r\n";
+									totalWritten.append(s).append("\r\n");
+									partialWritten.append(s).append("\r\n");
 								}
 
 								@Override
@@ -190,8 +208,8 @@ public class SampleRequestHandler implements ServerContextHandler {
 									if (finalServeroutput) {
 										system.getSystemEnvironment().addSpokenOutput(s);
 									}
-									totalSpoken += s + "\r\n";
-									partialSpoken += s + "\r\n";
+									totalSpoken.append(s).append("\r\n");
+									partialSpoken.append(s).append("\r\n");
 								}
 
 								@Override
@@ -201,23 +219,43 @@ public class SampleRequestHandler implements ServerContextHandler {
 
 								@Override
 								public String requestInput(String s) throws UnsupportedOperationException {
-									mRequests.put(currentRequestId, null);
-									currentResponse = STANDARD_RESPONSE + "<response version=\"" + ACIS.LIBRARY_VERSION
-											+ "\"><type>REQUEST_INPUT</type><name>" + action.getName()
-											+ "</name><score>" + matchScore + "</score><output><new><written>"
-											+ getPartialWrittenOutput() + "</written><spoken>"
-											+ getPartialSpokenOutput() + "</spoken></new><total><written>"
-											+ getTotalWrittenOutput() + "</written><spoken>" + getTotalSpokenOutput()
-											+ "</spoken></total></output><request><id>" + currentRequestId
-											+ "</id><text>" + s + "</text></request></response>";
-									while (mRequests.get(currentRequestId) == null) {
-										try {
-											Thread.sleep(5);
-										} catch (InterruptedException ignored) {
+									CompletableFuture<String> input = new CompletableFuture<>();
+									execution.mInput = input;
+									mRequests.put(execution.mId, execution.mSession, execution);
+									// checked after put, so onServerStop() sees either the flag or the request
+									if (mStopping) {
+										mRequests.remove(execution.mId, execution);
+										return null;
+									}
+									final Output output = new Output(this);
+									final String prompt = s;
+									execution.complete(new XmlResponseBody() {
+
+										@Override
+										public void write(XmlWriter xml) throws IOException {
+											xml.declaration().start("response")
+													.attribute("version", ACIS.LIBRARY_VERSION)
+													.element("type", "REQUEST_INPUT").element("name", action.getName())
+													.element("score", matchScore);
+											output.write(xml);
+											xml.start("request").element("id", execution.mId).element("text", prompt)
+													.end().end();
 										}
+									});
+									try {
+										String content = input.get(INPUT_TIMEOUT, TimeUnit.MILLISECONDS);
+										resetPartialOutput();
+										return content;
+									} catch (InterruptedException e) {
+										// cancelled, e.g. by the timeout of the Action
+										mRequests.remove(execution.mId, execution);
+										Thread.currentThread().interrupt();
+										return null;
+									} catch (ExecutionException | CancellationException | TimeoutException e) {
+										// e.g. the client gave up; the Action continues without input
+										mRequests.remove(execution.mId, execution);
+										return null;
 									}
-									resetPartialOutput();
-									return mRequests.get(currentRequestId);
 								}
 
 								@Override
@@ -232,73 +270,189 @@ public class SampleRequestHandler implements ServerContextHandler {
 
 								@Override
 								public String getTotalWrittenOutput() {
-									return totalWritten;
+									return totalWritten.toString();
 								}
 
 								@Override
 								public String getTotalSpokenOutput() {
-									return totalSpoken;
+									return totalSpoken.toString();
 								}
 
 								@Override
 								public String getPartialWrittenOutput() {
-									return partialWritten;
+									return partialWritten.toString();
 								}
 
 								@Override
 								public String getPartialSpokenOutput() {
-									return partialSpoken;
+									return partialSpoken.toString();
 								}
 
 								@Override
 								public void resetPartialOutput() {
-									partialWritten = "";
-									partialSpoken = "";
+									partialWritten.setLength(0);
+									partialSpoken.setLength(0);
 								}
 							};
 
 							ActionResult result;
 							try {
-								result = action.getActionMethod().run(system.getEnvironment(action.getPackage(), env),
-										sentence, parameter);
+								result = action.getActionMethod().run(
+										system.getEnvironment(action.getPackage(), env, conversation), sentence, parameter);
 							} catch (Exception e) {
 								result = new ActionResult(ActionResultCode.INTERNAL_ERROR, e.toString());
 							}
 
-							currentResponse = STANDARD_RESPONSE + "<response version=\"" + ACIS.LIBRARY_VERSION
-									+ "\"><type>RESULT</type><name>" + action.getName() + "</name><result><code>"
-									+ result.getResultCode() + "</code><message>" + result.getMessage()
-									+ "</message></result><score>" + matchScore + "</score><output><new><written>"
-									+ env.getPartialWrittenOutput() + "</written><spoken>"
-									+ env.getPartialSpokenOutput() + "</spoken></new><total><written>"
-									+ env.getTotalWrittenOutput() + "</written><spoken>" + env.getTotalSpokenOutput()
-									+ "</spoken></total></output></response>";
-							mRequests.remove(currentRequestId);
+							mRequests.remove(execution.mId, execution);
+							final ActionResult actionResult = result;
+							final Output output = new Output(env);
+							execution.complete(new XmlResponseBody() {
+
+								@Override
+								public void write(XmlWriter xml) throws IOException {
+									xml.declaration().start("response").attribute("version", ACIS.LIBRARY_VERSION)
+											.element("type", "RESULT").element("name", action.getName())
+											.start("result").element("code", actionResult.getResultCode())
+											.element("message", actionResult.getMessage()).end()
+											.element("score", matchScore);
+									output.write(xml);
+									xml.end();
+								}
+							});
 							return result;
 						}
-					});
+					};
+
+					system.executeAsync(conversation, query, threshold, new WeightSet(), listener, 0)
+							.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+
+								@Override
+								public void accept(ActionResult result, Throwable error) {
+									mRequests.remove(execution.mId, execution);
+									// e.g. REJECTED or TIMEOUT, the Action did not respond itself
+									if (result != null)
+										execution.complete(result);
+									// e.g. when the execution failed or no Action was run
+									execution.fail();
+								}
+							});
+					return execution.mResponse;
 				} else {
-					return new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
-							Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+					return completed(new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+							Server.HttpStatusCodeRepresentation.BAD_REQUEST));
 				}
 			} else {
-				return new ServerContext.ServerContextResult("ERROR: MALFORMED REQUEST DATA",
-						Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+				return completed(new ServerContext.ServerContextResult("ERROR: MALFORMED REQUEST DATA",
+						Server.HttpStatusCodeRepresentation.BAD_REQUEST));
 			}
 		} else {
-			return new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
-					Server.HttpStatusCodeRepresentation.BAD_REQUEST);
+			return completed(new ServerContext.ServerContextResult("ERROR: INCOMPLETE REQUEST DATA",
+					Server.HttpStatusCodeRepresentation.BAD_REQUEST));
 		}
+	}
 
-		while (currentResponse.equals("")) {
-			try {
-				Thread.sleep(5);
-			} catch (InterruptedException ignored) {
-			}
+	private static CompletableFuture<ServerContextResult> completed(ServerContextResult result) {
+		return CompletableFuture.completedFuture(result);
+	}
+
+	/**
+	 * Represents a running execution. It holds the response future of the
+	 * client request currently waiting for the execution and the future of the
+	 * input the {@link Action} is waiting for. Every request has its own
+	 * execution, which is only shared with the respond requests answering it.
+	 */
+	private static class Execution {
+		private final String mId;
+		private final String mSession;
+		private volatile CompletableFuture<ServerContextResult> mResponse = new CompletableFuture<>();
+		private volatile CompletableFuture<String> mInput;
+		private volatile MatchResult mBest;
+
+		Execution(String id, String session) {
+			mId = id;
+			mSession = session;
+		}
+
+		/**
+		 * Completes the waiting client request with an XML response.
+		 */
+		void complete(XmlResponseBody body) {
+			ServerContextResult scr = ServerContextResult.xml(body, Server.HttpStatusCodeRepresentation.OK);
+			// the responses are too small to be worth compressing
+			scr.setCompressible(false);
+			mResponse.complete(scr);
+		}
+
+		/**
+		 * Completes the waiting client request with the result of an
+		 * {@link Action} which did not respond itself, because it was not run
+		 * or is still running.
+		 */
+		void complete(final ActionResult result) {
+			final MatchResult best = mBest;
+			complete(new XmlResponseBody() {
+
+				@Override
+				public void write(XmlWriter xml) throws IOException {
+					xml.declaration().start("response").attribute("version", ACIS.LIBRARY_VERSION)
+							.element("type", "RESULT").element("name", best != null ? best.getAction().getName() : "")
+							.start("result").element("code", result.getResultCode())
+							.element("message", result.getMessage()).end()
+							.element("score", best != null ? best.getScore() : 0f).end();
+				}
+			});
+		}
+
+		/**
+		 * Completes the waiting client request with an error when the execution
+		 * ended without a response.
+		 */
+		void fail() {
+			mResponse.complete(new ServerContextResult("ERROR: INTERNAL SERVER ERROR",
+					Server.HttpStatusCodeRepresentation.INTERNAL_SERVER_ERROR));
+			CompletableFuture<String> input = mInput;
+			if (input != null)
+				input.cancel(false);
+		}
+
+		/**
+		 * Hands the content over to the waiting {@link Action}.
+		 *
+		 * @return The future of the response to the respond request. It
+		 *         completes with the next input request or the result.
+		 */
+		CompletableFuture<ServerContextResult> respond(String content) {
+			// the next response must be in place before the Action continues
+			CompletableFuture<ServerContextResult> next = new CompletableFuture<>();
+			mResponse = next;
+			mInput.complete(content);
+			return next;
+		}
+	}
+
+	/**
+	 * A snapshot of the output of a {@link ServerEnvironment}, taken when a
+	 * response is completed, because the {@link Action} continues to add
+	 * output while the response is written.
+	 */
+	private static class Output {
+		private final String mPartialWritten;
+		private final String mPartialSpoken;
+		private final String mTotalWritten;
+		private final String mTotalSpoken;
+
+		Output(ServerEnvironment env) {
+			mPartialWritten = env.getPartialWrittenOutput();
+			mPartialSpoken = env.getPartialSpokenOutput();
+			mTotalWritten = env.getTotalWrittenOutput();
+			mTotalSpoken = env.getTotalSpokenOutput();
+		}
+
+		void write(XmlWriter xml) throws IOException {
+			xml.start("output").start("new").element("written", mPartialWritten).element("spoken", mPartialSpoken)
+					.end().start("total").element("written", mTotalWritten).element("spoken", mTotalSpoken).end()
+					.end();
 		}
-		ServerContextResult scr = new ServerContextResult(currentResponse, Server.HttpStatusCodeRepresentation.OK);
-		scr.setContentType("text/xml");
-		return scr;
 	}
 
 	private interface ServerEnvironment extends SystemEnvironment {
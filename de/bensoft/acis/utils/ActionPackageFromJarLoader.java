@@ -4,9 +4,19 @@
  */
 package de.bensoft.acis.utils;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -23,12 +33,18 @@ import de.bensoft.acis.core.ActionPackage;
  * <i>classes.dex</i> file in the package. You can create such a
  * <i>classes.dex</i> file using dx from the Android build-tools: <i>dx --dex
  * &lt;INPUT_JAR&gt; --output &lt;OUTPUT_CLASSES.DEX&gt;</i>
+ * <p>
+ * To find the ActionPackages, the headers of the class files are read first.
+ * Only classes which implement {@link ActionPackage} or extend a class from
+ * outside the jar-package which may do so are loaded.
  *
  */
 public class ActionPackageFromJarLoader {
 
 	private static final String LOG_TAG = "ACTION_JAR_LOADER";
 
+	private static final String ACTION_PACKAGE = ActionPackage.class.getName().replace('.', '/');
+
 	/**
 	 * Loads Actions defined in a jar-package into the ACIS system.
 	 * 
@@ -40,46 +56,208 @@ public class ActionPackageFromJarLoader {
 	 *             When there is an error with the file.
 	 */
 	public static void loadFromJar(String path, ACIS system) throws Exception {
-		JarFile jarFile = new JarFile(path);
-		Enumeration<JarEntry> en = jarFile.entries();
+		try {
+			for (ActionPackage ap : loadPackages(path, system)) {
+				try {
+					Action[] a = system.compile(ap);
+					system.getActionManager().add(a);
+				} catch (ActionMalformedException ie) {
+					system.getLogger().e(LOG_TAG, "There was an error while creating Action '" + ie.getActionName()
+							+ "': " + ie.toString());
+				}
+			}
+		} catch (Exception e) {
+			system.getLogger().e(LOG_TAG,
+					"There was an error while loading Actions from jar '" + path + "': " + e.toString());
+			system.getLogger().w(LOG_TAG,
+					"Maybe your system does not support loading .class files from a .jar file. (Such as Android only loads classes from .dex files)");
+		}
+	}
 
+	/**
+	 * Instantiates the ActionPackages defined in a jar-package without adding
+	 * their Actions to the ACIS system.<br>
+	 * The class loader of the package stays open, as the Actions may load
+	 * further classes when they run.
+	 * 
+	 * @param path
+	 *            The filepath to the package (extension '.jar' not mandatory).
+	 * @param system
+	 *            The system used for logging.
+	 * @return The ActionPackages. May be of length 0.
+	 * @throws Exception
+	 *             When the file is no jar-package or a class can not be loaded.
+	 */
+	public static ActionPackage[] loadPackages(String path, ACIS system) throws Exception {
+		List<ActionPackage> packages = new ArrayList<>();
 		URL[] urls = { new URL("jar:file:" + path + "!/") };
 		URLClassLoader cl = URLClassLoader.newInstance(urls);
-
-		try {
+		try (JarFile jarFile = new JarFile(path)) {
+			Map<String, ClassHeader> headers = new LinkedHashMap<>(); // in the order of the jar entries
+			Enumeration<JarEntry> en = jarFile.entries();
 			while (en.hasMoreElements()) {
 				JarEntry je = en.nextElement();
 				if (je.isDirectory() || !je.getName().endsWith(".class")) {
 					continue;
 				}
-				String className = je.getName().substring(0, je.getName().length() - 6);
-				className = className.replace('/', '.');
+				try (InputStream in = jarFile.getInputStream(je)) {
+					ClassHeader header = ClassHeader.read(in);
+					headers.put(header.mName, header);
+				}
+			}
+
+			Map<String, Boolean> implementing = new HashMap<>();
+			for (ClassHeader header : headers.values()) {
+				if (!header.mConcrete || !implementsActionPackage(header.mName, headers, implementing, cl))
+					continue;
+				String className = header.mName.replace('/', '.');
 				Class<?> c = cl.loadClass(className);
-				for (Class<?> interf : c.getInterfaces()) {
-					if (interf.getName().equals("de.bensoft.acis.core.ActionPackage")) {
-						try {
-							ActionPackage ap = (ActionPackage) c.newInstance();
-							try {
-								Action[] a = ap.getActions(system.getLanguage());
-								system.getActionManager().add(a);
-							} catch (ActionMalformedException ie) {
-								system.getLogger().e(LOG_TAG, "There was an error while creating Action '"
-										+ ie.getActionName() + "': " + ie.toString());
-							}
-						} catch (InstantiationException i) {
-							system.getLogger().e(LOG_TAG, "There was an error while instantiating Class '" + c.getName()
-									+ "': " + i.toString());
-						}
+				if (ActionPackage.class.isAssignableFrom(c) && !c.isInterface()
+						&& !Modifier.isAbstract(c.getModifiers())) {
+					try {
+						packages.add((ActionPackage) c.newInstance());
+					} catch (InstantiationException i) {
+						system.getLogger().e(LOG_TAG, "There was an error while instantiating Class '" + c.getName()
+								+ "': " + i.toString());
 					}
 				}
 			}
-			jarFile.close();
-			cl.close();
 		} catch (Exception e) {
-			system.getLogger().e(LOG_TAG,
-					"There was an error while loading Actions from jar '" + path + "': " + e.toString());
-			system.getLogger().w(LOG_TAG,
-					"Maybe your system does not support loading .class files from a .jar file. (Such as Android only loads classes from .dex files)");
+			cl.close();
+			throw e;
+		}
+		return packages.toArray(new ActionPackage[0]);
+	}
+
+	/**
+	 * Checks whether a class may implement {@link ActionPackage} without
+	 * loading the classes of the jar-package.
+	 * 
+	 * @param name
+	 *            The internal name of the class, e.g. "java/lang/Object".
+	 * @param headers
+	 *            The {@link ClassHeader}s of the jar-package by name.
+	 * @param implementing
+	 *            The results of previous checks by name.
+	 * @param cl
+	 *            The ClassLoader to check classes from outside the jar-package
+	 *            with.
+	 * @return {@code false} if the class does not implement
+	 *         {@link ActionPackage}, {@code true} if it or a class from
+	 *         outside the jar-package it extends may do so.
+	 */
+	private static boolean implementsActionPackage(String name, Map<String, ClassHeader> headers,
+			Map<String, Boolean> implementing, ClassLoader cl) {
+		if (name == null)
+			return false;
+		if (name.equals(ACTION_PACKAGE))
+			return true;
+		Boolean result = implementing.get(name);
+		if (result != null)
+			return result;
+
+		ClassHeader header = headers.get(name);
+		if (header == null) {
+			try {
+				result = ActionPackage.class.isAssignableFrom(Class.forName(name.replace('/', '.'), false, cl));
+			} catch (ClassNotFoundException | LinkageError e) {
+				// let loading the class report it
+				result = true;
+			}
+		} else {
+			implementing.put(name, false);
+			result = implementsActionPackage(header.mSuperName, headers, implementing, cl);
+			for (int i = 0; i < header.mInterfaces.length && !result; i++)
+				result = implementsActionPackage(header.mInterfaces[i], headers, implementing, cl);
+		}
+		implementing.put(name, result);
+		return result;
+	}
+
+	/**
+	 * The name, super class and interfaces of a class as declared in its class
+	 * file.
+	 *
+	 */
+	private static class ClassHeader {
+
+		private static final int ACC_INTERFACE = 0x0200;
+		private static final int ACC_ABSTRACT = 0x0400;
+
+		private String mName;
+		private String mSuperName;
+		private String[] mInterfaces;
+		private boolean mConcrete;
+
+		/**
+		 * Reads the header of a class file, skipping its constant pool except
+		 * for the class names.
+		 * 
+		 * @param in
+		 *            The class file.
+		 * @return The {@link ClassHeader}.
+		 * @throws IOException
+		 *             When the file is no valid class file.
+		 */
+		static ClassHeader read(InputStream in) throws IOException {
+			DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+			if (data.readInt() != 0xCAFEBABE)
+				throw new IOException("No class file.");
+			data.readUnsignedShort(); // minor version
+			data.readUnsignedShort(); // major version
+
+			int count = data.readUnsignedShort();
+			String[] utf8 = new String[count];
+			int[] classes = new int[count];
+			byte[] skip = new byte[8];
+			for (int i = 1; i < count; i++) {
+				int tag = data.readUnsignedByte();
+				switch (tag) {
+				case 1: // Utf8
+					utf8[i] = data.readUTF();
+					break;
+				case 7: // Class
+					classes[i] = data.readUnsignedShort();
+					break;
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					data.readFully(skip, 0, 2);
+					break;
+				case 15: // MethodHandle
+					data.readFully(skip, 0, 3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					data.readFully(skip, 0, 4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					data.readFully(skip, 0, 8);
+					i++; // takes two entries
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag + ".");
+				}
+			}
+
+			ClassHeader header = new ClassHeader();
+			int access = data.readUnsignedShort();
+			header.mConcrete = (access & (ACC_INTERFACE | ACC_ABSTRACT)) == 0;
+			header.mName = utf8[classes[data.readUnsignedShort()]];
+			int superClass = data.readUnsignedShort();
+			header.mSuperName = superClass == 0 ? null : utf8[classes[superClass]];
+			header.mInterfaces = new String[data.readUnsignedShort()];
+			for (int i = 0; i < header.mInterfaces.length; i++)
+				header.mInterfaces[i] = utf8[classes[data.readUnsignedShort()]];
+			return header;
 		}
 	}
-}
\ No newline at end of file
+}
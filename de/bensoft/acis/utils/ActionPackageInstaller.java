@@ -0,0 +1,232 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionManager;
+import de.bensoft.acis.core.ActionPackage;
+
+/**
+ * Installs ActionPackages from an url without blocking the caller.<br>
+ * An installation runs through the following steps on a background thread:
+ * <ol>
+ * <li>The file is downloaded into a temporary file in
+ * {@link ACIS#getPackageFilesDirectory()}.</li>
+ * <li>It is moved to its final name, a previous file with that name is kept
+ * until the installation succeeded.</li>
+ * <li>The ActionPackages are loaded with the {@link PackageLoader}, their
+ * Actions are created and the triggers are analyzed (see
+ * {@link ACIS#compile(ActionPackage)}).</li>
+ * <li>The Actions are published with
+ * {@link ActionManager#replace(ActionPackage[], Action[])}, replacing the
+ * Actions of a previous version of the packages in one step.</li>
+ * </ol>
+ * Matching continues with the previous Actions until the last step, so it never
+ * sees a partly loaded package. If a step fails, the previous file is restored
+ * and the Actions stay unchanged.<br>
+ * Installations run one after another.
+ *
+ */
+public class ActionPackageInstaller {
+
+	private static final String LOG_TAG = "PACKAGE_INSTALLER";
+	private static final int TIMEOUT = 30000; // ms
+
+	private final ACIS mSystem;
+	private final PackageLoader mLoader;
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "acis-package-installer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Constructor for an ActionPackageInstaller loading jar-packages with
+	 * {@link ActionPackageFromJarLoader}.
+	 *
+	 * @param system
+	 *            The system to install the packages in.
+	 */
+	public ActionPackageInstaller(final ACIS system) {
+		this(system, new PackageLoader() {
+
+			@Override
+			public ActionPackage[] load(File file) throws Exception {
+				return ActionPackageFromJarLoader.loadPackages(file.getAbsolutePath(), system);
+			}
+		});
+	}
+
+	/**
+	 * Constructor for an ActionPackageInstaller.
+	 *
+	 * @param system
+	 *            The system to install the packages in.
+	 * @param loader
+	 *            The {@link PackageLoader} instantiating the ActionPackages of
+	 *            a file, e.g. for systems which can not load classes from a
+	 *            jar-package.
+	 */
+	public ActionPackageInstaller(ACIS system, PackageLoader loader) {
+		mSystem = system;
+		mLoader = loader;
+	}
+
+	/**
+	 * Installs the ActionPackages of a file.
+	 *
+	 * @param url
+	 *            The url to download the file from.
+	 * @param fileName
+	 *            The name to save the file as in
+	 *            {@link ACIS#getPackageFilesDirectory()}. Must not contain a
+	 *            path.
+	 * @return A future completing with the installed ActionPackages or
+	 *         exceptionally when the file could not be downloaded or contains
+	 *         no valid ActionPackage.
+	 * @throws IllegalArgumentException
+	 *             When {@code fileName} is no plain file name.
+	 */
+	public CompletableFuture<ActionPackage[]> install(final URL url, String fileName) throws IllegalArgumentException {
+		if (fileName.isEmpty() || fileName.equals(".") || fileName.equals("..") || fileName.contains("/")
+				|| fileName.contains(File.separator))
+			throw new IllegalArgumentException("Invalid file name '" + fileName + "'.");
+		final Path target = mSystem.getPackageFilesDirectory().toPath().resolve(fileName);
+		return CompletableFuture.supplyAsync(new Supplier<ActionPackage[]>() {
+
+			@Override
+			public ActionPackage[] get() {
+				try {
+					return install(url, target);
+				} catch (Exception e) {
+					mSystem.getLogger().e(LOG_TAG, "Installation from '" + url + "' failed: " + e.toString());
+					throw new CompletionException(e);
+				}
+			}
+		}, mExecutor);
+	}
+
+	/**
+	 * Stops the background thread. Queued installations are cancelled.
+	 */
+	public void shutdown() {
+		mExecutor.shutdownNow();
+	}
+
+	private ActionPackage[] install(URL url, Path target) throws Exception {
+		long start = System.nanoTime();
+		Path dir = target.getParent();
+		Path temp = Files.createTempFile(dir, ".install-", ".part");
+		Path backup = null;
+		try {
+			long size = download(url, temp);
+
+			if (Files.exists(target)) {
+				backup = Files.createTempFile(dir, ".previous-", ".part");
+				move(target, backup);
+			}
+			move(temp, target);
+
+			ActionPackage[] packages = mLoader.load(target.toFile());
+			if (packages.length == 0)
+				throw new IOException("The file contains no ActionPackage.");
+			List<Action> actions = new ArrayList<>();
+			for (ActionPackage pack : packages) {
+				if (pack.getName() == null || pack.getName().isEmpty())
+					throw new IOException("The ActionPackage '" + pack.getClass().getName() + "' has no name.");
+				if (pack.getMinimumRequiredLibraryVersion() > ACIS.LIBRARY_VERSION)
+					throw new IOException("The ActionPackage '" + pack.getName()
+							+ "' requires the minimum library version " + pack.getMinimumRequiredLibraryVersion()
+							+ ".");
+				for (Action a : mSystem.compile(pack))
+					actions.add(a);
+			}
+
+			mSystem.getActionManager().replace(packages, actions.toArray(new Action[0]));
+			mSystem.getLogger().i(LOG_TAG, "Installed " + packages.length + " ActionPackage(s) with " + actions.size()
+					+ " Action(s) from '" + url + "' (" + size + " bytes, "
+					+ (System.nanoTime() - start) / 1000000 + " ms).");
+			if (backup != null)
+				Files.deleteIfExists(backup);
+			return packages;
+		} catch (Exception e) {
+			Files.deleteIfExists(temp);
+			if (backup != null)
+				move(backup, target);
+			else if (Files.exists(target))
+				Files.delete(target);
+			throw e;
+		}
+	}
+
+	private static long download(URL url, Path file) throws IOException {
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream());
+				FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long position = 0;
+			long n;
+			while ((n = out.transferFrom(in, position, 1 << 20)) > 0)
+				position += n;
+			out.force(false);
+			return position;
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Instantiates the ActionPackages of a downloaded file.
+	 *
+	 */
+	public static interface PackageLoader {
+
+		/**
+		 * Instantiates the ActionPackages of a file without adding their
+		 * Actions to the system.
+		 *
+		 * @param file
+		 *            The file.
+		 * @return The ActionPackages. May be of length 0.
+		 * @throws Exception
+		 *             When the file can not be loaded.
+		 */
+		public ActionPackage[] load(File file) throws Exception;
+	}
+}
\ No newline at end of file
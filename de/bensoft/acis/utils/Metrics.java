@@ -0,0 +1,371 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of counters, gauges and histograms which can be written in the
+ * Prometheus text format.<br>
+ * Updating a metric only touches a {@link LongAdder} or {@link DoubleAdder},
+ * there are no locks on the hot path. Metrics should be looked up once and
+ * kept in a field; looking them up again (e.g. with a label per request) is
+ * possible but costs a map lookup.<br>
+ * Metric names should follow the Prometheus conventions (e.g.
+ * acis_http_requests_total, durations in seconds).
+ *
+ */
+public class Metrics {
+
+	/**
+	 * Default buckets for durations in seconds, from 1 ms to 10 s.
+	 */
+	public static final double[] DEFAULT_DURATION_BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+			0.5, 1, 2.5, 5, 10 };
+
+	private static final Metrics DEFAULT = new Metrics();
+
+	// families sorted by name, so the output is stable
+	private final ConcurrentMap<String, Family> mFamilies = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Returns the registry used by the library and the {@link de.bensoft.acis.server.Server}.
+	 *
+	 * @return The default registry.
+	 */
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns a counter, which is created on first use.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            The description of the metric.
+	 * @param labels
+	 *            Label names and values, alternating (e.g. &quot;route&quot;,
+	 *            &quot;/request&quot;).
+	 * @return The {@link Counter}.
+	 * @throws IllegalArgumentException
+	 *             When the name is already used by another type of metric or
+	 *             the labels are not given as pairs.
+	 */
+	public Counter counter(String name, String help, String... labels) throws IllegalArgumentException {
+		Family family = family(name, help, "counter");
+		String key = labelKey(labels);
+		Object metric = family.mMetrics.get(key);
+		if (metric == null) {
+			metric = new Counter();
+			Object previous = family.mMetrics.putIfAbsent(key, metric);
+			if (previous != null)
+				metric = previous;
+		}
+		return (Counter) metric;
+	}
+
+	/**
+	 * Returns a histogram, which is created on first use.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            The description of the metric.
+	 * @param buckets
+	 *            The ascending upper bounds of the buckets. Only used when the
+	 *            histogram is created.
+	 * @param labels
+	 *            Label names and values, alternating.
+	 * @return The {@link Histogram}.
+	 * @throws IllegalArgumentException
+	 *             When the name is already used by another type of metric or
+	 *             the labels are not given as pairs.
+	 */
+	public Histogram histogram(String name, String help, double[] buckets, String... labels)
+			throws IllegalArgumentException {
+		Family family = family(name, help, "histogram");
+		String key = labelKey(labels);
+		Object metric = family.mMetrics.get(key);
+		if (metric == null) {
+			metric = new Histogram(buckets);
+			Object previous = family.mMetrics.putIfAbsent(key, metric);
+			if (previous != null)
+				metric = previous;
+		}
+		return (Histogram) metric;
+	}
+
+	/**
+	 * Registers a gauge, which is read when the metrics are written. A gauge
+	 * registered before with the same name and labels is replaced.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            The description of the metric.
+	 * @param gauge
+	 *            The {@link Gauge} returning the current value. Must be cheap
+	 *            and thread-safe.
+	 * @param labels
+	 *            Label names and values, alternating.
+	 * @throws IllegalArgumentException
+	 *             When the name is already used by another type of metric or
+	 *             the labels are not given as pairs.
+	 */
+	public void gauge(String name, String help, Gauge gauge, String... labels) throws IllegalArgumentException {
+		family(name, help, "gauge").mMetrics.put(labelKey(labels), gauge);
+	}
+
+	/**
+	 * Removes a metric, e.g. one labelled with an {@link de.bensoft.acis.core.ActionPackage}
+	 * which was removed. Does nothing if the name and labels belong to another
+	 * metric meanwhile, so an owner can not remove the metric of its
+	 * successor.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param metric
+	 *            The {@link Counter}, {@link Histogram} or {@link Gauge} to
+	 *            remove.
+	 * @param labels
+	 *            Label names and values, alternating.
+	 * @throws IllegalArgumentException
+	 *             When the labels are not given as pairs.
+	 */
+	public void remove(String name, Object metric, String... labels) throws IllegalArgumentException {
+		String key = labelKey(labels);
+		Family family = mFamilies.get(name);
+		if (family != null)
+			family.mMetrics.remove(key, metric);
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text format (version 0.0.4).
+	 *
+	 * @param writer
+	 *            The {@link Writer} to write to.
+	 * @throws IOException
+	 *             When the {@link Writer} fails.
+	 */
+	public void write(Writer writer) throws IOException {
+		for (Map.Entry<String, Family> f : mFamilies.entrySet()) {
+			String name = f.getKey();
+			Family family = f.getValue();
+			writer.write("# HELP " + name + " " + family.mHelp.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+			writer.write("# TYPE " + name + " " + family.mType + "\n");
+			for (Map.Entry<String, Object> m : family.mMetrics.entrySet()) {
+				String labels = m.getKey();
+				Object metric = m.getValue();
+				if (metric instanceof Counter) {
+					sample(writer, name, labels, null, ((Counter) metric).get());
+				} else if (metric instanceof Gauge) {
+					sample(writer, name, labels, null, ((Gauge) metric).getValue());
+				} else {
+					Histogram histogram = (Histogram) metric;
+					long cumulative = 0;
+					for (int i = 0; i < histogram.mBuckets.length; i++) {
+						cumulative += histogram.mCounts[i].sum();
+						sample(writer, name + "_bucket", labels, "le=\"" + format(histogram.mBuckets[i]) + "\"",
+								cumulative);
+					}
+					cumulative += histogram.mCounts[histogram.mBuckets.length].sum();
+					sample(writer, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+					sample(writer, name + "_sum", labels, null, histogram.mSum.sum());
+					sample(writer, name + "_count", labels, null, cumulative);
+				}
+			}
+		}
+	}
+
+	private Family family(String name, String help, String type) throws IllegalArgumentException {
+		Family family = mFamilies.get(name);
+		if (family == null) {
+			family = new Family(help, type);
+			Family previous = mFamilies.putIfAbsent(name, family);
+			if (previous != null)
+				family = previous;
+		}
+		if (!family.mType.equals(type))
+			throw new IllegalArgumentException("The metric " + name + " is a " + family.mType + ".");
+		return family;
+	}
+
+	private static String labelKey(String[] labels) throws IllegalArgumentException {
+		if (labels.length % 2 != 0)
+			throw new IllegalArgumentException("Labels must be given as name and value pairs.");
+		if (labels.length == 0)
+			return "";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(labels[i]).append("=\"");
+			String value = String.valueOf(labels[i + 1]);
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"')
+					sb.append('\\').append(c);
+				else if (c == '\n')
+					sb.append("\\n");
+				else
+					sb.append(c);
+			}
+			sb.append('"');
+		}
+		return sb.toString();
+	}
+
+	private static void sample(Writer writer, String name, String labels, String extraLabel, double value)
+			throws IOException {
+		writer.write(name);
+		if (!labels.isEmpty() || extraLabel != null) {
+			writer.write('{');
+			writer.write(labels);
+			if (extraLabel != null) {
+				if (!labels.isEmpty())
+					writer.write(',');
+				writer.write(extraLabel);
+			}
+			writer.write('}');
+		}
+		writer.write(' ');
+		writer.write(format(value));
+		writer.write('\n');
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * All metrics with the same name.
+	 */
+	private static class Family {
+		private final String mHelp;
+		private final String mType;
+		// label key -> Counter, Gauge or Histogram
+		private final ConcurrentMap<String, Object> mMetrics = new ConcurrentSkipListMap<>();
+
+		Family(String help, String type) {
+			mHelp = help;
+			mType = type;
+		}
+	}
+
+	/**
+	 * A value that only increases, e.g. the number of requests.
+	 *
+	 */
+	public static class Counter {
+		private final LongAdder mValue = new LongAdder();
+
+		private Counter() {
+		}
+
+		/**
+		 * Increases the counter by one.
+		 */
+		public void inc() {
+			mValue.increment();
+		}
+
+		/**
+		 * Increases the counter.
+		 *
+		 * @param n
+		 *            The amount to add. Must not be negative.
+		 */
+		public void add(long n) {
+			mValue.add(n);
+		}
+
+		/**
+		 * Returns the current value.
+		 *
+		 * @return The value.
+		 */
+		public long get() {
+			return mValue.sum();
+		}
+	}
+
+	/**
+	 * Returns the current value of a gauge, e.g. the number of open
+	 * connections.
+	 *
+	 */
+	public static interface Gauge {
+
+		/**
+		 * Returns the current value.
+		 *
+		 * @return The value.
+		 */
+		public double getValue();
+	}
+
+	/**
+	 * Counts observations (e.g. durations) in buckets.
+	 *
+	 */
+	public static class Histogram {
+		private final double[] mBuckets;
+		// one more than buckets for +Inf; not cumulative, summed up when written
+		private final LongAdder[] mCounts;
+		private final DoubleAdder mSum = new DoubleAdder();
+
+		private Histogram(double[] buckets) {
+			mBuckets = buckets.clone();
+			mCounts = new LongAdder[buckets.length + 1];
+			for (int i = 0; i < mCounts.length; i++)
+				mCounts[i] = new LongAdder();
+		}
+
+		/**
+		 * Adds an observation.
+		 *
+		 * @param value
+		 *            The observed value, e.g. seconds.
+		 */
+		public void observe(double value) {
+			int i = 0;
+			while (i < mBuckets.length && value > mBuckets[i])
+				i++;
+			mCounts[i].increment();
+			mSum.add(value);
+		}
+
+		/**
+		 * Adds a duration measured with {@link System#nanoTime()}.
+		 *
+		 * @param startNanos
+		 *            The value of {@link System#nanoTime()} at the start.
+		 */
+		public void observeSince(long startNanos) {
+			observe((System.nanoTime() - startNanos) / 1e9);
+		}
+
+		/**
+		 * Returns the number of observations.
+		 *
+		 * @return The count.
+		 */
+		public long getCount() {
+			long count = 0;
+			for (LongAdder c : mCounts)
+				count += c.sum();
+			return count;
+		}
+	}
+}
\ No newline at end of file
@@ -4,6 +4,7 @@
  */
 package de.bensoft.acis.utils;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -15,12 +16,17 @@ import de.bensoft.acis.utils.IOUtils.SavingConfig;
 /**
  * Represents a class to help storing settings (preferences) in a file.<br>
  * A preference consists of a unique name and a corresponding value.<br>
- * The preferences file is UTF-8 encoded.
+ * The preferences file is UTF-8 encoded.<br>
+ * The content of the file is kept in memory and only read again when the
+ * file's modification time or length changed. The methods are synchronized.
  *
  */
 public class Preferences {
 
 	private SavingConfig preferenceConfig;
+	private String mContent;
+	private long mContentModified;
+	private long mContentLength;
 
 	/**
 	 * Creates a new Preferences Object using the file in the
@@ -39,8 +45,9 @@ public class Preferences {
 	 * @param config
 	 *            The {@link IOUtils.SavingConfig} to set.
 	 */
-	public void setPreferenceConfig(SavingConfig config) {
+	public synchronized void setPreferenceConfig(SavingConfig config) {
 		preferenceConfig = config;
+		mContent = null;
 	}
 
 	/**
@@ -63,8 +70,8 @@ public class Preferences {
 	 * @return The value for the preference {@code name} or {@code def} when
 	 *         {@code name} could not be found.
 	 */
-	public String get(String name, String def) {
-		String f = IOUtils.readSingleLineFromFile(getPreferenceConfig().getFile());
+	public synchronized String get(String name, String def) {
+		String f = read();
 		String[] el = f.split("<pref>");
 		for (String s : el) {
 			String[] split = s.split("<br>");
@@ -89,7 +96,7 @@ public class Preferences {
 	 *            The corresponding value. Old value will be overridden if
 	 *            {@code name} already exists.
 	 */
-	public void write(String name, String value) {
+	public synchronized void write(String name, String value) {
 		try {
 			remove(name);
 			String element = URLEncoder.encode(name, "UTF-8") + "<br>" + URLEncoder.encode(value, "UTF-8") + "<pref>";
@@ -97,6 +104,7 @@ public class Preferences {
 			fw.append(element);
 			fw.flush();
 			fw.close();
+			mContent = null;
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -111,8 +119,8 @@ public class Preferences {
 	 *            The name of the preference to check for.
 	 * @return {@code true} when it exists, else {@code false}.
 	 */
-	public boolean has(String name) {
-		String f = IOUtils.readSingleLineFromFile(getPreferenceConfig().getFile());
+	public synchronized boolean has(String name) {
+		String f = read();
 		String[] el = f.split("<pref>");
 		for (String s : el) {
 			String[] split = s.split("<br>");
@@ -128,9 +136,9 @@ public class Preferences {
 	 * @param name
 	 *            The name of the preference to remove.
 	 */
-	public void remove(String name) {
+	public synchronized void remove(String name) {
 		try {
-			String all = IOUtils.readSingleLineFromFile(getPreferenceConfig().getFile());
+			String all = read();
 			String[] el = all.split("<pref>");
 			for (int i = 0; i < el.length; i++) {
 				String[] split = el[i].split("<br>");
@@ -147,10 +155,27 @@ public class Preferences {
 			fw.write(all);
 			fw.flush();
 			fw.close();
+			mContent = null;
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the content of the preferences file, read again only if the file
+	 * changed since the last read.
+	 */
+	private String read() {
+		File file = getPreferenceConfig().getFile();
+		long modified = file.lastModified();
+		long length = file.length();
+		if (mContent == null || modified != mContentModified || length != mContentLength) {
+			mContent = IOUtils.readSingleLineFromFile(file);
+			mContentModified = modified;
+			mContentLength = length;
+		}
+		return mContent;
+	}
+}
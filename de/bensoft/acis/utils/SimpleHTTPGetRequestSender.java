@@ -5,10 +5,12 @@
 package de.bensoft.acis.utils;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -21,6 +23,8 @@ import javax.net.ssl.SSLSession;
  */
 public final class SimpleHTTPGetRequestSender {
 
+	private static final AtomicLong FAILURES = new AtomicLong();
+
 	/**
 	 * Send a GET request to an address and returns a String containing the
 	 * content returned from the host.<br>
@@ -46,19 +50,60 @@ public final class SimpleHTTPGetRequestSender {
 		HttpsURLConnection.setDefaultHostnameVerifier(allHostsValid);
 
 		URL url = new URL(link);
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setReadTimeout(10000);
-		conn.setConnectTimeout(5000);
-		conn.setRequestMethod("GET");
-		conn.connect();
-		InputStream is = conn.getInputStream();
-		BufferedReader r = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-		StringBuilder total = new StringBuilder();
-		String line;
-		while ((line = r.readLine()) != null) {
-			total.append(line).append('\n');
+		long start = System.nanoTime();
+		boolean success = false;
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) url.openConnection();
+			conn.setReadTimeout(10000);
+			conn.setConnectTimeout(5000);
+			conn.setRequestMethod("GET");
+			conn.connect();
+			InputStream is = conn.getInputStream();
+			BufferedReader r = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+			StringBuilder total = new StringBuilder();
+			String line;
+			while ((line = r.readLine()) != null) {
+				total.append(line).append('\n');
+			}
+			is.close();
+			success = true;
+			return total.toString();
+		} finally {
+			if (!success && !isClientError(conn))
+				FAILURES.incrementAndGet();
+			// the language backends (WordNet, Wiktionary) are queried through here
+			Metrics.getDefault()
+					.histogram("acis_http_client_request_duration_seconds",
+							"Duration of outgoing GET requests, e.g. to language backends, by host.",
+							Metrics.DEFAULT_DURATION_BUCKETS, "host", url.getHost(), "outcome",
+							success ? "success" : "error")
+					.observeSince(start);
+		}
+	}
+
+	/**
+	 * Returns the number of requests which failed because the host could not
+	 * be reached or failed itself, e.g. a language backend being down. Requests
+	 * answered with a client error (e.g. 404 for an unknown word) are not
+	 * counted.<br>
+	 * Comparing the number before and after an operation tells whether its
+	 * results may be incomplete.
+	 * 
+	 * @return The number of failed requests since the start.
+	 */
+	public static long getFailureCount() {
+		return FAILURES.get();
+	}
+
+	private static boolean isClientError(HttpURLConnection conn) {
+		if (conn == null)
+			return false;
+		try {
+			int code = conn.getResponseCode();
+			return code >= 400 && code < 500;
+		} catch (IOException e) {
+			return false;
 		}
-		is.close();
-		return total.toString();
 	}
 }
\ No newline at end of file
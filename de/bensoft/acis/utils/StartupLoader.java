@@ -0,0 +1,374 @@
+/**
+ * @author Ben-Noah Engelhaupt (code@bensoft.de) GitHub: bensoftde
+ *
+ */
+package de.bensoft.acis.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import de.bensoft.acis.core.ACIS;
+import de.bensoft.acis.core.Action;
+import de.bensoft.acis.core.ActionMalformedException;
+import de.bensoft.acis.core.ActionManager;
+import de.bensoft.acis.core.ActionPackage;
+import de.bensoft.acis.utils.ActionPackageInstaller.PackageLoader;
+
+/**
+ * Loads the ActionPackages of a system at startup in parallel.<br>
+ * Every file is loaded on a thread of a pool, and every ActionPackage is
+ * compiled (see {@link ACIS#compile(ActionPackage)}) as soon as its file is
+ * loaded, so reading the files overlaps with the analysis of the triggers and
+ * the preparation of the packages' data directories. Finally all Actions
+ * are added to the {@link ActionManager} at once, in the order the packages and
+ * files were added to the loader.<br>
+ * {@link #run()} returns a {@link Timeline} of the steps, which is also written
+ * to the log of the system.
+ *
+ */
+public class StartupLoader {
+
+	private static final String LOG_TAG = "STARTUP";
+
+	private final ACIS mSystem;
+	private final PackageLoader mLoader;
+	private final List<Object> mSources = new ArrayList<>(); // ActionPackages and Files
+	private int mThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Constructor for a StartupLoader loading jar-packages with
+	 * {@link ActionPackageFromJarLoader}.
+	 *
+	 * @param system
+	 *            The system to load the packages in.
+	 */
+	public StartupLoader(final ACIS system) {
+		this(system, new PackageLoader() {
+
+			@Override
+			public ActionPackage[] load(File file) throws Exception {
+				return ActionPackageFromJarLoader.loadPackages(file.getAbsolutePath(), system);
+			}
+		});
+	}
+
+	/**
+	 * Constructor for a StartupLoader.
+	 *
+	 * @param system
+	 *            The system to load the packages in.
+	 * @param loader
+	 *            The {@link PackageLoader} instantiating the ActionPackages of
+	 *            a file.
+	 */
+	public StartupLoader(ACIS system, PackageLoader loader) {
+		mSystem = system;
+		mLoader = loader;
+	}
+
+	/**
+	 * Adds an ActionPackage to be compiled.
+	 *
+	 * @param pack
+	 *            The ActionPackage.
+	 * @return This StartupLoader.
+	 */
+	public StartupLoader addPackage(ActionPackage pack) {
+		mSources.add(pack);
+		return this;
+	}
+
+	/**
+	 * Adds a file whose ActionPackages are to be loaded.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return This StartupLoader.
+	 */
+	public StartupLoader addFile(File file) {
+		mSources.add(file);
+		return this;
+	}
+
+	/**
+	 * Adds the files of a directory with a name ending, sorted by name.
+	 *
+	 * @param directory
+	 *            The directory, e.g. {@link ACIS#getPackageFilesDirectory()}.
+	 * @param ending
+	 *            The ending of the file names, e.g. ".acp".
+	 * @return This StartupLoader.
+	 */
+	public StartupLoader addFiles(File directory, String ending) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return this;
+		Arrays.sort(files);
+		for (File f : files)
+			if (f.isFile() && f.getName().endsWith(ending))
+				addFile(f);
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads loading and compiling the packages.
+	 *
+	 * @param threads
+	 *            The number of threads, at least 1. The default is the number of
+	 *            processors, but at least 2.
+	 * @throws IllegalArgumentException
+	 *             When {@code threads} is less than 1.
+	 */
+	public void setThreads(int threads) throws IllegalArgumentException {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is required.");
+		mThreads = threads;
+	}
+
+	/**
+	 * Loads and compiles all added packages and adds their Actions to the
+	 * system. Files which can not be loaded and malformed ActionPackages are
+	 * logged and skipped, like {@link ActionPackageFromJarLoader} does.
+	 *
+	 * @return The {@link Timeline} of the startup.
+	 * @throws InterruptedException
+	 *             When the calling Thread was interrupted while waiting. No
+	 *             Actions were added then.
+	 */
+	public Timeline run() throws InterruptedException {
+		final Timeline timeline = new Timeline();
+		ExecutorService pool = Executors.newFixedThreadPool(mThreads, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "acis-startup-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<CompletableFuture<List<Action[]>>> sources = new ArrayList<>(mSources.size());
+			for (Object source : mSources)
+				sources.add(load(source, pool, timeline));
+
+			List<Action> actions = new ArrayList<>();
+			for (CompletableFuture<List<Action[]>> source : sources) {
+				try {
+					for (Action[] a : source.get())
+						actions.addAll(Arrays.asList(a));
+				} catch (ExecutionException e) {
+					mSystem.getLogger().e(LOG_TAG, "Loading failed: " + e.getCause().toString());
+				}
+			}
+
+			long start = System.nanoTime();
+			mSystem.getActionManager().add(actions.toArray(new Action[0]));
+			timeline.add("add " + actions.size() + " Action(s)", start);
+		} finally {
+			pool.shutdownNow();
+		}
+		timeline.finish();
+
+		mSystem.getLogger().i(LOG_TAG, "Started in " + timeline.getDuration() + " ms with " + mSources.size()
+				+ " package(s) and file(s) on " + mThreads + " thread(s):" + System.lineSeparator() + timeline);
+		return timeline;
+	}
+
+	private CompletableFuture<List<Action[]>> load(final Object source, final Executor pool,
+			final Timeline timeline) {
+		CompletableFuture<ActionPackage[]> packages;
+		if (source instanceof ActionPackage) {
+			packages = CompletableFuture.completedFuture(new ActionPackage[] { (ActionPackage) source });
+		} else {
+			packages = CompletableFuture.supplyAsync(new Supplier<ActionPackage[]>() {
+
+				@Override
+				public ActionPackage[] get() {
+					File file = (File) source;
+					long start = System.nanoTime();
+					try {
+						return mLoader.load(file);
+					} catch (Exception e) {
+						mSystem.getLogger().e(LOG_TAG,
+								"There was an error while loading Actions from '" + file + "': " + e.toString());
+						return new ActionPackage[0];
+					} finally {
+						timeline.add("load '" + file.getName() + "'", start);
+					}
+				}
+			}, pool);
+		}
+
+		return packages.thenCompose(new Function<ActionPackage[], CompletableFuture<List<Action[]>>>() {
+
+			@Override
+			public CompletableFuture<List<Action[]>> apply(ActionPackage[] loaded) {
+				final List<CompletableFuture<Action[]>> compiled = new ArrayList<>(loaded.length);
+				for (ActionPackage pack : loaded)
+					compiled.add(compile(pack, pool, timeline));
+				return CompletableFuture.allOf(compiled.toArray(new CompletableFuture<?>[0]))
+						.thenApply(new Function<Void, List<Action[]>>() {
+
+							@Override
+							public List<Action[]> apply(Void ignored) {
+								List<Action[]> actions = new ArrayList<>(compiled.size());
+								for (CompletableFuture<Action[]> c : compiled)
+									actions.add(c.join());
+								return actions;
+							}
+						});
+			}
+		});
+	}
+
+	private CompletableFuture<Action[]> compile(final ActionPackage pack, Executor pool, final Timeline timeline) {
+		return CompletableFuture.supplyAsync(new Supplier<Action[]>() {
+
+			@Override
+			public Action[] get() {
+				long start = System.nanoTime();
+				try {
+					return mSystem.compile(pack);
+				} catch (ActionMalformedException e) {
+					mSystem.getLogger().e(LOG_TAG, "There was an error while creating Action '" + e.getActionName()
+							+ "': " + e.toString());
+					return new Action[0];
+				} finally {
+					timeline.add("compile '" + pack.getName() + "'", start);
+				}
+			}
+		}, pool);
+	}
+
+	/**
+	 * The steps of a startup with their start time and duration.
+	 *
+	 */
+	public static class Timeline {
+
+		private final long mStart = System.nanoTime();
+		private final List<Step> mSteps = new ArrayList<>();
+		private long mDuration = -1;
+
+		private synchronized void add(String name, long start) {
+			mSteps.add(new Step(name, Thread.currentThread().getName(), (start - mStart) / 1000000,
+					(System.nanoTime() - start) / 1000000));
+		}
+
+		private synchronized void finish() {
+			mDuration = (System.nanoTime() - mStart) / 1000000;
+		}
+
+		/**
+		 * Returns the steps.
+		 *
+		 * @return The {@link Step}s sorted by their start time.
+		 */
+		public synchronized List<Step> getSteps() {
+			List<Step> steps = new ArrayList<>(mSteps);
+			Collections.sort(steps, new Comparator<Step>() {
+
+				@Override
+				public int compare(Step o1, Step o2) {
+					return Long.compare(o1.mStart, o2.mStart);
+				}
+			});
+			return steps;
+		}
+
+		/**
+		 * Returns the duration of the startup.
+		 *
+		 * @return The duration in milliseconds.
+		 */
+		public synchronized long getDuration() {
+			return mDuration;
+		}
+
+		/**
+		 * Returns the steps, one per line with start time, duration, name and
+		 * thread.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Step step : getSteps())
+				sb.append(step).append(System.lineSeparator());
+			return sb.append(String.format("%6d ms %6d ms  total", 0, getDuration())).toString();
+		}
+	}
+
+	/**
+	 * A step of a startup.
+	 *
+	 */
+	public static class Step {
+
+		private final String mName;
+		private final String mThread;
+		private final long mStart;
+		private final long mDuration;
+
+		private Step(String name, String thread, long start, long duration) {
+			mName = name;
+			mThread = thread;
+			mStart = start;
+			mDuration = duration;
+		}
+
+		/**
+		 * Returns the name of the step, e.g. "compile 'my.package'".
+		 *
+		 * @return The name.
+		 */
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * Returns the name of the thread which ran the step.
+		 *
+		 * @return The name of the thread.
+		 */
+		public String getThread() {
+			return mThread;
+		}
+
+		/**
+		 * Returns the start time of the step.
+		 *
+		 * @return The milliseconds since the startup began.
+		 */
+		public long getStart() {
+			return mStart;
+		}
+
+		/**
+		 * Returns the duration of the step.
+		 *
+		 * @return The duration in milliseconds.
+		 */
+		public long getDuration() {
+			return mDuration;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%6d ms %6d ms  %-40s %s", mStart, mDuration, mName, mThread);
+		}
+	}
+}
\ No newline at end of file
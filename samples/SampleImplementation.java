@@ -1,6 +1,5 @@
 package samples;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -31,8 +30,15 @@ import de.bensoft.acis.languages.Unified;
 import de.bensoft.acis.server.Server;
 import de.bensoft.acis.server.ServerContext;
 import de.bensoft.acis.server.User;
+import de.bensoft.acis.server.contexts.SampleActionListHandler;
+import de.bensoft.acis.server.contexts.SampleActionPackageInstallerHandler;
+import de.bensoft.acis.server.contexts.SampleBatchRequestHandler;
+import de.bensoft.acis.server.contexts.SampleConversationHandler;
+import de.bensoft.acis.server.contexts.SampleEventStreamHandler;
+import de.bensoft.acis.server.contexts.SampleFileViewHandler;
 import de.bensoft.acis.server.contexts.SampleRequestHandler;
-import de.bensoft.acis.utils.ActionPackageFromJarLoader;
+import de.bensoft.acis.utils.ActionPackageInstaller;
+import de.bensoft.acis.utils.StartupLoader;
 
 public class SampleImplementation {
 
@@ -229,25 +235,45 @@ public class SampleImplementation {
 				}
 			};
 
-			// add the Actions from the ActionPackage
-			mySystem.getActionManager().add(sampleActionPackage.getActions(mySystem.getLanguage()));
-
 			/*
-			 * add Actions from .acp files in the
+			 * add the Actions from the ActionPackage and from .acp files in the
 			 * mySystem.getPackageFilesDirectory() (usually the
-			 * mySystem.getDataDirectory() + /packages)
+			 * mySystem.getDataDirectory() + /packages), loaded in parallel. The
+			 * triggers are analyzed once and kept in the data directory. The
+			 * timeline of the startup is written to the log.
 			 */
-			for (File f : mySystem.getPackageFilesDirectory().listFiles()) {
-				if (f.getName().endsWith(".acp"))
-					ActionPackageFromJarLoader.loadFromJar(f.getAbsolutePath(), mySystem);
-			}
+			new StartupLoader(mySystem).addPackage(sampleActionPackage)
+					.addFiles(mySystem.getPackageFilesDirectory(), ".acp").run();
 
 			// Establish a Server
-			Server s = new Server(4964);
+			final Server s = new Server(4964);
 			s.addUser(new User("sample", "samplepassword"));
 			s.addUser(new User("restrictedsample", "samplepassword", new String[] { "/restrictedpath" }));
-			s.registerContext(new ServerContext("/request", mySystem, new SampleRequestHandler(), true));
+			ServerContext request = new ServerContext("/request", mySystem, new SampleRequestHandler(), true);
+			/*
+			 * every query starts an Action thread; the limit applies per user and
+			 * per session, -Dacis.sample.rateLimit=0 removes it (e.g. for the
+			 * de.bensoft.acis.bench.LoadGenerator)
+			 */
+			request.setRateLimit(Double.parseDouble(System.getProperty("acis.sample.rateLimit", "2")), 10);
+			s.registerContext(request);
+			s.registerContext(new ServerContext("/events", mySystem, new SampleEventStreamHandler(), true));
+			s.registerContext(new ServerContext("/conversation", mySystem, new SampleConversationHandler(), true));
+			s.registerContext(new ServerContext("/batch", mySystem, new SampleBatchRequestHandler(), true));
+			s.registerContext(new ServerContext("/actions", mySystem, new SampleActionListHandler(), true));
+			s.registerContext(new ServerContext("/file", mySystem, new SampleFileViewHandler(), true));
+			s.registerContext(new ServerContext("/install", mySystem,
+					new SampleActionPackageInstallerHandler(new ActionPackageInstaller(mySystem)), true));
 			s.start();
+
+			// let running requests finish when the process is terminated, e.g. on a restart
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					s.stop(10000);
+				}
+			}));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
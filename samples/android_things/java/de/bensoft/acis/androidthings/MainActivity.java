@@ -51,6 +51,7 @@ import de.bensoft.acis.server.contexts.SampleActionListHandler;
 import de.bensoft.acis.server.contexts.SampleActionPackageInstallerHandler;
 import de.bensoft.acis.server.contexts.SampleFileViewHandler;
 import de.bensoft.acis.server.contexts.SampleRequestHandler;
+import de.bensoft.acis.utils.ActionPackageInstaller;
 import de.bensoft.acis.utils.Logging.Logger;
 import de.bensoft.acis.utils.Logging.LoggingConfig;
 
@@ -175,7 +176,7 @@ public class MainActivity extends Activity {
                 if (actionPackages.size() != 0) {
                     for (ActionPackage ap : actionPackages) {
                         try {
-                            mACISSystem.getActionManager().add(ap.getActions(mACISSystem.getLanguage()));
+                            mACISSystem.getActionManager().add(mACISSystem.compile(ap));
 
                         } catch (ActionMalformedException ie) {
                             mACISSystem.getLogger().e("JAR_ACTION_LOADER", "There was an error while creating Action '" + ie.getActionName() + "': " + ie.toString());
@@ -210,24 +211,10 @@ public class MainActivity extends Activity {
                 s.registerContext(new ServerContext("/request", mACISSystem, new SampleRequestHandler(), true));
                 s.registerContext(new ServerContext("/actions", mACISSystem, new SampleActionListHandler(), true));
                 s.registerContext(new ServerContext("/file", mACISSystem, new SampleFileViewHandler(), true));
-                s.registerContext(new ServerContext("/install", mACISSystem, new SampleActionPackageInstallerHandler(() -> {
-                    try {
-                        List<ActionPackage> actionPackages = loadActions(mACISSystem, getApplicationContext());
-                        if (actionPackages.size() != 0) {
-                            for (ActionPackage ap : actionPackages) {
-                                try {
-                                    mACISSystem.getActionManager().add(ap.getActions(mACISSystem.getLanguage()));
-                                } catch (ActionMalformedException ie) {
-                                    mACISSystem.getLogger().e("JAR_ACTION_LOADER", "There was an error while creating Action '" + ie.getActionName() + "': " + ie.toString());
-                                }
-                            }
-                        } else {
-                            mACISSystem.getLogger().e("JAR_ACTION_LOADER", "Error loading the packages");
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }), true));
+                //installed packages replace their previous version without a restart
+                ActionPackageInstaller installer = new ActionPackageInstaller(mACISSystem,
+                        file -> loadActionPackages(mACISSystem, getApplicationContext(), file).toArray(new ActionPackage[0]));
+                s.registerContext(new ServerContext("/install", mACISSystem, new SampleActionPackageInstallerHandler(installer), true));
 
                 //add some users
                 s.addUser(new User("Ben", "olaunce=acis"));
@@ -400,36 +387,42 @@ public class MainActivity extends Activity {
         List<ActionPackage> actionLoaders = new ArrayList<>();
         for (File f : system.getPackageFilesDirectory().listFiles()) {
             if (f.getName().endsWith(".acp") || f.getName().endsWith(".jar")) {
-                String filePath = f.getAbsolutePath();
-                JarFile jarFile = new JarFile(filePath);
-                Enumeration<JarEntry> en = jarFile.entries();
-                while (en.hasMoreElements()) {
-                    JarEntry je = en.nextElement();
-                    if (je.isDirectory() || !je.getName().endsWith(".class")) {
-                        continue;
-                    }
-                    String className = je.getName().substring(0, je.getName().length() - 6);
-                    className = className.replace('/', '.');
-                    DexClassLoader classLoader = new DexClassLoader(filePath, con.getCodeCacheDir().getAbsolutePath(), null, con.getClassLoader());
-                    try {
-                        Class<?> c = classLoader.loadClass(className);
-                        for (Class<?> interf : c.getInterfaces()) {
-                            if (interf.getName().equals("de.bensoft.acis.core.ActionPackage")) {
-                                try {
-                                    ActionPackage ap = (ActionPackage) c.newInstance();
-                                    actionLoaders.add(ap);
-                                } catch (InstantiationException i) {
-                                    system.getLogger().e("JAR_ACTIONPACKAGE_LOADER", "There was an error while instantiating Class '" + c.getName() + "': " + i.toString());
-                                }
-                            }
+                actionLoaders.addAll(loadActionPackages(system, con, f));
+            }
+        }
+        return actionLoaders;
+    }
+
+    public static List<ActionPackage> loadActionPackages(ACIS system, Context con, File f) throws Exception {
+        List<ActionPackage> actionLoaders = new ArrayList<>();
+        String filePath = f.getAbsolutePath();
+        JarFile jarFile = new JarFile(filePath);
+        Enumeration<JarEntry> en = jarFile.entries();
+        while (en.hasMoreElements()) {
+            JarEntry je = en.nextElement();
+            if (je.isDirectory() || !je.getName().endsWith(".class")) {
+                continue;
+            }
+            String className = je.getName().substring(0, je.getName().length() - 6);
+            className = className.replace('/', '.');
+            DexClassLoader classLoader = new DexClassLoader(filePath, con.getCodeCacheDir().getAbsolutePath(), null, con.getClassLoader());
+            try {
+                Class<?> c = classLoader.loadClass(className);
+                for (Class<?> interf : c.getInterfaces()) {
+                    if (interf.getName().equals("de.bensoft.acis.core.ActionPackage")) {
+                        try {
+                            ActionPackage ap = (ActionPackage) c.newInstance();
+                            actionLoaders.add(ap);
+                        } catch (InstantiationException i) {
+                            system.getLogger().e("JAR_ACTIONPACKAGE_LOADER", "There was an error while instantiating Class '" + c.getName() + "': " + i.toString());
                         }
-                    } catch (ClassNotFoundException cnfe) {
-                        system.getLogger().e("JAR_ACTIONPACKAGE_LOADER", "There was an error while loading Class '" + className + "': " + cnfe.toString());
                     }
                 }
-                jarFile.close();
+            } catch (ClassNotFoundException cnfe) {
+                system.getLogger().e("JAR_ACTIONPACKAGE_LOADER", "There was an error while loading Class '" + className + "': " + cnfe.toString());
             }
         }
+        jarFile.close();
         return actionLoaders;
     }
 }